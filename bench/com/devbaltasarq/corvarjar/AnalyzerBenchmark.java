@@ -0,0 +1,406 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+
+/** Benchmarks each stage of ResultAnalyzer, and the whole analysis, on its own.
+  * Recordings are created by SyntheticRR, from 100 beats to 24 hours.
+  * Each benchmark is warmed up, and then measured in several iterations of a fixed time,
+  * reporting the time per operation and the memory allocated per operation,
+  * as read from the JVM for the running thread.
+  * Usage: AnalyzerBenchmark [--sizes 100,1000] [--stages filter,apen]
+  *                          [--warmup n] [--iterations n] [--time millis]
+  */
+public final class AnalyzerBenchmark {
+    public static final int[] DEFAULT_SIZES = { 100, 1_000, 10_000, 100_000 };
+    public static final int DEFAULT_WARMUP_ITERATIONS = 3;
+    public static final int DEFAULT_ITERATIONS = 5;
+    public static final long DEFAULT_ITERATION_MILLIS = 1000;
+
+    /** A benchmarked operation. It returns a value, so the work is not optimized away. */
+    interface Operation {
+        double run() throws Exception;
+    }
+
+    /** The stages benchmarked, each one preparing its operation for a given recording. */
+    enum Stage {
+        FROM_JSON {
+            @Override
+            Operation prepare(final Result RESULT)
+            {
+                final byte[] JSON = toJson( RESULT );
+
+                return () -> Result.fromJSON(
+                                new InputStreamReader( new ByteArrayInputStream( JSON ),
+                                                       StandardCharsets.UTF_8 ) ).size();
+            }
+        },
+        FROM_STREAM {
+            @Override
+            Operation prepare(final Result RESULT)
+            {
+                final byte[] JSON = toJson( RESULT );
+
+                return () -> Result.fromStream( new ByteArrayInputStream( JSON ) ).size();
+            }
+        },
+        FILTER {
+            @Override
+            Operation prepare(final Result RESULT)
+            {
+                final ResultAnalyzer ANALYZER = analyzed( RESULT );
+
+                return ANALYZER::runFilterStage;
+            }
+        },
+        INTERPOLATE {
+            @Override
+            Operation prepare(final Result RESULT)
+            {
+                final ResultAnalyzer ANALYZER = analyzed( RESULT );
+
+                return ANALYZER::runInterpolationStage;
+            }
+        },
+        SPECTRUM {
+            @Override
+            Operation prepare(final Result RESULT)
+            {
+                final ResultAnalyzer ANALYZER = analyzed( RESULT );
+
+                return () -> ANALYZER.runSpectrumStage()[ 0 ];
+            }
+        },
+        FFT {
+            @Override
+            Operation prepare(final Result RESULT)
+            {
+                // The size of one Welch window: a third of the interpolated signal
+                final Float[] SIGNAL = analyzed( RESULT ).getDataHRInterpolated();
+                final int WINDOW_LENGTH = Math.max( 2, SIGNAL.length / 3 );
+                final FftPlan PLAN = FftPlan.forSize( Integer.highestOneBit( WINDOW_LENGTH - 1 ) << 1 );
+                final int HALF = PLAN.getSize() / 2;
+                final double[] EVEN = new double[ HALF ];
+                final double[] ODD = new double[ HALF ];
+                final double[] RE = new double[ HALF ];
+                final double[] IM = new double[ HALF ];
+
+                for (int i = 0; i < HALF; ++i) {
+                    EVEN[ i ] = 2 * i < SIGNAL.length ? SIGNAL[ 2 * i ] : 0;
+                    ODD[ i ] = 2 * i + 1 < SIGNAL.length ? SIGNAL[ 2 * i + 1 ] : 0;
+                }
+
+                return () -> {
+                    System.arraycopy( EVEN, 0, RE, 0, HALF );
+                    System.arraycopy( ODD, 0, IM, 0, HALF );
+                    PLAN.transformReal( RE, IM );
+                    return RE[ 0 ];
+                };
+            }
+        },
+        APEN {
+            @Override
+            Operation prepare(final Result RESULT)
+            {
+                final ResultAnalyzer ANALYZER = analyzed( RESULT );
+
+                return ANALYZER::runApEnStage;
+            }
+        },
+        MADRR {
+            @Override
+            Operation prepare(final Result RESULT)
+            {
+                final ResultAnalyzer ANALYZER = analyzed( RESULT );
+
+                return ANALYZER::runMadRRStage;
+            }
+        },
+        ANALYZE {
+            @Override
+            Operation prepare(final Result RESULT)
+            {
+                return () -> {
+                    final ResultAnalyzer ANALYZER = new ResultAnalyzer( RESULT );
+
+                    ANALYZER.analyze();
+                    return ANALYZER.getStressLevel();
+                };
+            }
+        };
+
+        /** @return the operation to measure, with all its input ready. */
+        abstract Operation prepare(Result result) throws Exception;
+
+        /** @return the name of the stage, as used in the command line. */
+        String getName()
+        {
+            return this.toString().toLowerCase( Locale.ROOT ).replace( '_', '-' );
+        }
+
+        /** @return the stage with the given name.
+          * @throws IllegalArgumentException if there is no stage with that name.
+          */
+        static Stage parse(String name)
+        {
+            for(Stage stage: values()) {
+                if ( stage.getName().equalsIgnoreCase( name.trim() ) ) {
+                    return stage;
+                }
+            }
+
+            throw new IllegalArgumentException( "unknown stage: " + name );
+        }
+    }
+
+    /** The measurements of a benchmark. */
+    static final class Measurement {
+        Measurement(Stage stage, int numBeats, double[] nanosPerOp, double[] bytesPerOp)
+        {
+            this.stage = stage;
+            this.numBeats = numBeats;
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        /** @return the mean time per operation, in nanoseconds. */
+        double getNanosPerOp()
+        {
+            return mean( this.nanosPerOp );
+        }
+
+        /** @return the standard deviation of the time per operation, among iterations. */
+        double getNanosPerOpError()
+        {
+            return stdDev( this.nanosPerOp );
+        }
+
+        /** @return the mean number of bytes allocated per operation. */
+        double getBytesPerOp()
+        {
+            return mean( this.bytesPerOp );
+        }
+
+        /** @return the allocation rate, in MB per second. */
+        double getAllocationRate()
+        {
+            final double NANOS = this.getNanosPerOp();
+
+            return NANOS == 0 ? 0 : this.getBytesPerOp() / NANOS * 1e9 / ( 1024 * 1024 );
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format( Locale.ROOT, "%-12s %9d %16.1f %12.1f %14.1f %12.1f",
+                                  this.stage.getName(), this.numBeats,
+                                  this.getNanosPerOp(), this.getNanosPerOpError(),
+                                  this.getBytesPerOp(), this.getAllocationRate() );
+        }
+
+        static String getHeader()
+        {
+            return String.format( Locale.ROOT, "%-12s %9s %16s %12s %14s %12s",
+                                  "stage", "beats", "ns/op", "error", "B/op", "alloc MB/s" );
+        }
+
+        private final Stage stage;
+        private final int numBeats;
+        private final double[] nanosPerOp;
+        private final double[] bytesPerOp;
+    }
+
+    /** Creates a benchmark with the default sizes, stages and iterations. */
+    public AnalyzerBenchmark()
+    {
+        this.sizes = DEFAULT_SIZES.clone();
+        this.stages = Stage.values();
+        this.numWarmupIterations = DEFAULT_WARMUP_ITERATIONS;
+        this.numIterations = DEFAULT_ITERATIONS;
+        this.iterationMillis = DEFAULT_ITERATION_MILLIS;
+        this.generator = new SyntheticRR();
+        this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+
+    /** Runs the benchmarks, printing each measurement as soon as it is taken.
+      * @return all measurements.
+      * @throws Exception if a stage fails.
+      */
+    public List<Measurement> run() throws Exception
+    {
+        final List<Measurement> TORET = new ArrayList<>();
+
+        System.out.println( Measurement.getHeader() );
+
+        for(int numBeats: this.sizes) {
+            final Result RESULT = this.generator.create( numBeats );
+
+            for(Stage stage: this.stages) {
+                final Measurement MEASUREMENT = this.measure( stage, numBeats,
+                                                              stage.prepare( RESULT ) );
+
+                System.out.println( MEASUREMENT );
+                TORET.add( MEASUREMENT );
+            }
+        }
+
+        return TORET;
+    }
+
+    /** Measures an operation: first warming it up, then in timed iterations. */
+    private Measurement measure(Stage stage, int numBeats, Operation op) throws Exception
+    {
+        final double[] NANOS_PER_OP = new double[ this.numIterations ];
+        final double[] BYTES_PER_OP = new double[ this.numIterations ];
+        final long THREAD_ID = Thread.currentThread().getId();
+
+        for (int i = 0; i < this.numWarmupIterations; ++i) {
+            this.iterate( op );
+        }
+
+        for (int i = 0; i < this.numIterations; ++i) {
+            final long ALLOCATED_START = this.threads.getThreadAllocatedBytes( THREAD_ID );
+            final long TIME_START = System.nanoTime();
+            final long NUM_OPS = this.iterate( op );
+            final long TIME = System.nanoTime() - TIME_START;
+            final long ALLOCATED = this.threads.getThreadAllocatedBytes( THREAD_ID ) - ALLOCATED_START;
+
+            NANOS_PER_OP[ i ] = ( (double) TIME ) / NUM_OPS;
+            BYTES_PER_OP[ i ] = ( (double) ALLOCATED ) / NUM_OPS;
+        }
+
+        return new Measurement( stage, numBeats, NANOS_PER_OP, BYTES_PER_OP );
+    }
+
+    /** Runs an operation for the time of an iteration, and at least once.
+      * @return the number of operations run.
+      */
+    private long iterate(Operation op) throws Exception
+    {
+        final long DEADLINE = System.nanoTime() + this.iterationMillis * 1_000_000L;
+        long toret = 0;
+
+        do {
+            this.sink += op.run();
+            ++toret;
+        } while( System.nanoTime() < DEADLINE );
+
+        return toret;
+    }
+
+    /** @return the result, as the bytes of a .res file. */
+    private static byte[] toJson(Result result)
+    {
+        final ByteArrayOutputStream BYTES = new ByteArrayOutputStream();
+
+        result.toJSON( new OutputStreamWriter( BYTES, StandardCharsets.UTF_8 ) );
+        return BYTES.toByteArray();
+    }
+
+    /** @return an analyzer, after a complete analysis of the result. */
+    private static ResultAnalyzer analyzed(Result result)
+    {
+        final ResultAnalyzer TORET = new ResultAnalyzer( result );
+
+        TORET.analyze();
+        return TORET;
+    }
+
+    private static double mean(double[] values)
+    {
+        double toret = 0;
+
+        for(double value: values) {
+            toret += value;
+        }
+
+        return values.length == 0 ? 0 : toret / values.length;
+    }
+
+    private static double stdDev(double[] values)
+    {
+        final double MEAN = mean( values );
+        double toret = 0;
+
+        for(double value: values) {
+            toret += ( value - MEAN ) * ( value - MEAN );
+        }
+
+        return values.length < 2 ? 0 : Math.sqrt( toret / ( values.length - 1 ) );
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        final AnalyzerBenchmark BENCHMARK = new AnalyzerBenchmark();
+
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                final String ARG = args[ i ];
+
+                if ( i + 1 >= args.length ) {
+                    throw new IllegalArgumentException( "missing value for: " + ARG );
+                }
+
+                final String VALUE = args[ ++i ];
+
+                if ( ARG.equals( "--sizes" ) ) {
+                    BENCHMARK.sizes = Arrays.stream( VALUE.split( "," ) )
+                                            .mapToInt( s -> Integer.parseInt( s.trim() ) )
+                                            .toArray();
+                }
+                else
+                if ( ARG.equals( "--stages" ) ) {
+                    BENCHMARK.stages = Arrays.stream( VALUE.split( "," ) )
+                                             .map( Stage::parse )
+                                             .toArray( Stage[]::new );
+                }
+                else
+                if ( ARG.equals( "--warmup" ) ) {
+                    BENCHMARK.numWarmupIterations = Integer.parseInt( VALUE );
+                }
+                else
+                if ( ARG.equals( "--iterations" ) ) {
+                    BENCHMARK.numIterations = Math.max( 1, Integer.parseInt( VALUE ) );
+                }
+                else
+                if ( ARG.equals( "--time" ) ) {
+                    BENCHMARK.iterationMillis = Long.parseLong( VALUE );
+                } else {
+                    throw new IllegalArgumentException( "unknown option: " + ARG );
+                }
+            }
+        } catch(IllegalArgumentException exc) {
+            System.err.println( "Error: " + exc.getMessage() );
+            System.err.println( "Usage: AnalyzerBenchmark [--sizes 100,1000] [--stages filter,apen]"
+                                + " [--warmup n] [--iterations n] [--time millis]" );
+            return;
+        }
+
+        System.out.println( LibInfo.asString() + "\n" );
+        BENCHMARK.run();
+        System.out.println( "\n(checksum: " + BENCHMARK.sink + ")" );
+    }
+
+    private int[] sizes;
+    private Stage[] stages;
+    private int numWarmupIterations;
+    private int numIterations;
+    private long iterationMillis;
+    private double sink;
+    private final SyntheticRR generator;
+    private final com.sun.management.ThreadMXBean threads;
+}
@@ -0,0 +1,81 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+import java.util.Random;
+
+
+/** Creates plausible recordings of any length, always the same for a given seed.
+  * The rr's oscillate around a mean with a respiratory (HF) and a Mayer (LF) wave,
+  * plus some noise, and an ectopic beat every few hundred beats,
+  * so the filter, the spectrum and the entropy have real work to do.
+  */
+public final class SyntheticRR {
+    public static final long DEFAULT_SEED = 0x5EEDC0FFEEL;
+    private static final double MEAN_RR = 800;
+    private static final double HF_AMPLITUDE = 40;
+    private static final double HF_FREQ = 0.25;
+    private static final double LF_AMPLITUDE = 25;
+    private static final double LF_FREQ = 0.1;
+    private static final double NOISE = 15;
+    private static final double ECTOPIC_PROBABILITY = 0.003;
+    private static final long START_TIME = 1577836800000L;
+
+    /** Creates a generator with the default seed. */
+    public SyntheticRR()
+    {
+        this( DEFAULT_SEED );
+    }
+
+    /** Creates a generator.
+      * @param seed the seed for the random numbers.
+      */
+    public SyntheticRR(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /** @return the seed for the random numbers. */
+    public long getSeed()
+    {
+        return this.seed;
+    }
+
+    /** Creates a recording.
+      * @param numBeats the number of beats in the recording.
+      * @return a result, with the same beats each time for the same seed.
+      */
+    public Result create(int numBeats)
+    {
+        final Random RND = new Random( this.seed );
+        final Result.Builder BUILDER = new Result.Builder( START_TIME );
+        boolean wasPremature = false;
+        long time = 0;
+
+        for (int i = 0; i < numBeats; ++i) {
+            final double SECONDS = time / 1000.0;
+            double rr = MEAN_RR
+                        + HF_AMPLITUDE * Math.sin( 2 * Math.PI * HF_FREQ * SECONDS )
+                        + LF_AMPLITUDE * Math.sin( 2 * Math.PI * LF_FREQ * SECONDS )
+                        + NOISE * RND.nextGaussian();
+
+            // A premature beat, followed by its compensatory pause
+            if ( wasPremature ) {
+                rr *= 1.4;
+                wasPremature = false;
+            } else if ( RND.nextDouble() < ECTOPIC_PROBABILITY ) {
+                rr *= 0.6;
+                wasPremature = true;
+            }
+
+            time += Math.round( rr );
+            BUILDER.add( time, Math.round( rr ) );
+        }
+
+        return BUILDER.build( Tag.NO_TAG, new Id( numBeats ), START_TIME, time );
+    }
+
+    private final long seed;
+}
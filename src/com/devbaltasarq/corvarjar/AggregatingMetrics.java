@@ -0,0 +1,210 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/** Aggregates the metrics of many analyses, e.g. all the ones of a service.
+  * Each stage and counter has a histogram, from which percentiles are read.
+  * It can be shared among analyzers running in different threads, with no locks.
+  */
+public final class AggregatingMetrics implements AnalysisMetrics {
+    /** Counts values in buckets of exponentially growing size.
+      * Each power of two is split in SUB_BUCKETS buckets, so the error of a percentile
+      * is at most 1 / SUB_BUCKETS of the real value, whatever its magnitude.
+      */
+    public static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int NUM_BUCKETS = ( 64 - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS;
+
+        Histogram()
+        {
+            this.buckets = new AtomicLongArray( NUM_BUCKETS );
+            this.count = new AtomicLong( 0 );
+            this.sum = new AtomicLong( 0 );
+            this.max = new AtomicLong( 0 );
+        }
+
+        /** Adds a value. Negative values count as zero. */
+        void add(long value)
+        {
+            value = Math.max( 0, value );
+
+            this.buckets.incrementAndGet( bucketOf( value ) );
+            this.count.incrementAndGet();
+            this.sum.addAndGet( value );
+            this.max.accumulateAndGet( value, Math::max );
+        }
+
+        /** @return the number of values added. */
+        public long getCount()
+        {
+            return this.count.get();
+        }
+
+        /** @return the mean of the values, or 0 if there are none. */
+        public double getMean()
+        {
+            final long COUNT = this.getCount();
+
+            return COUNT == 0 ? 0 : ( (double) this.sum.get() ) / COUNT;
+        }
+
+        /** @return the maximum value, or 0 if there are none. */
+        public long getMax()
+        {
+            return this.max.get();
+        }
+
+        /** Calculates a percentile, approximately.
+          * @param percentile the percentile, between 0 and 100.
+          * @return the highest value of the bucket holding the percentile,
+          *         never above the maximum; or 0 if there are no values.
+          */
+        public long getPercentile(double percentile)
+        {
+            final long COUNT = this.getCount();
+            final long RANK = (long) Math.ceil( Math.min( 100, Math.max( 0, percentile ) ) / 100 * COUNT );
+            long seen = 0;
+            long toret = 0;
+
+            if ( COUNT > 0 ) {
+                for (int i = 0; i < NUM_BUCKETS; ++i) {
+                    seen += this.buckets.get( i );
+
+                    if ( seen >= Math.max( 1, RANK ) ) {
+                        toret = Math.min( highestOf( i ), this.getMax() );
+                        break;
+                    }
+                }
+            }
+
+            return toret;
+        }
+
+        /** @return the bucket for a value, which is not negative.
+          * Values below 2 * SUB_BUCKETS have their own bucket. Above, the bucket is given
+          * by the position of the highest bit, and the SUB_BUCKET_BITS bits after it.
+          */
+        static int bucketOf(long value)
+        {
+            int toret = (int) value;
+
+            if ( value >= SUB_BUCKETS ) {
+                final int HIGHEST_BIT = 63 - Long.numberOfLeadingZeros( value );
+                final int MAGNITUDE = HIGHEST_BIT - SUB_BUCKET_BITS + 1;
+
+                toret = ( MAGNITUDE << SUB_BUCKET_BITS )
+                        + (int) ( ( value >>> ( MAGNITUDE - 1 ) ) & ( SUB_BUCKETS - 1 ) );
+            }
+
+            return toret;
+        }
+
+        /** @return the highest value in the given bucket. */
+        static long highestOf(int bucket)
+        {
+            final int MAGNITUDE = bucket >>> SUB_BUCKET_BITS;
+            final long SUB_BUCKET = bucket & ( SUB_BUCKETS - 1 );
+            long toret = SUB_BUCKET;
+
+            if ( MAGNITUDE > 0 ) {
+                toret = ( ( SUB_BUCKETS | SUB_BUCKET ) << ( MAGNITUDE - 1 ) ) + ( 1L << ( MAGNITUDE - 1 ) ) - 1;
+            }
+
+            return toret;
+        }
+
+        private final AtomicLongArray buckets;
+        private final AtomicLong count;
+        private final AtomicLong sum;
+        private final AtomicLong max;
+    }
+
+    /** Creates empty metrics. */
+    public AggregatingMetrics()
+    {
+        this.stages = new EnumMap<>( Stage.class );
+        this.counters = new EnumMap<>( Counter.class );
+
+        for(Stage stage: Stage.values()) {
+            this.stages.put( stage, new Histogram() );
+        }
+
+        for(Counter counter: Counter.values()) {
+            this.counters.put( counter, new Histogram() );
+        }
+    }
+
+    @Override
+    public void onStage(Stage stage, long nanos)
+    {
+        this.stages.get( stage ).add( nanos );
+    }
+
+    @Override
+    public void onCount(Counter counter, long value)
+    {
+        this.counters.get( counter ).add( value );
+    }
+
+    /** @return the histogram of times for a stage, in nanoseconds. */
+    public Histogram getHistogram(Stage stage)
+    {
+        return this.stages.get( stage );
+    }
+
+    /** @return the histogram of values for a counter. */
+    public Histogram getHistogram(Counter counter)
+    {
+        return this.counters.get( counter );
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder TORET = new StringBuilder();
+
+        TORET.append( String.format( Locale.ROOT, "%-22s %10s %12s %12s %12s %12s %12s\n",
+                                     "stage (us)", "count", "mean", "p50", "p90", "p99", "max" ) );
+
+        for(Map.Entry<Stage, Histogram> entry: this.stages.entrySet()) {
+            appendRow( TORET, entry.getKey().toString(), entry.getValue(), 1000 );
+        }
+
+        TORET.append( String.format( Locale.ROOT, "%-22s %10s %12s %12s %12s %12s %12s\n",
+                                     "counter", "count", "mean", "p50", "p90", "p99", "max" ) );
+
+        for(Map.Entry<Counter, Histogram> entry: this.counters.entrySet()) {
+            appendRow( TORET, entry.getKey().toString(), entry.getValue(), 1 );
+        }
+
+        return TORET.toString();
+    }
+
+    private static void appendRow(StringBuilder txt, String name, Histogram histogram, double scale)
+    {
+        if ( histogram.getCount() > 0 ) {
+            txt.append( String.format( Locale.ROOT, "%-22s %10d %12.1f %12.1f %12.1f %12.1f %12.1f\n",
+                                       name, histogram.getCount(),
+                                       histogram.getMean() / scale,
+                                       histogram.getPercentile( 50 ) / scale,
+                                       histogram.getPercentile( 90 ) / scale,
+                                       histogram.getPercentile( 99 ) / scale,
+                                       histogram.getMax() / scale ) );
+        }
+
+        return;
+    }
+
+    private final Map<Stage, Histogram> stages;
+    private final Map<Counter, Histogram> counters;
+}
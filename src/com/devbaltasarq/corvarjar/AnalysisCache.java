@@ -0,0 +1,511 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/** Keeps the summaries of analyses already done, so results are not analyzed again.
+  * Summaries are keyed by the id of the result plus a hash of its beats,
+  * and kept in memory, the least recently used ones being discarded when full.
+  * Optionally, they are also stored in a sidecar file next to each .res file,
+  * (e.g. result-i1-gtag-t2.res.summary), surviving between runs.
+  * A file is analyzed again when its size or modification time change.
+  * A file modified less than RACY_MILLIS before being checked is read again
+  * every time, and its summary looked for by the hash of its beats,
+  * since a change in the same tick of its modification time would go unnoticed.
+  * The summaries are those of the default analysis, i.e., with the default beat filter.
+  * It can be shared among threads: two threads asking for the same uncached file
+  * at the same time could analyze it twice, but they obtain the same summary.
+  */
+public final class AnalysisCache {
+    private static final String LOG_TAG = AnalysisCache.class.getSimpleName();
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final String SIDECAR_EXTENSION = ".summary";
+    /** Files modified this close to being checked could change again with the same time. */
+    public static final long RACY_MILLIS = 2000;
+    private static final String SIDECAR_VERSION = "2";
+    private static final String FIELD_VERSION = "version";
+    private static final String FIELD_SIZE = "size";
+    private static final String FIELD_MODIFIED = "modified";
+    private static final String FIELD_CHECKED = "checked";
+    private static final String FIELD_ID = "id";
+    private static final String FIELD_HASH = "hash";
+    private static final String FIELD_SUMMARY = "summary";
+    // Summaries are always of the default configuration, so they can be shared
+    private static final AnalysisEngine ENGINE = new AnalysisEngine();
+
+    /** The identity of the analyzed data: the id of the result plus the hash of its beats. */
+    static final class Key {
+        Key(long id, long hash)
+        {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            boolean toret = false;
+
+            if ( other instanceof Key ) {
+                final Key KEY = (Key) other;
+
+                toret = this.id == KEY.id
+                     && this.hash == KEY.hash;
+            }
+
+            return toret;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Long.hashCode( this.id * 31 + this.hash );
+        }
+
+        @Override
+        public String toString()
+        {
+            return this.id + "#" + Long.toHexString( this.hash );
+        }
+
+        private final long id;
+        private final long hash;
+    }
+
+    /** What is known about a file: its size, its modification time,
+      * when they were read, and its key.
+      */
+    private static final class Stamp {
+        Stamp(long size, long modified, long checked, Key key)
+        {
+            this.size = size;
+            this.modified = modified;
+            this.checked = checked;
+            this.key = key;
+        }
+
+        /** @return true if the file did not change, which cannot be told
+          *         when it was modified too close to being checked.
+          */
+        boolean matches(long size, long modified)
+        {
+            return this.size == size
+                && this.modified == modified
+                && this.checked - this.modified >= RACY_MILLIS;
+        }
+
+        private final long size;
+        private final long modified;
+        private final long checked;
+        private final Key key;
+    }
+
+    /** A map discarding the least recently used entry when full. */
+    private static final class LruMap<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        LruMap(int capacity)
+        {
+            super( 16, 0.75f, true );
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+        {
+            return this.size() > this.capacity;
+        }
+
+        private final int capacity;
+    }
+
+    /** Creates a cache in memory only, with the default capacity. */
+    public AnalysisCache()
+    {
+        this( DEFAULT_CAPACITY, false );
+    }
+
+    /** Creates a new cache.
+      * @param capacity the maximum number of summaries kept in memory.
+      * @param useSidecars true to also store summaries in files next to the results.
+      */
+    public AnalysisCache(int capacity, boolean useSidecars)
+    {
+        if ( capacity < 1 ) {
+            throw new IllegalArgumentException( "capacity must be positive: " + capacity );
+        }
+
+        this.capacity = capacity;
+        this.useSidecars = useSidecars;
+        this.summaries = new LruMap<>( capacity );
+        this.stamps = new LruMap<>( capacity );
+        this.numMemoryHits = new AtomicLong( 0 );
+        this.numDiskHits = new AtomicLong( 0 );
+        this.numMisses = new AtomicLong( 0 );
+    }
+
+    /** @return the maximum number of summaries kept in memory. */
+    public int getCapacity()
+    {
+        return this.capacity;
+    }
+
+    /** @return true if summaries are also stored in files next to the results. */
+    public boolean isUsingSidecars()
+    {
+        return this.useSidecars;
+    }
+
+    /** Gets the summary of a result file, analyzing it only if needed.
+      * @param fileName the name of the .res file.
+      * @return the summary, with the file name as source.
+      * @throws IOException if the file cannot be read.
+      * @throws JsonParseException if the file is not a valid result.
+      */
+    public AnalysisSummary get(String fileName) throws IOException, JsonParseException
+    {
+        final File FILE = new File( fileName );
+        final long CHECKED = System.currentTimeMillis();
+        final long SIZE = FILE.length();
+        final long MODIFIED = FILE.lastModified();
+        AnalysisSummary toret = this.lookup( FILE.getPath(), SIZE, MODIFIED );
+
+        if ( toret != null ) {
+            this.numMemoryHits.incrementAndGet();
+        } else {
+            if ( this.useSidecars ) {
+                toret = this.readSidecar( FILE, SIZE, MODIFIED );
+            }
+
+            if ( toret != null ) {
+                this.numDiskHits.incrementAndGet();
+            } else {
+                // The file can be new, or only touched: look for its contents
+                final ResultData DATA = ResultFormat.read( FILE );
+                final Key KEY = createKey( DATA );
+
+                toret = this.lookup( KEY );
+
+                if ( toret != null ) {
+                    this.numMemoryHits.incrementAndGet();
+                } else {
+                    toret = analyze( DATA );
+                    this.numMisses.incrementAndGet();
+                    this.store( KEY, toret );
+                }
+
+                final Stamp STAMP = new Stamp( SIZE, MODIFIED, CHECKED, KEY );
+
+                this.store( FILE.getPath(), STAMP );
+
+                if ( this.useSidecars ) {
+                    this.writeSidecar( FILE, STAMP, toret );
+                }
+            }
+        }
+
+        return toret.withSource( fileName );
+    }
+
+    /** Gets the summary of a result already loaded, analyzing it only if needed.
+      * Sidecars are not used, since the result has no file.
+      * @param result the result to get the summary for.
+      * @return the summary, with the name of the result as source.
+      */
+    public AnalysisSummary get(ResultData result)
+    {
+        final Key KEY = createKey( result );
+        AnalysisSummary toret = this.lookup( KEY );
+
+        if ( toret != null ) {
+            this.numMemoryHits.incrementAndGet();
+        } else {
+            toret = analyze( result );
+            this.numMisses.incrementAndGet();
+            this.store( KEY, toret );
+        }
+
+        return toret.withSource( Result.buildResultFileName( result ) );
+    }
+
+    /** Forgets a file, deleting its sidecar if any.
+      * Its summary is still found if another file holds the same result.
+      * @param fileName the name of the .res file.
+      */
+    public void invalidate(String fileName)
+    {
+        final File FILE = new File( fileName );
+
+        synchronized ( this.stamps ) {
+            this.stamps.remove( FILE.getPath() );
+        }
+
+        if ( this.useSidecars ) {
+            final File SIDECAR = getSidecar( FILE );
+
+            if ( SIDECAR.exists()
+              && !SIDECAR.delete() )
+            {
+                Log.e( LOG_TAG, "unable to delete: " + SIDECAR );
+            }
+        }
+
+        return;
+    }
+
+    /** Forgets all summaries in memory. Sidecars are kept. */
+    public void clear()
+    {
+        synchronized ( this.summaries ) {
+            this.summaries.clear();
+        }
+
+        synchronized ( this.stamps ) {
+            this.stamps.clear();
+        }
+
+        return;
+    }
+
+    /** @return the number of summaries in memory. */
+    public int size()
+    {
+        synchronized ( this.summaries ) {
+            return this.summaries.size();
+        }
+    }
+
+    /** @return the number of summaries found in memory. */
+    public long getNumMemoryHits()
+    {
+        return this.numMemoryHits.get();
+    }
+
+    /** @return the number of summaries found in sidecars. */
+    public long getNumDiskHits()
+    {
+        return this.numDiskHits.get();
+    }
+
+    /** @return the number of results that had to be analyzed. */
+    public long getNumMisses()
+    {
+        return this.numMisses.get();
+    }
+
+    /** @return the ratio of summaries not needing an analysis, between 0 and 1. */
+    public double getHitRatio()
+    {
+        final long HITS = this.getNumMemoryHits() + this.getNumDiskHits();
+        final long TOTAL = HITS + this.getNumMisses();
+
+        return TOTAL == 0 ? 0 : ( (double) HITS ) / TOTAL;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Cache: " + this.size() + "/" + this.getCapacity() + " summaries"
+                + ", " + this.getNumMemoryHits() + " memory hits"
+                + ", " + this.getNumDiskHits() + " disk hits"
+                + ", " + this.getNumMisses() + " misses";
+    }
+
+    /** Hashes the beats, times and rr's, quickly.
+      * Based on the finalizer of MurmurHash3.
+      * @param beats the beats to hash.
+      * @return the hash.
+      */
+    static long contentHash(BeatColumns beats)
+    {
+        final int SIZE = beats.size();
+        long toret = mix( SIZE );
+
+        for (int i = 0; i < SIZE; ++i) {
+            toret = Long.rotateLeft( toret ^ mix( beats.timeAt( i ) ), 27 ) * 0x9E3779B97F4A7C15L;
+            toret = Long.rotateLeft( toret ^ mix( beats.rrAt( i ) ), 31 ) * 0xC2B2AE3D27D4EB4FL;
+        }
+
+        return mix( toret );
+    }
+
+    private static long mix(long value)
+    {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+
+        return value;
+    }
+
+    private static Key createKey(ResultData result)
+    {
+        return new Key( result.getId().get(), contentHash( result ) );
+    }
+
+    private static AnalysisSummary analyze(ResultData result)
+    {
+        return ENGINE.analyze( result );
+    }
+
+    /** @return the sidecar of a result file. */
+    static File getSidecar(File file)
+    {
+        return new File( file.getPath() + SIDECAR_EXTENSION );
+    }
+
+    /** @return the summary in memory for a file, if it did not change, or null. */
+    private AnalysisSummary lookup(String fileName, long size, long modified)
+    {
+        final Stamp STAMP;
+        AnalysisSummary toret = null;
+
+        synchronized ( this.stamps ) {
+            STAMP = this.stamps.get( fileName );
+        }
+
+        if ( STAMP != null
+          && STAMP.matches( size, modified ) )
+        {
+            toret = this.lookup( STAMP.key );
+        }
+
+        return toret;
+    }
+
+    /** @return the summary in memory for the key, or null. */
+    private AnalysisSummary lookup(Key key)
+    {
+        synchronized ( this.summaries ) {
+            return this.summaries.get( key );
+        }
+    }
+
+    private void store(Key key, AnalysisSummary summary)
+    {
+        synchronized ( this.summaries ) {
+            this.summaries.put( key, summary );
+        }
+
+        return;
+    }
+
+    private void store(String fileName, Stamp stamp)
+    {
+        synchronized ( this.stamps ) {
+            this.stamps.put( fileName, stamp );
+        }
+
+        return;
+    }
+
+    /** Reads the sidecar of a file, keeping its summary in memory.
+      * The summary is kept even if the file seems to have changed,
+      * since it is found by the hash of the beats, which is safe.
+      * @return the summary, or null if there is no sidecar, it is invalid,
+      *         or the file changed, or could have changed, after writing it.
+      */
+    private AnalysisSummary readSidecar(File file, long size, long modified)
+    {
+        final File SIDECAR = getSidecar( file );
+        final Properties PROPS = new Properties();
+        AnalysisSummary toret = null;
+
+        if ( SIDECAR.exists() ) {
+            try (InputStream in = new FileInputStream( SIDECAR )) {
+                PROPS.load( in );
+
+                if ( SIDECAR_VERSION.equals( PROPS.getProperty( FIELD_VERSION ) ) ) {
+                    final Key KEY = new Key( Long.parseLong( PROPS.getProperty( FIELD_ID ) ),
+                                             Long.parseUnsignedLong( PROPS.getProperty( FIELD_HASH ), 16 ) );
+                    final Stamp STAMP = new Stamp( Long.parseLong( PROPS.getProperty( FIELD_SIZE ) ),
+                                                   Long.parseLong( PROPS.getProperty( FIELD_MODIFIED ) ),
+                                                   Long.parseLong( PROPS.getProperty( FIELD_CHECKED ) ),
+                                                   KEY );
+                    final AnalysisSummary SUMMARY = AnalysisSummary.fromCsv( PROPS.getProperty( FIELD_SUMMARY ) );
+
+                    this.store( KEY, SUMMARY );
+
+                    if ( STAMP.matches( size, modified ) ) {
+                        this.store( file.getPath(), STAMP );
+                        toret = SUMMARY;
+                    }
+                }
+            } catch(IOException | RuntimeException exc) {
+                Log.e( LOG_TAG, "ignoring sidecar: " + SIDECAR + ": " + exc.getMessage() );
+                toret = null;
+            }
+        }
+
+        return toret;
+    }
+
+    /** Writes the sidecar of a file, atomically when possible.
+      * Failing to write it is not an error: the file would simply be analyzed again.
+      */
+    private void writeSidecar(File file, Stamp stamp, AnalysisSummary summary)
+    {
+        final File SIDECAR = getSidecar( file );
+        final Properties PROPS = new Properties();
+        File temp = null;
+
+        PROPS.setProperty( FIELD_VERSION, SIDECAR_VERSION );
+        PROPS.setProperty( FIELD_SIZE, Long.toString( stamp.size ) );
+        PROPS.setProperty( FIELD_MODIFIED, Long.toString( stamp.modified ) );
+        PROPS.setProperty( FIELD_CHECKED, Long.toString( stamp.checked ) );
+        PROPS.setProperty( FIELD_ID, Long.toString( stamp.key.id ) );
+        PROPS.setProperty( FIELD_HASH, Long.toHexString( stamp.key.hash ) );
+        PROPS.setProperty( FIELD_SUMMARY, summary.toCsv() );
+
+        try {
+            temp = File.createTempFile( SIDECAR.getName(), ".tmp", SIDECAR.getAbsoluteFile().getParentFile() );
+
+            try (OutputStream out = new FileOutputStream( temp )) {
+                PROPS.store( out, null );
+            }
+
+            try {
+                Files.move( temp.toPath(), SIDECAR.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            } catch(AtomicMoveNotSupportedException exc) {
+                Files.move( temp.toPath(), SIDECAR.toPath(), StandardCopyOption.REPLACE_EXISTING );
+            }
+        } catch(IOException exc) {
+            Log.e( LOG_TAG, "unable to write sidecar: " + SIDECAR + ": " + exc.getMessage() );
+
+            if ( temp != null ) {
+                temp.delete();
+            }
+        }
+
+        return;
+    }
+
+    private final int capacity;
+    private final boolean useSidecars;
+    private final LruMap<Key, AnalysisSummary> summaries;
+    private final LruMap<String, Stamp> stamps;
+    private final AtomicLong numMemoryHits;
+    private final AtomicLong numDiskHits;
+    private final AtomicLong numMisses;
+}
@@ -0,0 +1,256 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+import java.util.Locale;
+
+
+/** The parameters of an analysis: interpolation, spectrum bands, entropy and filter.
+  * Configurations are immutable, so they can be shared among threads.
+  * Create them with AnalysisConfig.Builder, or use DEFAULT.
+  */
+public final class AnalysisConfig {
+    public static final float DEFAULT_INTERPOLATION_FREQ = 4.0f;
+    public static final float DEFAULT_HAMMING_FACTOR = 1.586f;
+    public static final float DEFAULT_TOTAL_POWER_BEG = 0.0f;
+    public static final float DEFAULT_TOTAL_POWER_END = 4.0f / 2.0f;
+    public static final float DEFAULT_LF_POWER_BEG = 0.05f;
+    public static final float DEFAULT_LF_POWER_END = 0.15f;
+    public static final float DEFAULT_HF_POWER_BEG = 0.15f;
+    public static final float DEFAULT_HF_POWER_END = 0.4f;
+    public static final int DEFAULT_APEN_M = 2;
+    public static final float DEFAULT_APEN_R = 0.2f;
+
+    /** Creates configurations. All values start as their defaults. */
+    public static class Builder {
+        public Builder()
+        {
+            this.interpolationFreq = DEFAULT_INTERPOLATION_FREQ;
+            this.hammingFactor = DEFAULT_HAMMING_FACTOR;
+            this.totalPowerBeg = DEFAULT_TOTAL_POWER_BEG;
+            this.totalPowerEnd = DEFAULT_TOTAL_POWER_END;
+            this.lfPowerBeg = DEFAULT_LF_POWER_BEG;
+            this.lfPowerEnd = DEFAULT_LF_POWER_END;
+            this.hfPowerBeg = DEFAULT_HF_POWER_BEG;
+            this.hfPowerEnd = DEFAULT_HF_POWER_END;
+            this.apEnM = DEFAULT_APEN_M;
+            this.apEnR = DEFAULT_APEN_R;
+            this.filterWinLength = BeatFilter.DEFAULT_WIN_LENGTH;
+            this.filterMinBpm = BeatFilter.DEFAULT_MIN_BPM;
+            this.filterMaxBpm = BeatFilter.DEFAULT_MAX_BPM;
+            this.filterULast = BeatFilter.DEFAULT_U_LAST;
+        }
+
+        /** @param freq the frequency of the interpolated hr, in hz. */
+        public Builder setInterpolationFreq(float freq)
+        {
+            this.interpolationFreq = freq;
+            return this;
+        }
+
+        /** @param hammingFactor the correction for the power lost by the Hamming window. */
+        public Builder setHammingFactor(float hammingFactor)
+        {
+            this.hammingFactor = hammingFactor;
+            return this;
+        }
+
+        /** Sets the band for the total power, in hz. */
+        public Builder setTotalPowerBand(float beg, float end)
+        {
+            this.totalPowerBeg = beg;
+            this.totalPowerEnd = end;
+            return this;
+        }
+
+        /** Sets the low frequency band, in hz. */
+        public Builder setLFPowerBand(float beg, float end)
+        {
+            this.lfPowerBeg = beg;
+            this.lfPowerEnd = end;
+            return this;
+        }
+
+        /** Sets the high frequency band, in hz. */
+        public Builder setHFPowerBand(float beg, float end)
+        {
+            this.hfPowerBeg = beg;
+            this.hfPowerEnd = end;
+            return this;
+        }
+
+        /** Sets the parameters of the approximate entropy.
+          * @param m the length of the templates.
+          * @param r the tolerance, as a factor of the standard deviation.
+          */
+        public Builder setApEn(int m, float r)
+        {
+            this.apEnM = m;
+            this.apEnR = r;
+            return this;
+        }
+
+        /** Sets the thresholds of the beat filter.
+          * @see BeatFilter#BeatFilter(int, float, float, float)
+          */
+        public Builder setFilter(int winLength, float minBpm, float maxBpm, float uLast)
+        {
+            this.filterWinLength = winLength;
+            this.filterMinBpm = minBpm;
+            this.filterMaxBpm = maxBpm;
+            this.filterULast = uLast;
+            return this;
+        }
+
+        /** @return the configuration with the given values.
+          * @throws IllegalArgumentException if a value is out of range.
+          */
+        public AnalysisConfig build()
+        {
+            if ( !( this.interpolationFreq > 0 ) ) {
+                throw new IllegalArgumentException( "interpolation frequency must be positive: "
+                                                    + this.interpolationFreq );
+            }
+
+            if ( this.apEnM < 1 ) {
+                throw new IllegalArgumentException( "ApEn template length must be positive: " + this.apEnM );
+            }
+
+            if ( this.filterWinLength < 1 ) {
+                throw new IllegalArgumentException( "filter window length must be positive: "
+                                                    + this.filterWinLength );
+            }
+
+            return new AnalysisConfig( this );
+        }
+
+        private float interpolationFreq;
+        private float hammingFactor;
+        private float totalPowerBeg;
+        private float totalPowerEnd;
+        private float lfPowerBeg;
+        private float lfPowerEnd;
+        private float hfPowerBeg;
+        private float hfPowerEnd;
+        private int apEnM;
+        private float apEnR;
+        private int filterWinLength;
+        private float filterMinBpm;
+        private float filterMaxBpm;
+        private float filterULast;
+    }
+
+    /** The configuration the analyses have always used. */
+    public static final AnalysisConfig DEFAULT = new Builder().build();
+
+    private AnalysisConfig(Builder builder)
+    {
+        this.interpolationFreq = builder.interpolationFreq;
+        this.hammingFactor = builder.hammingFactor;
+        this.totalPowerBeg = builder.totalPowerBeg;
+        this.totalPowerEnd = builder.totalPowerEnd;
+        this.lfPowerBeg = builder.lfPowerBeg;
+        this.lfPowerEnd = builder.lfPowerEnd;
+        this.hfPowerBeg = builder.hfPowerBeg;
+        this.hfPowerEnd = builder.hfPowerEnd;
+        this.apEnM = builder.apEnM;
+        this.apEnR = builder.apEnR;
+        this.filterWinLength = builder.filterWinLength;
+        this.filterMinBpm = builder.filterMinBpm;
+        this.filterMaxBpm = builder.filterMaxBpm;
+        this.filterULast = builder.filterULast;
+    }
+
+    /** @return the frequency of the interpolated hr, in hz. */
+    public float getInterpolationFreq()
+    {
+        return this.interpolationFreq;
+    }
+
+    /** @return the correction for the power lost by the Hamming window. */
+    public float getHammingFactor()
+    {
+        return this.hammingFactor;
+    }
+
+    public float getTotalPowerBeg()
+    {
+        return this.totalPowerBeg;
+    }
+
+    public float getTotalPowerEnd()
+    {
+        return this.totalPowerEnd;
+    }
+
+    public float getLFPowerBeg()
+    {
+        return this.lfPowerBeg;
+    }
+
+    public float getLFPowerEnd()
+    {
+        return this.lfPowerEnd;
+    }
+
+    public float getHFPowerBeg()
+    {
+        return this.hfPowerBeg;
+    }
+
+    public float getHFPowerEnd()
+    {
+        return this.hfPowerEnd;
+    }
+
+    /** @return the length of the templates for the approximate entropy. */
+    public int getApEnM()
+    {
+        return this.apEnM;
+    }
+
+    /** @return the tolerance for the approximate entropy, as a factor of the standard deviation. */
+    public float getApEnR()
+    {
+        return this.apEnR;
+    }
+
+    /** @return a new filter with the thresholds of this configuration.
+      * Filters keep state, so each analysis needs its own.
+      */
+    public BeatFilter createBeatFilter()
+    {
+        return new BeatFilter( this.filterWinLength, this.filterMinBpm,
+                               this.filterMaxBpm, this.filterULast );
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( Locale.ROOT,
+                              "interpolation: %.2f hz, total: [%.2f, %.2f] hz"
+                              + ", LF: [%.2f, %.2f] hz, HF: [%.2f, %.2f] hz"
+                              + ", ApEn: m=%d r=%.2f, filter: %d beats [%.1f, %.1f] bpm %.1f%%",
+                              this.interpolationFreq, this.totalPowerBeg, this.totalPowerEnd,
+                              this.lfPowerBeg, this.lfPowerEnd, this.hfPowerBeg, this.hfPowerEnd,
+                              this.apEnM, this.apEnR, this.filterWinLength,
+                              this.filterMinBpm, this.filterMaxBpm, this.filterULast );
+    }
+
+    private final float interpolationFreq;
+    private final float hammingFactor;
+    private final float totalPowerBeg;
+    private final float totalPowerEnd;
+    private final float lfPowerBeg;
+    private final float lfPowerEnd;
+    private final float hfPowerBeg;
+    private final float hfPowerEnd;
+    private final int apEnM;
+    private final float apEnR;
+    private final int filterWinLength;
+    private final float filterMinBpm;
+    private final float filterMaxBpm;
+    private final float filterULast;
+}
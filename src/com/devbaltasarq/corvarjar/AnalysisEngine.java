@@ -0,0 +1,138 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+
+/** Analyzes results from many threads at the same time, with an immutable configuration.
+  * Each call returns an immutable summary, and keeps no state about the analyzed result.
+  * Each thread reuses its own analyzer, so its scratch buffers are not allocated again
+  * in every call. A call made from inside another one in the same thread, e.g. from
+  * the listener for the metrics, gets a new analyzer, so it does not break the outer call.
+  * @see AnalysisConfig
+  * @see ResultAnalyzer
+  */
+public final class AnalysisEngine {
+    /** Creates an engine with the default configuration, and no metrics. */
+    public AnalysisEngine()
+    {
+        this( AnalysisConfig.DEFAULT, null );
+    }
+
+    /** Creates an engine with the given configuration, and no metrics. */
+    public AnalysisEngine(AnalysisConfig config)
+    {
+        this( config, null );
+    }
+
+    /** Creates an engine.
+      * @param config the configuration for all analyses.
+      * @param metrics the listener for the timings and counters of all analyses, or null.
+      *                It is called from many threads at the same time.
+      */
+    public AnalysisEngine(AnalysisConfig config, AnalysisMetrics metrics)
+    {
+        if ( config == null ) {
+            throw new IllegalArgumentException( "missing configuration" );
+        }
+
+        this.config = config;
+        this.metrics = metrics;
+        this.analyzers = new ThreadLocal<>();
+    }
+
+    /** @return the configuration for all analyses. */
+    public AnalysisConfig getConfig()
+    {
+        return this.config;
+    }
+
+    /** @return the listener for the timings and counters of all analyses, or null. */
+    public AnalysisMetrics getMetrics()
+    {
+        return this.metrics;
+    }
+
+    /** Analyzes a result already loaded.
+      * @param result the result to analyze, in the heap or mapped.
+      * @return the values of the analysis.
+      */
+    public AnalysisSummary analyze(ResultData result)
+    {
+        try {
+            return this.analyze( Result.buildResultFileName( result ), result );
+        } catch(IOException exc) {
+            // Nothing is read for a result already loaded
+            throw new UncheckedIOException( exc );
+        }
+    }
+
+    /** Reads a .res file, and analyzes it.
+      * @param fileName the name of the file.
+      * @return the values of the analysis.
+      * @throws IOException if the file cannot be read.
+      * @throws JsonParseException if the file is not a valid result.
+      */
+    public AnalysisSummary analyze(String fileName) throws IOException, JsonParseException
+    {
+        return this.analyze( fileName, null );
+    }
+
+    private AnalysisSummary analyze(String fileName, ResultData result) throws IOException
+    {
+        final ResultAnalyzer ANALYZER = this.acquire();
+
+        try {
+            ANALYZER.reuse( fileName, result );
+            ANALYZER.analyze();
+
+            final Exception ERROR = ANALYZER.getError();
+
+            if ( ERROR instanceof IOException ) {
+                throw (IOException) ERROR;
+            }
+
+            if ( ERROR instanceof RuntimeException ) {
+                throw (RuntimeException) ERROR;
+            }
+
+            return ANALYZER.getSummary();
+        } finally {
+            this.release( ANALYZER );
+        }
+    }
+
+    /** @return the analyzer of this thread, which is taken out until released,
+      *         or a new one if it is already taken.
+      */
+    private ResultAnalyzer acquire()
+    {
+        ResultAnalyzer toret = this.analyzers.get();
+
+        if ( toret == null ) {
+            toret = new ResultAnalyzer( this.config );
+            toret.setMetrics( this.metrics );
+        } else {
+            this.analyzers.set( null );
+        }
+
+        return toret;
+    }
+
+    /** Gives back the analyzer of this thread, without the analyzed result. */
+    private void release(ResultAnalyzer analyzer)
+    {
+        analyzer.reuse( null, null );
+        this.analyzers.set( analyzer );
+    }
+
+    private final AnalysisConfig config;
+    private final AnalysisMetrics metrics;
+    private final ThreadLocal<ResultAnalyzer> analyzers;
+}
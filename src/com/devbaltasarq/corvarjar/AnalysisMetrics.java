@@ -0,0 +1,62 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+/** Receives the time spent in each stage of an analysis, and some counters.
+  * Calls come from the thread running the analysis, so an implementation shared
+  * among analyzers in different threads must be thread-safe.
+  * When no listener is set, the clock is not even read.
+  * @see ResultAnalyzer#setMetrics(AnalysisMetrics)
+  * @see AggregatingMetrics
+  */
+public interface AnalysisMetrics {
+    /** The stages of an analysis. */
+    enum Stage {
+        /** Reading and decoding the .res file. */
+        LOAD,
+        /** Taking the rr's of the beats into the signal. */
+        PARSE,
+        /** Calculating the hr and beat times, and filtering artifacts. */
+        FILTER,
+        /** Interpolating the hr. */
+        INTERPOLATE,
+        /** Calculating the time-domain statistics. */
+        TIME_STATS,
+        /** Calculating the MadRR. */
+        MADRR,
+        /** Calculating the approximate entropy. */
+        APEN,
+        /** Calculating the stress level, from the values above. */
+        STRESS,
+        /** Calculating the spectrum, and its power bands. */
+        SPECTRUM,
+        /** Creating the report. */
+        REPORT
+    }
+
+    /** The things counted in an analysis. */
+    enum Counter {
+        /** The number of beats taken into the signal. */
+        BEATS_PARSED,
+        /** The number of beats replaced by the filter. */
+        BEATS_REJECTED,
+        /** The number of samples in the interpolated signal. */
+        INTERPOLATED_SAMPLES,
+        /** The size of the FFT for each window of the spectrum. */
+        FFT_SIZE
+    }
+
+    /** A stage finished.
+      * @param stage the stage.
+      * @param nanos the time spent in it, in nanoseconds.
+      */
+    void onStage(Stage stage, long nanos);
+
+    /** A value was counted.
+      * @param counter what was counted.
+      * @param value the value counted.
+      */
+    void onCount(Counter counter, long value);
+}
@@ -0,0 +1,232 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+import java.util.Locale;
+
+
+/** The values obtained when analyzing a result. Immutable. */
+public final class AnalysisSummary {
+    /** Names for the values, in the same order as toCsv(). */
+    public static final String CSV_HEADER = "source,beats,rejected,stress,probe_stress,madrr,apen,"
+                                            + "mean_bpm,sdnn,rmssd,pnn50,norm_hrv,"
+                                            + "total_power,lf_power,hf_power,lf_hf_ratio";
+
+    AnalysisSummary(String source,
+                    int numBeats, int numRejectedBeats,
+                    float stressLevel, float probeStress, float madRR, float apEn,
+                    float meanBPM, float sdnn, float rmssd, float pnn50, float normHRV,
+                    float totalPower, float lfPower, float hfPower, float lfhfRatio)
+    {
+        this.source = source;
+        this.numBeats = numBeats;
+        this.numRejectedBeats = numRejectedBeats;
+        this.stressLevel = stressLevel;
+        this.probeStress = probeStress;
+        this.madRR = madRR;
+        this.apEn = apEn;
+        this.meanBPM = meanBPM;
+        this.sdnn = sdnn;
+        this.rmssd = rmssd;
+        this.pnn50 = pnn50;
+        this.normHRV = normHRV;
+        this.totalPower = totalPower;
+        this.lfPower = lfPower;
+        this.hfPower = hfPower;
+        this.lfhfRatio = lfhfRatio;
+    }
+
+    /** @return where the analyzed result came from, i.e., its file name. */
+    public String getSource()
+    {
+        return this.source;
+    }
+
+    /** @return the number of beats in the result. */
+    public int getNumBeats()
+    {
+        return this.numBeats;
+    }
+
+    /** @return the number of beats rejected by the filter. */
+    public int getNumRejectedBeats()
+    {
+        return this.numRejectedBeats;
+    }
+
+    /** @return the stress level.
+      * @see ResultAnalyzer#getStressLevel()
+      */
+    public float getStressLevel()
+    {
+        return this.stressLevel;
+    }
+
+    /** @return a value between 0 and 1. Values > .5 indicate stress. */
+    public float getProbeStress()
+    {
+        return this.probeStress;
+    }
+
+    /** @return the median of RR (MADRR value), in ms. */
+    public float getMadRR()
+    {
+        return this.madRR;
+    }
+
+    /** @return the entropy. */
+    public float getApEn()
+    {
+        return this.apEn;
+    }
+
+    /** @return the mean heart rate, in bpm. */
+    public float getMeanBPM()
+    {
+        return this.meanBPM;
+    }
+
+    /** @return the standard deviation of the rr intervals (SDNN), in ms. */
+    public float getSDNN()
+    {
+        return this.sdnn;
+    }
+
+    /** @return the root mean square of successive differences (rMSSD), in ms. */
+    public float getRMSSD()
+    {
+        return this.rmssd;
+    }
+
+    /** @return the percentage of successive differences bigger than 50ms (pNN50). */
+    public float getPNN50()
+    {
+        return this.pnn50;
+    }
+
+    /** @return the normalized HRV. */
+    public float getNormHRV()
+    {
+        return this.normHRV;
+    }
+
+    /** @return the total power of the spectrum, in ms^2. */
+    public float getTotalPower()
+    {
+        return this.totalPower;
+    }
+
+    /** @return the power in the LF band, in ms^2, or a negative value if too short. */
+    public float getLFPower()
+    {
+        return this.lfPower;
+    }
+
+    /** @return the power in the HF band, in ms^2, or a negative value if too short. */
+    public float getHFPower()
+    {
+        return this.hfPower;
+    }
+
+    /** @return the LF/HF ratio. */
+    public float getLFHFRatio()
+    {
+        return this.lfhfRatio;
+    }
+
+    /** @return all values in a single line, separated by commas.
+      * @see AnalysisSummary#CSV_HEADER
+      */
+    public String toCsv()
+    {
+        return String.format( Locale.ROOT,
+                              "%s,%d,%d,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s,%s",
+                              this.source, this.numBeats, this.numRejectedBeats,
+                              this.stressLevel, this.probeStress, this.madRR, this.apEn,
+                              this.meanBPM, this.sdnn, this.rmssd, this.pnn50, this.normHRV,
+                              this.totalPower, this.lfPower, this.hfPower, this.lfhfRatio );
+    }
+
+    /** Reads a summary back from the output of toCsv().
+      * The source is everything before the last fifteen values, so it can contain commas.
+      * @param csv a line created by toCsv().
+      * @return the summary read.
+      * @throws IllegalArgumentException if the line is not a valid summary.
+      */
+    public static AnalysisSummary fromCsv(String csv)
+    {
+        final int NUM_VALUES = 15;
+        final String[] VALUES = new String[ NUM_VALUES ];
+        int end = csv.length();
+
+        for (int i = NUM_VALUES - 1; i >= 0; --i) {
+            final int COMMA = csv.lastIndexOf( ',', end - 1 );
+
+            if ( COMMA < 0 ) {
+                throw new IllegalArgumentException( "reading summary: missing values: " + csv );
+            }
+
+            VALUES[ i ] = csv.substring( COMMA + 1, end ).trim();
+            end = COMMA;
+        }
+
+        try {
+            return new AnalysisSummary(
+                            csv.substring( 0, end ),
+                            Integer.parseInt( VALUES[ 0 ] ),
+                            Integer.parseInt( VALUES[ 1 ] ),
+                            Float.parseFloat( VALUES[ 2 ] ),
+                            Float.parseFloat( VALUES[ 3 ] ),
+                            Float.parseFloat( VALUES[ 4 ] ),
+                            Float.parseFloat( VALUES[ 5 ] ),
+                            Float.parseFloat( VALUES[ 6 ] ),
+                            Float.parseFloat( VALUES[ 7 ] ),
+                            Float.parseFloat( VALUES[ 8 ] ),
+                            Float.parseFloat( VALUES[ 9 ] ),
+                            Float.parseFloat( VALUES[ 10 ] ),
+                            Float.parseFloat( VALUES[ 11 ] ),
+                            Float.parseFloat( VALUES[ 12 ] ),
+                            Float.parseFloat( VALUES[ 13 ] ),
+                            Float.parseFloat( VALUES[ 14 ] ) );
+        } catch(NumberFormatException exc) {
+            throw new IllegalArgumentException( "reading summary: " + exc.getMessage() );
+        }
+    }
+
+    /** @return the same values, with a different source. */
+    AnalysisSummary withSource(String source)
+    {
+        return new AnalysisSummary( source, this.numBeats, this.numRejectedBeats,
+                                    this.stressLevel, this.probeStress, this.madRR, this.apEn,
+                                    this.meanBPM, this.sdnn, this.rmssd, this.pnn50, this.normHRV,
+                                    this.totalPower, this.lfPower, this.hfPower, this.lfhfRatio );
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.source + ": stress " + this.stressLevel
+                + ", probe stress " + this.probeStress
+                + ", madrr " + this.madRR
+                + ", apen " + this.apEn;
+    }
+
+    private final String source;
+    private final int numBeats;
+    private final int numRejectedBeats;
+    private final float stressLevel;
+    private final float probeStress;
+    private final float madRR;
+    private final float apEn;
+    private final float meanBPM;
+    private final float sdnn;
+    private final float rmssd;
+    private final float pnn50;
+    private final float normHRV;
+    private final float totalPower;
+    private final float lfPower;
+    private final float hfPower;
+    private final float lfhfRatio;
+}
@@ -0,0 +1,533 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+import java.util.Arrays;
+
+
+/** Calculates the approximate entropy (ApEn) of a signal.
+  * For long signals and templates of two values, the default,
+  * the matches are not visited one by one:
+  * each template is a point, of two or three coordinates, and its matches
+  * are the points in a box around it, which are counted with Fenwick trees,
+  * sweeping the points by their first coordinate. This takes O(N log N) time
+  * for templates of two values, and O(N log^2 N) for the ones of three.
+  * Coordinates are the ranks of the values, and the box of each value is found
+  * with the same float comparisons as before, so counts are exactly the same.
+  * For short signals, e.g. the windows of LiveAnalyzer, and for other lengths
+  * of the templates, templates are sorted by their first value, so each template
+  * is only compared with the ones whose first value lies within the tolerance,
+  * and each pair of templates is visited once, which is still quadratic.
+  * Buffers are kept between calls, so no memory is allocated once they are big enough.
+  */
+public class ApproximateEntropy {
+    /** The minimum length of the signal for counting points in boxes, which is slower for less. */
+    private static final int MIN_LENGTH_FOR_BOXES = 8192;
+
+    /** Creates a new engine, with empty buffers. */
+    public ApproximateEntropy()
+    {
+        this.keys = new long[ 0 ];
+        this.sorted = new int[ 0 ];
+        this.countsM = new int[ 0 ];
+        this.countsM1 = new int[ 0 ];
+        this.values = new float[ 0 ];
+        this.ranks = new int[ 0 ];
+        this.lo = new int[ 0 ];
+        this.hi = new int[ 0 ];
+        this.start = new int[ 0 ];
+        this.order = new int[ 0 ];
+        this.eventStart = new int[ 0 ];
+        this.eventKeys = new int[ 0 ];
+        this.events = new int[ 0 ];
+        this.keysOrder = new int[ 0 ];
+        this.tree = new int[ 0 ];
+        this.nodeStart = new int[ 0 ];
+        this.nodeFill = new int[ 0 ];
+        this.nodeValues = new int[ 0 ];
+        this.nodeTrees = new int[ 0 ];
+    }
+
+    /** Calculates the approximate entropy.
+      * @param signal the values of the signal.
+      * @param length the number of values to take from signal.
+      * @param m the length of the templates.
+      * @param r the tolerance, in the same units of the signal.
+      * @return the entropy, |phi(m + 1) - phi(m)|.
+      */
+    public float calculate(final float[] signal, int length, int m, float r)
+    {
+        this.count( signal, length, m, r );
+
+        return Math.abs( phi( this.countsM1, length, m + 1 )
+                         - phi( this.countsM, length, m ) );
+    }
+
+    /** Counts, for each template, how many templates lie within r of it.
+      * Templates with m values are counted in countsM, the ones with m + 1 in countsM1.
+      */
+    private void count(final float[] U, int length, int m, float r)
+    {
+        final int NUM_TEMPLATES = Math.max( 0, length - m + 1 );
+
+        this.ensureCapacity( NUM_TEMPLATES );
+        Arrays.fill( this.countsM, 0, NUM_TEMPLATES, 0 );
+        Arrays.fill( this.countsM1, 0, Math.max( 0, length - m ), 0 );
+
+        if ( m != 2
+          || length < MIN_LENGTH_FOR_BOXES
+          || !this.countInBoxes( U, length, r ) )
+        {
+            this.countSorted( U, length, m, r );
+        }
+
+        return;
+    }
+
+    /** Counts the matches of templates of two values, and of three, as points in boxes.
+      * @return false if the values or the tolerance are not finite, and nothing was counted.
+      */
+    private boolean countInBoxes(final float[] U, int length, float r)
+    {
+        if ( length < 3
+          || !( r >= 0 )
+          || Float.isInfinite( r ) )
+        {
+            return false;
+        }
+
+        for (int i = 0; i < length; ++i) {
+            if ( Float.isNaN( U[ i ] )
+              || Float.isInfinite( U[ i ] ) )
+            {
+                return false;
+            }
+        }
+
+        // Rank the different values
+        this.values = ensureCapacity( this.values, length );
+        System.arraycopy( U, 0, this.values, 0, length );
+        Arrays.sort( this.values, 0, length );
+
+        int numValues = 0;
+        for (int i = 0; i < length; ++i) {
+            if ( numValues == 0
+              || Float.compare( this.values[ numValues - 1 ], this.values[ i ] ) != 0 )
+            {
+                this.values[ numValues++ ] = this.values[ i ];
+            }
+        }
+
+        final int NUM_VALUES = numValues;
+
+        this.ranks = ensureCapacity( this.ranks, length );
+
+        for (int i = 0; i < length; ++i) {
+            this.ranks[ i ] = Arrays.binarySearch( this.values, 0, NUM_VALUES, U[ i ] );
+        }
+
+        // The values within r of each one are contiguous, since differences grow with the rank
+        this.lo = ensureCapacity( this.lo, NUM_VALUES );
+        this.hi = ensureCapacity( this.hi, NUM_VALUES );
+
+        for (int a = 0, l = 0, h = 0; a < NUM_VALUES; ++a) {
+            final float VALUE = this.values[ a ];
+
+            while ( !( Math.abs( VALUE - this.values[ l ] ) <= r ) ) {
+                ++l;
+            }
+
+            h = Math.max( h, a );
+            while ( h + 1 < NUM_VALUES
+                 && Math.abs( VALUE - this.values[ h + 1 ] ) <= r )
+            {
+                ++h;
+            }
+
+            this.lo[ a ] = l;
+            this.hi[ a ] = h;
+        }
+
+        this.countPointsInBoxes( length - 1, 2, NUM_VALUES, this.countsM );
+        this.countPointsInBoxes( length - 2, 3, NUM_VALUES, this.countsM1 );
+        return true;
+    }
+
+    /** Counts, for each template, the templates in the box around it.
+      * The templates are swept by their first coordinate: when reaching the end of a box,
+      * the points in it are added to its count, and when reaching the position before
+      * its start, subtracted. The points already swept are kept in a Fenwick tree
+      * by their second coordinate, and for three coordinates, each node of the tree
+      * holds another one, by the third coordinate, of the points it is built for.
+      * @param numTemplates the number of templates, which are both points and boxes.
+      * @param dims the number of values of each template, 2 or 3.
+      * @param numValues the number of different values, i.e., of ranks.
+      * @param counts where the count of each template is stored.
+      */
+    private void countPointsInBoxes(int numTemplates, int dims, int numValues, final int[] counts)
+    {
+        final int[] RANKS = this.ranks;
+        final int[] LO = this.lo;
+        final int[] HI = this.hi;
+
+        // Points by their first coordinate
+        this.start = ensureCapacity( this.start, numValues + 1 );
+        this.order = ensureCapacity( this.order, numTemplates );
+        sortByKey( RANKS, 0, numTemplates, numValues, this.start, this.order );
+
+        // The ends of the boxes, and the positions before their starts, by first coordinate
+        int numEvents = 0;
+        this.eventKeys = ensureCapacity( this.eventKeys, 2 * numTemplates );
+        this.events = ensureCapacity( this.events, 2 * numTemplates );
+
+        for (int i = 0; i < numTemplates; ++i) {
+            this.eventKeys[ numEvents ] = HI[ RANKS[ i ] ];
+            this.events[ numEvents++ ] = i << 1;
+
+            if ( LO[ RANKS[ i ] ] > 0 ) {
+                this.eventKeys[ numEvents ] = LO[ RANKS[ i ] ] - 1;
+                this.events[ numEvents++ ] = ( i << 1 ) | 1;
+            }
+        }
+
+        this.eventStart = ensureCapacity( this.eventStart, numValues + 1 );
+        this.keysOrder = ensureCapacity( this.keysOrder, numEvents );
+        sortByKey( this.eventKeys, 0, numEvents, numValues, this.eventStart, this.keysOrder );
+
+        if ( dims == 2 ) {
+            this.tree = ensureCapacity( this.tree, numValues );
+            Arrays.fill( this.tree, 0, numValues, 0 );
+        } else {
+            this.buildNodes( numTemplates, numValues );
+        }
+
+        for (int x = 0; x < numValues; ++x) {
+            for (int p = this.start[ x ]; p < this.start[ x + 1 ]; ++p) {
+                final int J = this.order[ p ];
+
+                if ( dims == 2 ) {
+                    add( this.tree, 0, numValues, RANKS[ J + 1 ], 1 );
+                } else {
+                    this.addToNodes( RANKS[ J + 1 ], RANKS[ J + 2 ], numValues );
+                }
+            }
+
+            for (int e = this.eventStart[ x ]; e < this.eventStart[ x + 1 ]; ++e) {
+                final int EVENT = this.events[ this.keysOrder[ e ] ];
+                final int I = EVENT >>> 1;
+                final int Y = RANKS[ I + 1 ];
+                final int COUNT;
+
+                if ( dims == 2 ) {
+                    COUNT = sum( this.tree, 0, HI[ Y ] + 1 ) - sum( this.tree, 0, LO[ Y ] );
+                } else {
+                    final int Z = RANKS[ I + 2 ];
+
+                    COUNT = this.sumInNodes( HI[ Y ], LO[ Z ], HI[ Z ] )
+                          - this.sumInNodes( LO[ Y ] - 1, LO[ Z ], HI[ Z ] );
+                }
+
+                counts[ I ] += ( EVENT & 1 ) == 0 ? COUNT : -COUNT;
+            }
+        }
+
+        return;
+    }
+
+    /** Prepares the nodes of the tree by second coordinate, each one with the sorted
+      * third coordinates of the points it will hold, and an empty tree for them.
+      * The coordinates of a node are between nodeStart[ node ] and nodeFill[ node ].
+      */
+    private void buildNodes(int numTemplates, int numValues)
+    {
+        final int[] RANKS = this.ranks;
+        int numEntries = 0;
+
+        this.nodeStart = ensureCapacity( this.nodeStart, numValues + 2 );
+        this.nodeFill = ensureCapacity( this.nodeFill, numValues + 1 );
+        Arrays.fill( this.nodeStart, 0, numValues + 2, 0 );
+
+        for (int j = 0; j < numTemplates; ++j) {
+            for (int node = RANKS[ j + 1 ] + 1; node <= numValues; node += node & -node) {
+                ++this.nodeStart[ node + 1 ];
+                ++numEntries;
+            }
+        }
+
+        for (int node = 1; node <= numValues; ++node) {
+            this.nodeStart[ node + 1 ] += this.nodeStart[ node ];
+        }
+
+        System.arraycopy( this.nodeStart, 0, this.nodeFill, 0, numValues + 1 );
+        this.nodeValues = ensureCapacity( this.nodeValues, numEntries );
+        this.nodeTrees = ensureCapacity( this.nodeTrees, numEntries );
+        Arrays.fill( this.nodeTrees, 0, numEntries, 0 );
+
+        // Filling the nodes with the points sorted by third coordinate leaves them sorted,
+        // and repeated values together, so each one is kept once
+        sortByKey( RANKS, 2, numTemplates, numValues, this.start, this.order );
+
+        for (int p = 0; p < numTemplates; ++p) {
+            final int J = this.order[ p ];
+            final int Z = RANKS[ J + 2 ];
+
+            for (int node = RANKS[ J + 1 ] + 1; node <= numValues; node += node & -node) {
+                final int FILL = this.nodeFill[ node ];
+
+                if ( FILL == this.nodeStart[ node ]
+                  || this.nodeValues[ FILL - 1 ] != Z )
+                {
+                    this.nodeValues[ FILL ] = Z;
+                    this.nodeFill[ node ] = FILL + 1;
+                }
+            }
+        }
+
+        // Points are swept by first coordinate
+        sortByKey( RANKS, 0, numTemplates, numValues, this.start, this.order );
+        return;
+    }
+
+    /** Adds a point to the nodes by second coordinate y, in the tree of each one by third z. */
+    private void addToNodes(int y, int z, int numValues)
+    {
+        for (int node = y + 1; node <= numValues; node += node & -node) {
+            final int BEG = this.nodeStart[ node ];
+            final int END = this.nodeFill[ node ];
+
+            add( this.nodeTrees, BEG, END - BEG, lowerBound( this.nodeValues, BEG, END, z ) - BEG, 1 );
+        }
+
+        return;
+    }
+
+    /** @return the number of points added, with second coordinate up to y,
+      *         and third coordinate between fromZ and toZ, both included.
+      */
+    private int sumInNodes(int y, int fromZ, int toZ)
+    {
+        int toret = 0;
+
+        for (int node = y + 1; node > 0; node -= node & -node) {
+            final int BEG = this.nodeStart[ node ];
+            final int END = this.nodeFill[ node ];
+
+            toret += sum( this.nodeTrees, BEG, lowerBound( this.nodeValues, BEG, END, toZ + 1 ) - BEG )
+                   - sum( this.nodeTrees, BEG, lowerBound( this.nodeValues, BEG, END, fromZ ) - BEG );
+        }
+
+        return toret;
+    }
+
+    /** Adds a value at a position of a Fenwick tree stored in tree, from beg, with size positions. */
+    private static void add(final int[] tree, int beg, int size, int pos, int value)
+    {
+        for (int i = pos + 1; i <= size; i += i & -i) {
+            tree[ beg + i - 1 ] += value;
+        }
+
+        return;
+    }
+
+    /** @return the sum of the first count positions of a Fenwick tree stored in tree, from beg. */
+    private static int sum(final int[] tree, int beg, int count)
+    {
+        int toret = 0;
+
+        for (int i = count; i > 0; i -= i & -i) {
+            toret += tree[ beg + i - 1 ];
+        }
+
+        return toret;
+    }
+
+    /** @return the position of the first value in [lo, hi) not smaller than the given one. */
+    private static int lowerBound(final int[] values, int lo, int hi, int value)
+    {
+        while ( lo < hi ) {
+            final int MID = ( lo + hi ) >>> 1;
+
+            if ( values[ MID ] < value ) {
+                lo = MID + 1;
+            } else {
+                hi = MID;
+            }
+        }
+
+        return lo;
+    }
+
+    /** Sorts the positions 0 to num - 1 by keys[ position + offset ], counting them.
+      * @param start receives where the positions of each key begin, in order.
+      * @param order receives the sorted positions.
+      */
+    private static void sortByKey(final int[] keys, int offset, int num, int numKeys,
+                                  final int[] start, final int[] order)
+    {
+        Arrays.fill( start, 0, numKeys + 1, 0 );
+
+        for (int i = 0; i < num; ++i) {
+            ++start[ keys[ i + offset ] + 1 ];
+        }
+
+        for (int k = 0; k < numKeys; ++k) {
+            start[ k + 1 ] += start[ k ];
+        }
+
+        for (int i = 0; i < num; ++i) {
+            order[ start[ keys[ i + offset ] ]++ ] = i;
+        }
+
+        // Each start was moved to the next one
+        System.arraycopy( start, 0, start, 1, numKeys );
+        start[ 0 ] = 0;
+        return;
+    }
+
+    /** Counts the matches sorting the templates by their first value. */
+    private void countSorted(final float[] U, int length, int m, float r)
+    {
+        final int NUM_TEMPLATES = Math.max( 0, length - m + 1 );
+        final int NUM_TEMPLATES_M1 = Math.max( 0, length - m );
+
+        // Sort templates by their first value
+        for (int i = 0; i < NUM_TEMPLATES; ++i) {
+            this.keys[ i ] = ( (long) sortableBits( U[ i ] ) << 32 ) | i;
+        }
+
+        Arrays.sort( this.keys, 0, NUM_TEMPLATES );
+
+        for (int i = 0; i < NUM_TEMPLATES; ++i) {
+            this.sorted[ i ] = (int) this.keys[ i ];
+        }
+
+        // Compare each template with the following ones, while the first value is close enough.
+        // Since templates are sorted, the difference of the first value never decreases.
+        for (int p = 0; p < NUM_TEMPLATES; ++p) {
+            final int I = this.sorted[ p ];
+            final float FIRST = U[ I ];
+
+            for (int q = p; q < NUM_TEMPLATES; ++q) {
+                final int J = this.sorted[ q ];
+
+                if ( !( Math.abs( U[ J ] - FIRST ) <= r ) ) {
+                    break;
+                }
+
+                if ( !matches( U, I, J, 1, m, r ) ) {
+                    continue;
+                }
+
+                ++this.countsM[ I ];
+
+                if ( q != p ) {
+                    ++this.countsM[ J ];
+                }
+
+                if ( I < NUM_TEMPLATES_M1
+                  && J < NUM_TEMPLATES_M1
+                  && Math.abs( U[ I + m ] - U[ J + m ] ) <= r )
+                {
+                    ++this.countsM1[ I ];
+
+                    if ( q != p ) {
+                        ++this.countsM1[ J ];
+                    }
+                }
+            }
+        }
+
+        return;
+    }
+
+    /** @return true if all values of both templates, from beg to end, lie within r. */
+    private static boolean matches(final float[] U, int i, int j, int beg, int end, float r)
+    {
+        boolean toret = true;
+
+        for (int k = beg; k < end; ++k) {
+            if ( !( Math.abs( U[ i + k ] - U[ j + k ] ) <= r ) ) {
+                toret = false;
+                break;
+            }
+        }
+
+        return toret;
+    }
+
+    /** @return phi(m), given the number of matches for each template. */
+    private static float phi(final int[] COUNTS, int length, int m)
+    {
+        final int NUM_TEMPLATES = length - m + 1;
+        float result = .0f;
+
+        for (int i = 0; i < NUM_TEMPLATES; ++i) {
+            result += Math.log( ( (float) COUNTS[ i ] ) / ( length - m + 1.0f ) );
+        }
+
+        result /= ( length - m + 1.0f );
+        return result;
+    }
+
+    /** @return the bits of the float, so they are sorted as the float values would. */
+    private static int sortableBits(float value)
+    {
+        final int BITS = Float.floatToIntBits( value );
+
+        return BITS ^ ( ( BITS >> 31 ) & 0x7fffffff );
+    }
+
+    /** @return the given buffer if it can hold length values, a new, bigger one otherwise. */
+    private static int[] ensureCapacity(int[] buffer, int length)
+    {
+        if ( buffer.length < length ) {
+            buffer = new int[ length ];
+        }
+
+        return buffer;
+    }
+
+    /** @return the given buffer if it can hold length values, a new, bigger one otherwise. */
+    private static float[] ensureCapacity(float[] buffer, int length)
+    {
+        if ( buffer.length < length ) {
+            buffer = new float[ length ];
+        }
+
+        return buffer;
+    }
+
+    private void ensureCapacity(int numTemplates)
+    {
+        if ( this.keys.length < numTemplates ) {
+            this.keys = new long[ numTemplates ];
+            this.sorted = new int[ numTemplates ];
+            this.countsM = new int[ numTemplates ];
+            this.countsM1 = new int[ numTemplates ];
+        }
+
+        return;
+    }
+
+    private long[] keys;
+    private int[] sorted;
+    private int[] countsM;
+    private int[] countsM1;
+    private float[] values;
+    private int[] ranks;
+    private int[] lo;
+    private int[] hi;
+    private int[] start;
+    private int[] order;
+    private int[] eventStart;
+    private int[] eventKeys;
+    private int[] events;
+    private int[] keysOrder;
+    private int[] tree;
+    private int[] nodeStart;
+    private int[] nodeFill;
+    private int[] nodeValues;
+    private int[] nodeTrees;
+}
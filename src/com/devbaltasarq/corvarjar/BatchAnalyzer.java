@@ -0,0 +1,303 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/** Analyzes many .res files, in parallel, in a bounded pool of threads.
+  * Each summary is given to a sink as soon as its analysis finishes.
+  * The sink is never called from two threads at the same time.
+  */
+public class BatchAnalyzer {
+    private static final String LOG_TAG = BatchAnalyzer.class.getSimpleName();
+    private static final String RES_FILE_PATTERN = "*.res";
+    private static final int QUEUED_FILES_PER_THREAD = 4;
+
+    /** Receives the results of each analysis. */
+    public interface Sink {
+        /** A file was analyzed. */
+        void onAnalysis(AnalysisSummary summary);
+
+        /** A file could not be analyzed. */
+        void onFailure(String fileName, Exception error);
+    }
+
+    /** A sink writing each summary as a line of CSV. */
+    public static class CsvSink implements Sink {
+        public CsvSink(Writer writer) throws IOException
+        {
+            this.writer = writer;
+            this.writer.write( AnalysisSummary.CSV_HEADER );
+            this.writer.write( '\n' );
+        }
+
+        @Override
+        public void onAnalysis(AnalysisSummary summary)
+        {
+            try {
+                this.writer.write( summary.toCsv() );
+                this.writer.write( '\n' );
+            } catch(IOException exc) {
+                throw new RuntimeException( "writing summary: " + exc.getMessage(), exc );
+            }
+        }
+
+        @Override
+        public void onFailure(String fileName, Exception error)
+        {
+            Log.e( LOG_TAG, () -> "failed analyzing: " + fileName + ": " + error.getMessage() );
+        }
+
+        private final Writer writer;
+    }
+
+    /** What happened in a whole batch. */
+    public static class Report {
+        private Report(int numAnalyzed, List<String> failures, long elapsedNanos)
+        {
+            this.numAnalyzed = numAnalyzed;
+            this.failures = Collections.unmodifiableList( failures );
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /** @return the number of files successfully analyzed. */
+        public int getNumAnalyzed()
+        {
+            return this.numAnalyzed;
+        }
+
+        /** @return the number of files that could not be analyzed. */
+        public int getNumFailed()
+        {
+            return this.failures.size();
+        }
+
+        /** @return the names of the files that could not be analyzed. */
+        public List<String> getFailures()
+        {
+            return this.failures;
+        }
+
+        /** @return the time taken by the whole batch, in millis. */
+        public long getElapsedMillis()
+        {
+            return TimeUnit.NANOSECONDS.toMillis( this.elapsedNanos );
+        }
+
+        /** @return the number of files processed per second. */
+        public double getThroughput()
+        {
+            final int NUM_FILES = this.getNumAnalyzed() + this.getNumFailed();
+
+            return this.elapsedNanos > 0 ? NUM_FILES * 1e9 / this.elapsedNanos : 0.0;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format( "%d files analyzed, %d failed, in %d ms (%.2f files/s)",
+                                  this.getNumAnalyzed(), this.getNumFailed(),
+                                  this.getElapsedMillis(), this.getThroughput() );
+        }
+
+        private final int numAnalyzed;
+        private final List<String> failures;
+        private final long elapsedNanos;
+    }
+
+    /** Creates a new batch analyzer, with a thread per available processor. */
+    public BatchAnalyzer()
+    {
+        this( Runtime.getRuntime().availableProcessors() );
+    }
+
+    /** Creates a new batch analyzer.
+      * @param numThreads the number of analyses to run at the same time.
+      */
+    public BatchAnalyzer(int numThreads)
+    {
+        if ( numThreads < 1 ) {
+            throw new IllegalArgumentException( "number of threads must be positive: " + numThreads );
+        }
+
+        this.numThreads = numThreads;
+    }
+
+    /** @return the number of analyses running at the same time. */
+    public int getNumThreads()
+    {
+        return this.numThreads;
+    }
+
+    /** @return the cache for the summaries, or null if files are always analyzed. */
+    public AnalysisCache getCache()
+    {
+        return this.cache;
+    }
+
+    /** Makes the summaries to be taken from a cache, when files were already analyzed.
+      * @param cache the cache to use, or null to always analyze the files.
+      */
+    public void setCache(AnalysisCache cache)
+    {
+        this.cache = cache;
+    }
+
+    /** @return the listener for the metrics of each analysis, or null. */
+    public AnalysisMetrics getMetrics()
+    {
+        return this.metrics;
+    }
+
+    /** Changes the listener for the metrics of each analysis.
+      * It is shared among all threads, so it must be thread-safe, e.g. AggregatingMetrics.
+      * Files whose summary is taken from the cache are not analyzed, so give no metrics.
+      * @param metrics the new listener, or null for none.
+      */
+    public void setMetrics(AnalysisMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    /** Analyzes all .res files in a directory.
+      * The directory is read while analyzing, so its contents are never held in memory.
+      * @param dir the directory holding the .res files.
+      * @param sink where to send the summaries.
+      * @return the report of the whole batch.
+      * @throws IOException if the directory cannot be read.
+      */
+    public Report analyze(File dir, Sink sink) throws IOException
+    {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream( dir.toPath(), RES_FILE_PATTERN )) {
+            return this.analyze( new PathNames( files ), sink );
+        }
+    }
+
+    /** Analyzes the given files.
+      * @param fileNames the names of the .res files.
+      * @param sink where to send the summaries.
+      * @return the report of the whole batch.
+      */
+    public Report analyze(String[] fileNames, Sink sink)
+    {
+        return this.analyze( Arrays.asList( fileNames ), sink );
+    }
+
+    /** Analyzes the given files.
+      * @param fileNames the names of the .res files.
+      * @param sink where to send the summaries.
+      * @return the report of the whole batch.
+      */
+    public Report analyze(Iterable<String> fileNames, final Sink sink)
+    {
+        final long TIME_START = System.nanoTime();
+        final AtomicInteger NUM_ANALYZED = new AtomicInteger( 0 );
+        final List<String> FAILURES = new ArrayList<>();
+        final AnalysisCache CACHE = this.cache;
+        final AnalysisEngine ENGINE = new AnalysisEngine( AnalysisConfig.DEFAULT, this.metrics );
+
+        // The queue is bounded: when full, the calling thread runs the analysis itself
+        final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+                                    this.numThreads, this.numThreads,
+                                    0L, TimeUnit.MILLISECONDS,
+                                    new ArrayBlockingQueue<>( this.numThreads * QUEUED_FILES_PER_THREAD ),
+                                    new ThreadPoolExecutor.CallerRunsPolicy() );
+
+        try {
+            for(final String FILE_NAME: fileNames) {
+                EXECUTOR.execute( () -> {
+                    AnalysisSummary summary = null;
+                    Exception error;
+
+                    try {
+                        if ( CACHE != null ) {
+                            summary = CACHE.get( FILE_NAME );
+                            error = null;
+                        } else {
+                            summary = ENGINE.analyze( FILE_NAME );
+                            error = null;
+                        }
+                    } catch(IOException | RuntimeException exc) {
+                        error = exc;
+                    }
+
+                    synchronized ( sink ) {
+                        if ( error == null ) {
+                            NUM_ANALYZED.incrementAndGet();
+                            sink.onAnalysis( summary );
+                        } else {
+                            FAILURES.add( FILE_NAME );
+                            sink.onFailure( FILE_NAME, error );
+                        }
+                    }
+                });
+            }
+        } finally {
+            EXECUTOR.shutdown();
+
+            try {
+                while ( !EXECUTOR.awaitTermination( 1, TimeUnit.MINUTES ) ) {
+                    Log.i( LOG_TAG, () -> "waiting for " + EXECUTOR.getActiveCount() + " analyses" );
+                }
+            } catch(InterruptedException exc) {
+                EXECUTOR.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized ( sink ) {
+            return new Report( NUM_ANALYZED.get(), FAILURES, System.nanoTime() - TIME_START );
+        }
+    }
+
+    /** Adapts the paths in a directory stream to file names, as they are read. */
+    private static class PathNames implements Iterable<String> {
+        PathNames(Iterable<Path> paths)
+        {
+            this.paths = paths;
+        }
+
+        @Override
+        public Iterator<String> iterator()
+        {
+            final Iterator<Path> IT = this.paths.iterator();
+
+            return new Iterator<String>() {
+                @Override
+                public boolean hasNext()
+                {
+                    return IT.hasNext();
+                }
+
+                @Override
+                public String next()
+                {
+                    return IT.next().toString();
+                }
+            };
+        }
+
+        private final Iterable<Path> paths;
+    }
+
+    private final int numThreads;
+    private AnalysisCache cache;
+    private AnalysisMetrics metrics;
+}
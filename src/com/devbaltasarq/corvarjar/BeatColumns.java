@@ -0,0 +1,19 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+/** Read-only access to the beats of a recording, by position.
+  * Values are primitive, so no object is created per beat.
+  */
+public interface BeatColumns {
+    /** @return the number of beats. */
+    int size();
+
+    /** @return the time of the i-th beat, in millis. */
+    long timeAt(int i);
+
+    /** @return the rr interval of the i-th beat, in millis. */
+    long rrAt(int i);
+}
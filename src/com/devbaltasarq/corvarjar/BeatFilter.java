@@ -0,0 +1,225 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+/** Filters artifacts in a sequence of heart rates.
+  * A beat is accepted if it is close enough to the previous beat,
+  * the next beat or the mean of the last beats, and its value lies between
+  * the minimum and maximum bpm's. When a beat is rejected, the beat following it
+  * is replaced by the mean of the last beats.
+  * The mean is kept in a ring buffer with a running sum, so each beat costs constant time.
+  * Beats can be given all at once, with filter(), or one by one, with offer(),
+  * for live streams. Both produce the same sequence.
+  */
+public class BeatFilter {
+    public static final int DEFAULT_WIN_LENGTH = 50;
+    public static final float DEFAULT_MIN_BPM = 24.0f;
+    public static final float DEFAULT_MAX_BPM = 198.0f;
+    public static final float DEFAULT_U_LAST = 13.0f;
+
+    /** Creates a new filter with the default thresholds. */
+    public BeatFilter()
+    {
+        this( DEFAULT_WIN_LENGTH, DEFAULT_MIN_BPM, DEFAULT_MAX_BPM, DEFAULT_U_LAST );
+    }
+
+    /** Creates a new filter.
+      * @param winLength the number of last beats to calculate the mean with.
+      * @param minBpm the minimum heart rate for a beat to be accepted.
+      * @param maxBpm the maximum heart rate for a beat to be accepted.
+      * @param uLast the maximum difference with the previous or next beat, in percentage.
+      *              The difference with the mean can be 1.5 times this value.
+      */
+    public BeatFilter(int winLength, float minBpm, float maxBpm, float uLast)
+    {
+        if ( winLength < 1 ) {
+            throw new IllegalArgumentException( "window length must be positive: " + winLength );
+        }
+
+        this.winLength = winLength;
+        this.minBpm = minBpm;
+        this.maxBpm = maxBpm;
+        this.uLast = uLast;
+        this.uMean = 1.5f * uLast;
+        this.window = new float[ winLength ];
+        this.reset();
+    }
+
+    /** @return the number of last beats to calculate the mean with. */
+    public int getWinLength()
+    {
+        return this.winLength;
+    }
+
+    /** @return the minimum heart rate for a beat to be accepted, in bpm. */
+    public float getMinBpm()
+    {
+        return this.minBpm;
+    }
+
+    /** @return the maximum heart rate for a beat to be accepted, in bpm. */
+    public float getMaxBpm()
+    {
+        return this.maxBpm;
+    }
+
+    /** @return the maximum difference with the previous or next beat, in percentage. */
+    public float getULast()
+    {
+        return this.uLast;
+    }
+
+    /** Forgets all beats, so a new sequence can be filtered. */
+    public void reset()
+    {
+        this.count = 0;
+        this.numRejected = 0;
+        this.replaced = false;
+        this.previous = 0.0f;
+        this.current = 0.0f;
+        this.windowSize = 0;
+        this.windowPos = 0;
+        this.windowSum = 0.0;
+
+        return;
+    }
+
+    /** Filters a whole sequence, in place.
+      * Replaced beats get the mean heart rate in hr, and the matching value in rr.
+      * @param hr the heart rates, in bpm.
+      * @param rr the rr intervals.
+      * @param length the number of beats in both arrays.
+      * @return the number of rejected beats.
+      */
+    public int filter(final float[] hr, final float[] rr, int length)
+    {
+        this.reset();
+
+        for (int i = 0; i < length; ++i) {
+            final float HR = this.offer( hr[ i ] );
+
+            if ( this.wasReplaced() ) {
+                hr[ i ] = HR;
+                rr[ i ] = 60.0f / HR;
+            }
+        }
+
+        return this.numRejected;
+    }
+
+    /** Adds the next beat of the sequence.
+      * The previous beat is judged, since the new beat is now known.
+      * If it is rejected, then the new beat is replaced by the mean of the last beats.
+      * @param hr the heart rate of the new beat, in bpm.
+      * @return the final heart rate for the new beat.
+      * @see BeatFilter#wasReplaced()
+      */
+    public float offer(float hr)
+    {
+        this.replaced = false;
+
+        if ( this.count >= 2 ) {
+            final float MEAN_LAST_BEATS = this.getMean();
+
+            if ( !this.accepts( this.previous, this.current, hr, MEAN_LAST_BEATS ) ) {
+                ++this.numRejected;
+                this.replaced = true;
+                hr = MEAN_LAST_BEATS;
+            }
+        }
+
+        if ( this.count >= 1 ) {
+            this.push( this.current );
+        }
+
+        this.previous = this.current;
+        this.current = hr;
+        ++this.count;
+
+        return hr;
+    }
+
+    /** @return true if the last beat given to offer() was replaced by the mean. */
+    public boolean wasReplaced()
+    {
+        return this.replaced;
+    }
+
+    /** @return the number of beats rejected since the last reset. */
+    public int getNumRejected()
+    {
+        return this.numRejected;
+    }
+
+    /** @return the mean of the last beats in the window. */
+    public float getMean()
+    {
+        return (float) ( this.windowSum / this.windowSize );
+    }
+
+    /** Decides whether a beat is valid or not.
+      * @param previous the heart rate of the previous beat.
+      * @param current the heart rate of the beat to judge.
+      * @param next the heart rate of the following beat.
+      * @param mean the mean of the last beats.
+      * @return true if the current beat is accepted, false otherwise.
+      */
+    protected boolean accepts(float previous, float current, float next, float mean)
+    {
+        final float RELATION_PREVIOUS_BEAT = 100
+                * Math.abs( ( current - previous ) / previous );
+        final float RELATION_NEXT_BEAT = 100
+                * Math.abs( ( current - next ) / next );
+        final float RELATION_MEAN_BEAT = 100
+                * Math.abs( ( current - mean ) / mean );
+
+        return ( RELATION_PREVIOUS_BEAT < this.uLast
+              || RELATION_NEXT_BEAT < this.uLast
+              || RELATION_MEAN_BEAT < this.uMean )
+            && current > this.minBpm
+            && current < this.maxBpm;
+    }
+
+    /** Adds a beat to the window, forgetting the oldest one if full. */
+    private void push(float hr)
+    {
+        if ( this.windowSize == this.winLength ) {
+            this.windowSum -= this.window[ this.windowPos ];
+        } else {
+            ++this.windowSize;
+        }
+
+        this.window[ this.windowPos ] = hr;
+        this.windowSum += hr;
+        this.windowPos = ( this.windowPos + 1 ) % this.winLength;
+
+        // Recalculate the sum on each turn, so rounding errors do not pile up
+        if ( this.windowPos == 0 ) {
+            this.windowSum = 0.0;
+
+            for (int i = 0; i < this.windowSize; ++i) {
+                this.windowSum += this.window[ i ];
+            }
+        }
+
+        return;
+    }
+
+    private final int winLength;
+    private final float minBpm;
+    private final float maxBpm;
+    private final float uLast;
+    private final float uMean;
+    private final float[] window;
+
+    private int windowSize;
+    private int windowPos;
+    private double windowSum;
+    private int count;
+    private int numRejected;
+    private boolean replaced;
+    private float previous;
+    private float current;
+}
@@ -0,0 +1,204 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+
+/** Low-level support for the binary format of persistent objects.
+  * Integers are stored as varints: seven bits per byte, least significant first,
+  * the highest bit of each byte telling whether more bytes follow.
+  * Signed values are zig-zag encoded first, so small negative numbers are short too.
+  */
+final class BinaryFormat {
+    /** The first bytes of any binary file: "CVJB". */
+    static final byte[] MAGIC = { 'C', 'V', 'J', 'B' };
+    static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private BinaryFormat()
+    {
+    }
+
+    /** @return the value, zig-zag encoded: 0, -1, 1, -2... become 0, 1, 2, 3... */
+    static long zigZag(long value)
+    {
+        return ( value << 1 ) ^ ( value >> 63 );
+    }
+
+    /** @return the value, decoded from zig-zag. */
+    static long unZigZag(long value)
+    {
+        return ( value >>> 1 ) ^ -( value & 1 );
+    }
+
+    /** Writes values to a stream, buffered. */
+    static final class Encoder {
+        Encoder(OutputStream out)
+        {
+            this.out = out;
+            this.buffer = new byte[ BUFFER_SIZE ];
+            this.pos = 0;
+        }
+
+        void writeByte(int value) throws IOException
+        {
+            if ( this.pos == this.buffer.length ) {
+                this.flushBuffer();
+            }
+
+            this.buffer[ this.pos++ ] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes) throws IOException
+        {
+            for(byte b: bytes) {
+                this.writeByte( b );
+            }
+
+            return;
+        }
+
+        /** Writes a non-negative value, or any value seen as unsigned. */
+        void writeVarLong(long value) throws IOException
+        {
+            while ( ( value & ~0x7FL ) != 0 ) {
+                this.writeByte( (int) ( ( value & 0x7F ) | 0x80 ) );
+                value >>>= 7;
+            }
+
+            this.writeByte( (int) value );
+        }
+
+        /** Writes a value that can be negative. */
+        void writeSignedVarLong(long value) throws IOException
+        {
+            this.writeVarLong( zigZag( value ) );
+        }
+
+        void writeString(String value) throws IOException
+        {
+            final byte[] BYTES = value.getBytes( StandardCharsets.UTF_8 );
+
+            this.writeVarLong( BYTES.length );
+            this.writeBytes( BYTES );
+        }
+
+        /** Writes the buffered bytes to the stream, and flushes it. */
+        void flush() throws IOException
+        {
+            this.flushBuffer();
+            this.out.flush();
+        }
+
+        private void flushBuffer() throws IOException
+        {
+            this.out.write( this.buffer, 0, this.pos );
+            this.pos = 0;
+        }
+
+        private final OutputStream out;
+        private final byte[] buffer;
+        private int pos;
+    }
+
+    /** Reads values from a stream, buffered. */
+    static final class Decoder {
+        Decoder(InputStream in)
+        {
+            this.in = in;
+            this.buffer = new byte[ BUFFER_SIZE ];
+            this.pos = 0;
+            this.limit = 0;
+        }
+
+        int readByte() throws IOException
+        {
+            if ( this.pos == this.limit ) {
+                this.fillBuffer();
+            }
+
+            return this.buffer[ this.pos++ ] & 0xFF;
+        }
+
+        void readBytes(byte[] bytes) throws IOException
+        {
+            for (int i = 0; i < bytes.length; ++i) {
+                bytes[ i ] = (byte) this.readByte();
+            }
+
+            return;
+        }
+
+        long readVarLong() throws IOException
+        {
+            long toret = 0;
+            int shift = 0;
+            int b;
+
+            do {
+                if ( shift > 63 ) {
+                    throw new IOException( "malformed varint" );
+                }
+
+                b = this.readByte();
+                toret |= (long) ( b & 0x7F ) << shift;
+                shift += 7;
+            } while ( ( b & 0x80 ) != 0 );
+
+            return toret;
+        }
+
+        long readSignedVarLong() throws IOException
+        {
+            return unZigZag( this.readVarLong() );
+        }
+
+        /** Reads a length, checking it is sensible.
+          * @param max the maximum acceptable value.
+          */
+        int readLength(int max) throws IOException
+        {
+            final long LENGTH = this.readVarLong();
+
+            if ( LENGTH < 0
+              || LENGTH > max )
+            {
+                throw new IOException( "invalid length: " + LENGTH );
+            }
+
+            return (int) LENGTH;
+        }
+
+        String readString() throws IOException
+        {
+            final byte[] BYTES = new byte[ this.readLength( BUFFER_SIZE ) ];
+
+            this.readBytes( BYTES );
+            return new String( BYTES, StandardCharsets.UTF_8 );
+        }
+
+        private void fillBuffer() throws IOException
+        {
+            final int READ = this.in.read( this.buffer );
+
+            if ( READ <= 0 ) {
+                throw new EOFException( "unexpected end of binary data" );
+            }
+
+            this.pos = 0;
+            this.limit = READ;
+        }
+
+        private final InputStream in;
+        private final byte[] buffer;
+        private int pos;
+        private int limit;
+    }
+}
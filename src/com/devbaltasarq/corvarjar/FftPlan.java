@@ -0,0 +1,238 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/** Precalculated tables for the FFT of a given size:
+  * twiddle factors, the bit-reversal permutation, and Hamming windows.
+  * Plans are immutable once built, and are cached by size, so they can be shared
+  * among analyses and threads. Since sizes are powers of two, the cache is small.
+  */
+public final class FftPlan {
+    private static final ConcurrentMap<Integer, FftPlan> PLANS = new ConcurrentHashMap<>();
+    private static final int MAX_HAMMING_WINDOWS = 64;
+
+    private FftPlan(int n)
+    {
+        final int HALF = n / 2;
+
+        this.n = n;
+        this.log2n = Integer.numberOfTrailingZeros( n );
+        this.cos = new double[ HALF ];
+        this.sin = new double[ HALF ];
+        this.hammingWindows = new ConcurrentHashMap<>();
+
+        for(int index = 0; index < HALF; index++) {
+            this.cos[ index ] = Math.cos( -2 * Math.PI * index / n );
+            this.sin[ index ] = Math.sin( -2 * Math.PI * index / n );
+        }
+
+        this.swaps = buildBitReversalSwaps( n );
+    }
+
+    /** @return the plan for the given size.
+      * @param n the size of the transform, a power of two.
+      * @throws IllegalArgumentException if n is not a power of two.
+      */
+    public static FftPlan forSize(int n)
+    {
+        if ( n < 1
+          || Integer.bitCount( n ) != 1 )
+        {
+            throw new IllegalArgumentException( "FFT size must be a power of two: " + n );
+        }
+
+        FftPlan toret = PLANS.get( n );
+
+        if ( toret == null ) {
+            toret = PLANS.computeIfAbsent( n, FftPlan::new );
+        }
+
+        return toret;
+    }
+
+    /** @return the size of the transform. */
+    public int getSize()
+    {
+        return this.n;
+    }
+
+    /** Computes the FFT in place.
+      * @param x the real part, which will hold the real part of the result.
+      * @param y the imaginary part, which will hold the imaginary part of the result.
+      */
+    public void transform(double[] x, double[] y)
+    {
+        final int[] SWAPS = this.swaps;
+        final double[] COS = this.cos;
+        final double[] SIN = this.sin;
+        final int N = this.n;
+        final int M = this.log2n;
+        int n1, n2, a;
+        double c, s, t1, t2;
+
+        // Bit-reverse
+        for (int i = 0; i < SWAPS.length; i += 2) {
+            final int I = SWAPS[ i ];
+            final int J = SWAPS[ i + 1 ];
+
+            t1 = x[ I ];
+            x[ I ] = x[ J ];
+            x[ J ] = t1;
+            t1 = y[ I ];
+            y[ I ] = y[ J ];
+            y[ J ] = t1;
+        }
+
+        // FFT
+        n2 = 1;
+
+        for (int i = 0; i < M; i++) {
+            n1 = n2;
+            n2 = n2 + n2;
+            a = 0;
+
+            for (int j = 0; j < n1; j++) {
+                c = COS[ a ];
+                s = SIN[ a ];
+                a += 1 << ( M - i - 1 );
+
+                for (int k = j; k < N; k = k + n2) {
+                    t1 = c * x[ k + n1 ] - s * y[ k + n1 ];
+                    t2 = s * x[ k + n1 ] + c * y[ k + n1 ];
+                    x[ k + n1 ] = x[ k ] - t1;
+                    y[ k + n1 ] = y[ k ] - t2;
+                    x[ k ] = x[ k ] + t1;
+                    y[ k ] = y[ k ] + t2;
+                }
+            }
+        }
+
+        return;
+    }
+
+    /** Computes the FFT of a real signal, in place, using a complex FFT of half the size.
+      * On input, re holds the samples at even positions, and im the ones at odd positions.
+      * On output, they hold the real and imaginary parts of the first half of the spectrum.
+      * Since the input is real, the second half is just the conjugate of the first one.
+      * @param re the samples at even positions, n / 2 values.
+      * @param im the samples at odd positions, n / 2 values.
+      */
+    public void transformReal(double[] re, double[] im)
+    {
+        final int HALF = this.n / 2;
+
+        if ( HALF > 0 ) {
+            final double[] COS = this.cos;
+            final double[] SIN = this.sin;
+            FftPlan halfPlan = this.halfPlan;
+
+            if ( halfPlan == null ) {
+                halfPlan = this.halfPlan = forSize( HALF );
+            }
+
+            halfPlan.transform( re, im );
+
+            // Untangle the spectrum of the even and odd samples:
+            // X[k] = E[k] + W^k * O[k], E[k] = (Z[k] + Z*[N/2-k]) / 2, O[k] = (Z[k] - Z*[N/2-k]) / 2i
+            re[ 0 ] = re[ 0 ] + im[ 0 ];
+            im[ 0 ] = 0.0;
+
+            for (int k = 1; k <= HALF / 2; ++k) {
+                final int NK = HALF - k;
+                final double A = re[ k ];
+                final double B = im[ k ];
+                final double C = re[ NK ];
+                final double D = im[ NK ];
+
+                // Even and odd parts, for k; for N/2-k they are the conjugates
+                final double EVEN_RE = ( A + C ) / 2;
+                final double EVEN_IM = ( B - D ) / 2;
+                final double ODD_RE = ( B + D ) / 2;
+                final double ODD_IM = ( C - A ) / 2;
+
+                re[ k ] = EVEN_RE + COS[ k ] * ODD_RE - SIN[ k ] * ODD_IM;
+                im[ k ] = EVEN_IM + COS[ k ] * ODD_IM + SIN[ k ] * ODD_RE;
+                re[ NK ] = EVEN_RE + COS[ NK ] * ODD_RE + SIN[ NK ] * ODD_IM;
+                im[ NK ] = -EVEN_IM - COS[ NK ] * ODD_IM + SIN[ NK ] * ODD_RE;
+            }
+        }
+
+        return;
+    }
+
+    /** Returns a Hamming window, which is shared: it must not be modified.
+      * w(n) = a0 - (1-a0)*cos( 2*PI*n/(N-1) ), a0 = 25/46
+      * @param windowLength the length of the window, not bigger than the plan size.
+      * @return the window, created only the first time it is needed.
+      */
+    public double[] getHammingWindow(int windowLength)
+    {
+        if ( windowLength > this.n ) {
+            throw new IllegalArgumentException( "Hamming window longer than plan: " + windowLength );
+        }
+
+        double[] toret = this.hammingWindows.get( windowLength );
+
+        if ( toret == null ) {
+            // Segment lengths vary among recordings, so keep only the latest ones
+            if ( this.hammingWindows.size() >= MAX_HAMMING_WINDOWS ) {
+                this.hammingWindows.clear();
+            }
+
+            toret = this.hammingWindows.computeIfAbsent( windowLength, FftPlan::makeHammingWindow );
+        }
+
+        return toret;
+    }
+
+    private static double[] makeHammingWindow(int windowLength)
+    {
+        double a0 = 25.0/46.0;
+        double[] window = new double[windowLength];
+
+        for(int i = 0; i < windowLength; i++)
+            window[i] = a0 - (1-a0) * Math.cos(2*Math.PI*i/(windowLength-1));
+
+        return window;
+    }
+
+    /** @return the pairs of positions to swap in order to bit-reverse the input. */
+    private static int[] buildBitReversalSwaps(int n)
+    {
+        int[] toret = new int[ n ];
+        int numSwaps = 0;
+        int j = 0;
+
+        for (int i = 1; i < n - 1; i++) {
+            int n1 = n / 2;
+
+            while ( j >= n1 ) {
+                j = j - n1;
+                n1 = n1 / 2;
+            }
+            j = j + n1;
+
+            if ( i < j ) {
+                toret[ numSwaps++ ] = i;
+                toret[ numSwaps++ ] = j;
+            }
+        }
+
+        return Arrays.copyOf( toret, numSwaps );
+    }
+
+    private final int n;
+    private final int log2n;
+    private final double[] cos;
+    private final double[] sin;
+    private final int[] swaps;
+    private final ConcurrentMap<Integer, double[]> hammingWindows;
+    private FftPlan halfPlan;
+}
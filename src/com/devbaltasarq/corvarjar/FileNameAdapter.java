@@ -30,12 +30,8 @@ public class FileNameAdapter {
     /** @return the only instance of this class. */
     public static FileNameAdapter get()
     {
-        if ( instance == null ) {
-            instance = new FileNameAdapter();
-        }
-
-        return instance;
+        return INSTANCE;
     }
 
-    private static FileNameAdapter instance;
+    private static final FileNameAdapter INSTANCE = new FileNameAdapter();
 }
@@ -52,10 +52,12 @@ public class Id {
         return Long.toString( this.get() );
     }
 
-    /** @return The next id, valid for storing. */
+    /** @return The next id, valid for storing, unique even among threads and processes.
+      * @see IdGenerator
+      */
     public static Id create()
     {
-        return new Id( System.currentTimeMillis() );
+        return new Id( IdGenerator.get().next() );
     }
 
     private long id;
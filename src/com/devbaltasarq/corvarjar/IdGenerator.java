@@ -0,0 +1,113 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/** Creates unique, increasing ids, with no locks.
+  * Each id is a positive long made of, from the highest bits:
+  * the millis since EPOCH (41 bits, until 2089), the node (10 bits)
+  * and a sequence inside the same milli (12 bits).
+  * Each node creates up to 4096 ids per milli; when more are needed,
+  * the ids borrow the next millis, so they never repeat, nor go back
+  * even if the clock does.
+  * Different processes must have different nodes: the node is taken from
+  * the system property NODE_PROPERTY, or chosen randomly if it is not set.
+  * Ids are only guaranteed to be unique across processes when each one
+  * is given its own node with the property: random nodes can collide,
+  * and process ids would too, e.g. being 1 in all containers.
+  * Ids created before, which were just the time in millis, are always smaller.
+  */
+public final class IdGenerator {
+    private static final String LOG_TAG = IdGenerator.class.getSimpleName();
+    public static final String NODE_PROPERTY = "corvarjar.id.node";
+    public static final long EPOCH = 1577836800000L;        // 2020-01-01T00:00:00Z
+    public static final int NODE_BITS = 10;
+    public static final int SEQUENCE_BITS = 12;
+    public static final int MAX_NODE = ( 1 << NODE_BITS ) - 1;
+    private static final int SEQUENCE_MASK = ( 1 << SEQUENCE_BITS ) - 1;
+
+    /** Creates a generator.
+      * @param node the node of this process, between 0 and MAX_NODE.
+      */
+    public IdGenerator(int node)
+    {
+        if ( node < 0
+          || node > MAX_NODE )
+        {
+            throw new IllegalArgumentException( "node must be between 0 and " + MAX_NODE + ": " + node );
+        }
+
+        this.node = node;
+        this.last = new AtomicLong( 0 );
+    }
+
+    /** @return the node of this generator. */
+    public int getNode()
+    {
+        return this.node;
+    }
+
+    /** @return a new id, bigger than all the ones created before by this generator. */
+    public long next()
+    {
+        final long NOW = ( System.currentTimeMillis() - EPOCH ) << SEQUENCE_BITS;
+        final long STAMP = this.last.updateAndGet( last -> Math.max( NOW, last + 1 ) );
+
+        return ( ( STAMP >>> SEQUENCE_BITS ) << ( NODE_BITS + SEQUENCE_BITS ) )
+                | ( (long) this.node << SEQUENCE_BITS )
+                | ( STAMP & SEQUENCE_MASK );
+    }
+
+    /** @return the time in millis an id was created at, approximately. */
+    public static long timeOf(long id)
+    {
+        return ( id >>> ( NODE_BITS + SEQUENCE_BITS ) ) + EPOCH;
+    }
+
+    /** @return the node an id was created in. */
+    public static int nodeOf(long id)
+    {
+        return (int) ( id >>> SEQUENCE_BITS ) & MAX_NODE;
+    }
+
+    /** @return the generator of this process, used by Id.create(). */
+    public static IdGenerator get()
+    {
+        return INSTANCE;
+    }
+
+    /** @return the node for this process: the system property, or a random one. */
+    private static int findNode()
+    {
+        final String PROPERTY = System.getProperty( NODE_PROPERTY );
+        int toret = -1;
+
+        if ( PROPERTY != null ) {
+            try {
+                toret = Integer.parseInt( PROPERTY.trim() );
+            } catch(NumberFormatException exc) {
+                Log.e( LOG_TAG, () -> "invalid " + NODE_PROPERTY + ": " + PROPERTY );
+            }
+        }
+
+        if ( toret < 0
+          || toret > MAX_NODE )
+        {
+            final int NODE = new SecureRandom().nextInt( MAX_NODE + 1 );
+
+            Log.i( LOG_TAG, () -> NODE_PROPERTY + " not set, using random node: " + NODE );
+            toret = NODE;
+        }
+
+        return toret;
+    }
+
+    private final int node;
+    private final AtomicLong last;
+    private static final IdGenerator INSTANCE = new IdGenerator( findNode() );
+}
@@ -0,0 +1,441 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+import java.util.Arrays;
+
+
+/** Analyzes a stream of beats as they arrive, i.e., while recording.
+  * Only the last beats are taken into account, in a sliding window.
+  * Filtering, time-domain statistics and MadRR are kept current on each beat,
+  * at a bounded cost. The entropy, and therefore the stress level,
+  * are calculated every few beats, and then the listener is notified.
+  * Memory depends only on the length of the window.
+  */
+public class LiveAnalyzer {
+    public static final int DEFAULT_WIN_LENGTH = 300;
+    public static final int DEFAULT_UPDATE_EVERY = 30;
+    private static final int MIN_WIN_LENGTH = 3;
+
+    /** Receives the periodic updates of the stress level. */
+    public interface Listener {
+        /** New stress values are available.
+          * @param analyzer the analyzer, to be queried for all values.
+          */
+        void onUpdate(LiveAnalyzer analyzer);
+    }
+
+    /** Creates a new live analyzer, with the default window and cadence. */
+    public LiveAnalyzer()
+    {
+        this( DEFAULT_WIN_LENGTH, DEFAULT_UPDATE_EVERY );
+    }
+
+    /** Creates a new live analyzer.
+      * @param winLength the number of last beats to take into account.
+      * @param updateEvery the number of beats between two stress level updates.
+      */
+    public LiveAnalyzer(int winLength, int updateEvery)
+    {
+        if ( winLength < MIN_WIN_LENGTH ) {
+            throw new IllegalArgumentException( "window length must be at least "
+                                                + MIN_WIN_LENGTH + ": " + winLength );
+        }
+
+        if ( updateEvery < 1 ) {
+            throw new IllegalArgumentException( "update cadence must be positive: " + updateEvery );
+        }
+
+        this.winLength = winLength;
+        this.updateEvery = updateEvery;
+        this.windowRR = new float[ winLength ];
+        this.windowHR = new float[ winLength ];
+        this.sortedDifs = new float[ winLength ];
+        this.signal = new float[ winLength ];
+        this.beatFilter = new BeatFilter();
+        this.apEn = new ApproximateEntropy();
+        this.reset();
+    }
+
+    /** @return the number of last beats taken into account. */
+    public int getWinLength()
+    {
+        return this.winLength;
+    }
+
+    /** @return the number of beats between two stress level updates. */
+    public int getUpdateEvery()
+    {
+        return this.updateEvery;
+    }
+
+    /** @return the listener for the updates, or null. */
+    public Listener getListener()
+    {
+        return this.listener;
+    }
+
+    /** Changes the listener for the updates.
+      * It is called from the thread adding the beats.
+      * @param listener the new listener, or null.
+      */
+    public void setListener(Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    /** @return the filter for the beats. */
+    public BeatFilter getBeatFilter()
+    {
+        return this.beatFilter;
+    }
+
+    /** Changes the filter for the beats. This also resets the analyzer.
+      * @param beatFilter the new filter.
+      */
+    public void setBeatFilter(BeatFilter beatFilter)
+    {
+        this.beatFilter = beatFilter;
+        this.reset();
+    }
+
+    /** Forgets all beats, so a new stream can be analyzed. */
+    public void reset()
+    {
+        this.beatFilter.reset();
+        this.numBeats = 0;
+        this.beatsSinceUpdate = 0;
+        this.windowSize = 0;
+        this.windowPos = 0;
+        this.numDifs = 0;
+        this.numBigDifs = 0;
+        this.sumRR = 0.0;
+        this.sumSquaredRR = 0.0;
+        this.sumHR = 0.0;
+        this.sumSquaredDifs = 0.0;
+        this.valueApEn = 0.0f;
+        this.valueStress = 0.0f;
+        this.updated = false;
+
+        return;
+    }
+
+    /** Adds a new beat, as given to Result.Builder.add().
+      * @param beat the new time, rr pair.
+      * @see Result.Builder#add(Result.BeatEvent)
+      */
+    public void add(Result.BeatEvent beat)
+    {
+        this.add( beat.getRR() );
+    }
+
+    /** Adds a new beat.
+      * @param rr the rr interval, in ms.
+      */
+    public void add(long rr)
+    {
+        float hr = this.beatFilter.offer( 60.0f / ( rr / 1000.0f ) );
+        float rrValue = rr;
+
+        if ( this.beatFilter.wasReplaced() ) {
+            rrValue = 60.0f / hr;
+        }
+
+        this.push( rrValue, hr );
+        ++this.numBeats;
+        ++this.beatsSinceUpdate;
+
+        if ( this.beatsSinceUpdate >= this.updateEvery
+          && this.windowSize >= MIN_WIN_LENGTH )
+        {
+            this.update();
+        }
+
+        return;
+    }
+
+    /** Calculates the entropy and stress level for the current window,
+      * and notifies the listener. This happens automatically every few beats.
+      */
+    public void update()
+    {
+        final int LENGTH = this.windowSize;
+        final int OLDEST = this.getOldestPos();
+
+        // Unroll the window, so the signal starts at the oldest beat
+        for (int i = 0; i < LENGTH; ++i) {
+            this.signal[ i ] = this.windowRR[ ( OLDEST + i ) % this.winLength ];
+        }
+
+        this.beatsSinceUpdate = 0;
+        this.valueApEn = this.apEn.calculate( this.signal, LENGTH, AnalysisConfig.DEFAULT_APEN_M,
+                                              AnalysisConfig.DEFAULT_APEN_R * this.getSD() );
+        this.valueStress = ResultAnalyzer.calculateStressLevel(
+                                    this.valueApEn, this.getMadRR(),
+                                    this.getMeanBPM(), this.getPNN50() );
+        this.updated = true;
+
+        if ( this.listener != null ) {
+            this.listener.onUpdate( this );
+        }
+
+        return;
+    }
+
+    /** @return true if the stress level has been calculated at least once. */
+    public boolean isUpdated()
+    {
+        return this.updated;
+    }
+
+    /** @return the number of beats added since the last reset. */
+    public int getNumBeats()
+    {
+        return this.numBeats;
+    }
+
+    /** @return the number of beats currently in the window. */
+    public int getWindowSize()
+    {
+        return this.windowSize;
+    }
+
+    /** @return the number of beats rejected by the filter since the last reset. */
+    public int getNumRejectedBeats()
+    {
+        return this.beatFilter.getNumRejected();
+    }
+
+    /** @return the mean of the rr intervals in the window, in ms. */
+    public float getMeanRR()
+    {
+        return (float) ( this.sumRR / this.windowSize );
+    }
+
+    /** @return the mean heart rate in the window, in bpm. */
+    public float getMeanBPM()
+    {
+        return (float) ( this.sumHR / this.windowSize );
+    }
+
+    /** @return the sample standard deviation of the rr intervals in the window (SDNN), in ms. */
+    public float getSDNN()
+    {
+        return (float) Math.sqrt( this.getSumSquaredDeviations() / ( this.windowSize - 1 ) );
+    }
+
+    /** @return the population standard deviation of the rr intervals in the window, in ms. */
+    public float getSD()
+    {
+        return (float) Math.sqrt( this.getSumSquaredDeviations() / this.windowSize );
+    }
+
+    /** @return the root mean square of successive differences in the window (rMSSD), in ms. */
+    public float getRMSSD()
+    {
+        return (float) Math.sqrt( this.sumSquaredDifs / this.numDifs );
+    }
+
+    /** @return the percentage of successive differences bigger than 50ms in the window (pNN50),
+      *         or NaN if there are less than two beats.
+      */
+    public float getPNN50()
+    {
+        float toret = Float.NaN;
+
+        if ( this.numDifs > 0 ) {
+            toret = 100.0f * ( (float) this.numBigDifs / (float) this.numDifs );
+        }
+
+        return toret;
+    }
+
+    /** @return the median of the differences of rr in the window (MADRR value), in ms,
+      *         or NaN if there are less than two beats, as in ResultAnalyzer.
+      */
+    public float getMadRR()
+    {
+        final int N = this.numDifs / 2;
+        float toret;
+
+        if ( this.numDifs == 0 ) {
+            toret = Float.NaN;
+        }
+        else
+        if ( this.numDifs % 2 == 0 ) {
+            toret = ( this.sortedDifs[ N ] + this.sortedDifs[ N - 1 ] ) / 2;
+        } else {
+            toret = this.sortedDifs[ N ];
+        }
+
+        return toret;
+    }
+
+    /** @return the entropy, as of the last update. */
+    public float getApEn()
+    {
+        return this.valueApEn;
+    }
+
+    /** @return the stress level, as of the last update.
+      * @see ResultAnalyzer#getStressLevel()
+      */
+    public float getStressLevel()
+    {
+        return this.valueStress;
+    }
+
+    /** @return a value between 0 and 1, as of the last update. Values > .5 indicate stress. */
+    public float getProbeStress()
+    {
+        return ResultAnalyzer.calculateProbeStress( this.valueStress );
+    }
+
+    /** @return the sum of the squared deviations from the mean rr, in the window. */
+    private double getSumSquaredDeviations()
+    {
+        final double MEAN = this.sumRR / this.windowSize;
+
+        return Math.max( 0.0, this.sumSquaredRR - MEAN * this.sumRR );
+    }
+
+    /** @return the position of the oldest beat in the window. */
+    private int getOldestPos()
+    {
+        return ( this.windowPos - this.windowSize + this.winLength ) % this.winLength;
+    }
+
+    /** Adds a beat to the window, forgetting the oldest one if full. */
+    private void push(float rr, float hr)
+    {
+        if ( this.windowSize == this.winLength ) {
+            final int OLDEST = this.windowPos;
+            final float OLDEST_RR = this.windowRR[ OLDEST ];
+
+            this.removeDif( this.windowRR[ ( OLDEST + 1 ) % this.winLength ] - OLDEST_RR );
+            this.sumRR -= OLDEST_RR;
+            this.sumSquaredRR -= (double) OLDEST_RR * OLDEST_RR;
+            this.sumHR -= this.windowHR[ OLDEST ];
+        } else {
+            ++this.windowSize;
+        }
+
+        if ( this.windowSize > 1 ) {
+            final int LAST = ( this.windowPos - 1 + this.winLength ) % this.winLength;
+
+            this.addDif( rr - this.windowRR[ LAST ] );
+        }
+
+        this.windowRR[ this.windowPos ] = rr;
+        this.windowHR[ this.windowPos ] = hr;
+        this.sumRR += rr;
+        this.sumSquaredRR += (double) rr * rr;
+        this.sumHR += hr;
+        this.windowPos = ( this.windowPos + 1 ) % this.winLength;
+
+        // Recalculate the sums on each turn, so rounding errors do not pile up
+        if ( this.windowPos == 0 ) {
+            this.recalculateSums();
+        }
+
+        return;
+    }
+
+    /** Adds a difference between consecutive rr's, keeping them sorted. */
+    private void addDif(float dif)
+    {
+        final float ABS_DIF = Math.abs( dif );
+        int pos = Arrays.binarySearch( this.sortedDifs, 0, this.numDifs, ABS_DIF );
+
+        if ( pos < 0 ) {
+            pos = -( pos + 1 );
+        }
+
+        System.arraycopy( this.sortedDifs, pos, this.sortedDifs, pos + 1, this.numDifs - pos );
+        this.sortedDifs[ pos ] = ABS_DIF;
+        ++this.numDifs;
+
+        this.sumSquaredDifs += (double) dif * dif;
+
+        if ( ABS_DIF > TimeDomainStatistics.NN50_THRESHOLD ) {
+            ++this.numBigDifs;
+        }
+
+        return;
+    }
+
+    /** Removes a difference between consecutive rr's, previously added. */
+    private void removeDif(float dif)
+    {
+        final float ABS_DIF = Math.abs( dif );
+        final int POS = Arrays.binarySearch( this.sortedDifs, 0, this.numDifs, ABS_DIF );
+
+        --this.numDifs;
+        System.arraycopy( this.sortedDifs, POS + 1, this.sortedDifs, POS, this.numDifs - POS );
+
+        this.sumSquaredDifs -= (double) dif * dif;
+
+        if ( ABS_DIF > TimeDomainStatistics.NN50_THRESHOLD ) {
+            --this.numBigDifs;
+        }
+
+        return;
+    }
+
+    /** Recalculates all running sums from the values in the window. */
+    private void recalculateSums()
+    {
+        final int OLDEST = this.getOldestPos();
+        float lastRR = 0.0f;
+
+        this.sumRR = 0.0;
+        this.sumSquaredRR = 0.0;
+        this.sumHR = 0.0;
+        this.sumSquaredDifs = 0.0;
+
+        for (int i = 0; i < this.windowSize; ++i) {
+            final int POS = ( OLDEST + i ) % this.winLength;
+            final float RR = this.windowRR[ POS ];
+
+            this.sumRR += RR;
+            this.sumSquaredRR += (double) RR * RR;
+            this.sumHR += this.windowHR[ POS ];
+
+            if ( i > 0 ) {
+                final float DIF = RR - lastRR;
+
+                this.sumSquaredDifs += (double) DIF * DIF;
+            }
+
+            lastRR = RR;
+        }
+
+        return;
+    }
+
+    private final int winLength;
+    private final int updateEvery;
+    private final float[] windowRR;
+    private final float[] windowHR;
+    private final float[] sortedDifs;
+    private final float[] signal;
+    private final ApproximateEntropy apEn;
+    private BeatFilter beatFilter;
+    private Listener listener;
+
+    private int numBeats;
+    private int beatsSinceUpdate;
+    private int windowSize;
+    private int windowPos;
+    private int numDifs;
+    private int numBigDifs;
+    private double sumRR;
+    private double sumSquaredRR;
+    private double sumHR;
+    private double sumSquaredDifs;
+    private float valueApEn;
+    private float valueStress;
+    private boolean updated;
+}
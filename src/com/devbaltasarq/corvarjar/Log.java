@@ -3,17 +3,310 @@
 package com.devbaltasarq.corvarjar;
 
 
-/** Stub class for a Log facility. */
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+
+/** A log facility, with levels and pluggable appenders.
+  * Messages below the current level are discarded before reaching the appender.
+  * Use the overloads taking a Supplier for messages that must be built,
+  * so they are only built when the level is enabled.
+  * By default, only errors are logged, to the standard error output.
+  */
 public class Log {
-	public static void i(String tag, String msg)
+	/** The levels of the messages, from the most verbose one. */
+	public enum Level { DEBUG, INFO, ERROR, OFF }
+
+	/** Writes the messages somewhere. */
+	public interface Appender {
+		/** Writes a message.
+		  * @param time the time of the message, in millis.
+		  * @param level the level of the message.
+		  * @param tag the tag of the message, usually its class.
+		  * @param msg the message.
+		  */
+		void append(long time, Level level, String tag, String msg);
+
+		/** Makes sure all messages appended up to now are written. */
+		default void flush()
+		{
+		}
+	}
+
+	/** Writes each message as a line in a stream. */
+	public static class StreamAppender implements Appender {
+		public StreamAppender(PrintStream out)
+		{
+			this.out = out;
+			this.formatter = new SimpleDateFormat( "yyyy-MM-dd HH:mm:ss.SSS", Locale.ROOT );
+		}
+
+		@Override
+		public synchronized void append(long time, Level level, String tag, String msg)
+		{
+			this.out.println( this.formatter.format( new Date( time ) )
+							  + " " + level.toString().charAt( 0 )
+							  + "/" + tag + ": " + msg );
+		}
+
+		@Override
+		public void flush()
+		{
+			this.out.flush();
+		}
+
+		private final PrintStream out;
+		private final SimpleDateFormat formatter;
+	}
+
+	/** Gives the messages to another appender in a background thread, in batches.
+	  * Callers never wait: when the queue is full, the message is dropped and counted.
+	  */
+	public static class AsyncAppender implements Appender, Closeable {
+		public static final int DEFAULT_CAPACITY = 8192;
+		private static final int MAX_BATCH = 256;
+		private static final long POLL_MILLIS = 100;
+
+		/** A message waiting to be written. */
+		private static final class Entry {
+			Entry(long time, Level level, String tag, String msg)
+			{
+				this.time = time;
+				this.level = level;
+				this.tag = tag;
+				this.msg = msg;
+			}
+
+			private final long time;
+			private final Level level;
+			private final String tag;
+			private final String msg;
+		}
+
+		/** Creates an asynchronous appender, with the default capacity. */
+		public AsyncAppender(Appender target)
+		{
+			this( target, DEFAULT_CAPACITY );
+		}
+
+		/** Creates an asynchronous appender, starting its thread.
+		  * @param target the appender writing the messages.
+		  * @param capacity the maximum number of messages waiting to be written.
+		  */
+		public AsyncAppender(Appender target, int capacity)
+		{
+			if ( capacity < 1 ) {
+				throw new IllegalArgumentException( "capacity must be positive: " + capacity );
+			}
+
+			this.target = target;
+			this.queue = new ArrayBlockingQueue<>( capacity );
+			this.numPending = new AtomicLong( 0 );
+			this.numDropped = new AtomicLong( 0 );
+			this.thread = new Thread( this::run, "corvarjar-log" );
+			this.thread.setDaemon( true );
+			this.thread.start();
+		}
+
+		@Override
+		public void append(long time, Level level, String tag, String msg)
+		{
+			this.numPending.incrementAndGet();
+
+			if ( this.closed
+			  || !this.queue.offer( new Entry( time, level, tag, msg ) ) )
+			{
+				this.numPending.decrementAndGet();
+				this.numDropped.incrementAndGet();
+			}
+
+			return;
+		}
+
+		/** Waits until all messages queued up to now are written. */
+		@Override
+		public void flush()
+		{
+			try {
+				while( this.numPending.get() > 0
+					&& this.thread.isAlive() )
+				{
+					Thread.sleep( 1 );
+				}
+			} catch(InterruptedException exc) {
+				Thread.currentThread().interrupt();
+			}
+
+			return;
+		}
+
+		/** Writes the messages still queued, and stops the thread. Later messages are dropped. */
+		@Override
+		public void close()
+		{
+			this.closed = true;
+
+			try {
+				this.thread.join();
+			} catch(InterruptedException exc) {
+				Thread.currentThread().interrupt();
+			}
+
+			return;
+		}
+
+		/** @return the number of messages dropped because the queue was full, or closed. */
+		public long getNumDropped()
+		{
+			return this.numDropped.get();
+		}
+
+		private void run()
+		{
+			final List<Entry> BATCH = new ArrayList<>( MAX_BATCH );
+
+			try {
+				while( !this.closed
+					|| !this.queue.isEmpty() )
+				{
+					final Entry FIRST = this.queue.poll( POLL_MILLIS, TimeUnit.MILLISECONDS );
+
+					if ( FIRST != null ) {
+						BATCH.add( FIRST );
+						this.queue.drainTo( BATCH, MAX_BATCH - 1 );
+
+						for(Entry entry: BATCH) {
+							this.write( entry );
+						}
+
+						this.target.flush();
+						this.numPending.addAndGet( -BATCH.size() );
+						BATCH.clear();
+					}
+				}
+			} catch(InterruptedException exc) {
+				Thread.currentThread().interrupt();
+			}
+
+			return;
+		}
+
+		private void write(Entry entry)
+		{
+			try {
+				this.target.append( entry.time, entry.level, entry.tag, entry.msg );
+			} catch(RuntimeException exc) {
+				// The log must not stop because of a faulty appender
+				this.numDropped.incrementAndGet();
+			}
+
+			return;
+		}
+
+		private final Appender target;
+		private final BlockingQueue<Entry> queue;
+		private final AtomicLong numPending;
+		private final AtomicLong numDropped;
+		private final Thread thread;
+		private volatile boolean closed;
+	}
+
+	/** @return the current level: messages below it are discarded. */
+	public static Level getLevel()
+	{
+		return level;
+	}
+
+	/** Changes the current level.
+	  * @param level the new level, Level.OFF for discarding all messages.
+	  */
+	public static void setLevel(Level level)
+	{
+		Log.level = level;
+	}
+
+	/** @return the current appender. */
+	public static Appender getAppender()
+	{
+		return appender;
+	}
+
+	/** Changes the appender for the messages.
+	  * @param appender the new appender.
+	  */
+	public static void setAppender(Appender appender)
 	{
+		Log.appender = appender;
+	}
+
+	/** @return true if messages of the given level are logged. */
+	public static boolean isLoggable(Level level)
+	{
+		return level.compareTo( Log.level ) >= 0
+			&& level != Level.OFF;
 	}
 
 	public static void d(String tag, String msg)
 	{
+		log( Level.DEBUG, tag, msg );
+	}
+
+	/** Logs a debug message, built only if debug messages are logged. */
+	public static void d(String tag, Supplier<String> msg)
+	{
+		log( Level.DEBUG, tag, msg );
+	}
+
+	public static void i(String tag, String msg)
+	{
+		log( Level.INFO, tag, msg );
+	}
+
+	/** Logs an informative message, built only if informative messages are logged. */
+	public static void i(String tag, Supplier<String> msg)
+	{
+		log( Level.INFO, tag, msg );
 	}
 
 	public static void e(String tag, String msg)
 	{
+		log( Level.ERROR, tag, msg );
 	}
+
+	/** Logs an error message, built only if error messages are logged. */
+	public static void e(String tag, Supplier<String> msg)
+	{
+		log( Level.ERROR, tag, msg );
+	}
+
+	private static void log(Level level, String tag, String msg)
+	{
+		if ( isLoggable( level ) ) {
+			appender.append( System.currentTimeMillis(), level, tag, msg );
+		}
+
+		return;
+	}
+
+	private static void log(Level level, String tag, Supplier<String> msg)
+	{
+		if ( isLoggable( level ) ) {
+			appender.append( System.currentTimeMillis(), level, tag, msg.get() );
+		}
+
+		return;
+	}
+
+	private static volatile Level level = Level.ERROR;
+	private static volatile Appender appender = new StreamAppender( System.err );
 }
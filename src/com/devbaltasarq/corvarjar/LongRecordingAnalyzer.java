@@ -0,0 +1,712 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/** Analyzes very long recordings, e.g. 24-hour Holter ones, in bounded memory.
+  * The signal is never held whole: the beats are read in place, and filtered again
+  * on each of a few passes over them, keeping only chunks of a fixed size.
+  * Memory thus depends on the chunk size, and not on the length of the recording.
+  * Use a columnar .res file, which is mapped instead of read, so the beats are not in the heap.
+  * <p>
+  * Time-domain statistics, MadRR, ApEn and the stress level are those of the whole recording,
+  * and the same ResultAnalyzer would report:
+  * the median is selected by counting the bits of the values in two passes,
+  * and the entropy compares a block of templates at a time against all of them.
+  * The spectrum, instead, is the average of consecutive windows of fixed length,
+  * overlapped by 50%, since the five windows of ResultAnalyzer grow with the recording.
+  * </p>
+  * @see ResultAnalyzer
+  * @see MappedResult
+  */
+public class LongRecordingAnalyzer {
+    private static final String LOG_TAG = LongRecordingAnalyzer.class.getSimpleName();
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+    public static final int SPECTRUM_WINDOW_LENGTH = 1024;
+    private static final int MIN_CHUNK_SIZE = 16;
+    private static final int HISTOGRAM_BITS = 16;
+    private static final int HISTOGRAM_SIZE = 1 << HISTOGRAM_BITS;
+
+    /** Reads the beats again, from the start, filtering them on the fly. */
+    private static final class FilteredBeats {
+        FilteredBeats(BeatColumns beats, BeatFilter filter)
+        {
+            this.beats = beats;
+            this.filter = filter;
+            this.rewind();
+        }
+
+        /** Goes back to the first beat, forgetting the state of the filter. */
+        void rewind()
+        {
+            this.filter.reset();
+            this.pos = -1;
+            this.beatTime = 0.0f;
+        }
+
+        /** Moves to the next beat, if any.
+          * @return true if there is a new beat, false at the end.
+          */
+        boolean next()
+        {
+            final boolean TORET = this.pos + 1 < this.beats.size();
+
+            if ( TORET ) {
+                final float RR_NF = (float) this.beats.rrAt( ++this.pos );
+
+                // The same operations as ResultAnalyzer, so values are the same
+                this.beatTime = this.pos == 0 ? RR_NF / 1000.0f
+                                              : this.beatTime + RR_NF / 1000.0f;
+                this.hr = this.filter.offer( 60.0f / ( RR_NF / 1000.0f ) );
+                this.rr = this.filter.wasReplaced() ? 60.0f / this.hr : RR_NF;
+            }
+
+            return TORET;
+        }
+
+        private final BeatColumns beats;
+        private final BeatFilter filter;
+        private int pos;
+        float beatTime;
+        float hr;
+        float rr;
+    }
+
+    public LongRecordingAnalyzer(String fileName)
+    {
+        this( fileName, null, DEFAULT_CHUNK_SIZE );
+    }
+
+    /** Creates an analyzer for a result already loaded, or mapped.
+      * @param result the result to analyze.
+      */
+    public LongRecordingAnalyzer(ResultData result)
+    {
+        this( Result.buildResultFileName( result ), result, DEFAULT_CHUNK_SIZE );
+    }
+
+    /** Creates an analyzer for a result already loaded, or mapped.
+      * @param result the result to analyze.
+      * @param chunkSize the number of values held at a time.
+      *                  Bigger chunks need less passes over the beats for the entropy.
+      */
+    public LongRecordingAnalyzer(ResultData result, int chunkSize)
+    {
+        this( Result.buildResultFileName( result ), result, chunkSize );
+    }
+
+    private LongRecordingAnalyzer(String fileName, ResultData result, int chunkSize)
+    {
+        if ( chunkSize < MIN_CHUNK_SIZE ) {
+            throw new IllegalArgumentException( "chunk size must be at least "
+                                                + MIN_CHUNK_SIZE + ": " + chunkSize );
+        }
+
+        this.fileName = fileName;
+        this.result = result;
+        this.preloaded = ( result != null );
+        this.chunkSize = chunkSize;
+        this.config = AnalysisConfig.DEFAULT;
+        this.beatFilter = this.config.createBeatFilter();
+        this.timeStats = new TimeDomainStatistics();
+    }
+
+    /** @return the number of values held at a time. */
+    public int getChunkSize()
+    {
+        return this.chunkSize;
+    }
+
+    /** @return the configuration of the analysis. */
+    public AnalysisConfig getConfig()
+    {
+        return this.config;
+    }
+
+    /** Changes the configuration of the analysis.
+      * The filter is replaced by a new one, with the thresholds of the configuration.
+      * @param config the new configuration.
+      */
+    public void setConfig(AnalysisConfig config)
+    {
+        this.config = config;
+        this.beatFilter = config.createBeatFilter();
+    }
+
+    /** @return the filter used to remove artifacts from the signal. */
+    public BeatFilter getBeatFilter()
+    {
+        return this.beatFilter;
+    }
+
+    /** Changes the filter used to remove artifacts from the signal.
+      * @param beatFilter the new filter.
+      */
+    public void setBeatFilter(BeatFilter beatFilter)
+    {
+        this.beatFilter = beatFilter;
+    }
+
+    public void analyze()
+    {
+        this.error = null;
+        this.numBeats = 0;
+
+        try {
+            if ( !this.preloaded ) {
+                this.load( this.fileName );
+            }
+
+            final FilteredBeats BEATS = new FilteredBeats( this.result, this.beatFilter );
+
+            this.numBeats = this.result.size();
+
+            if ( this.numBeats > 0 ) {
+                this.calculateTimeStats( BEATS );
+                this.valueMADRR = this.calculateMADRR( BEATS );
+                this.valueApEn = this.calculateApEn( BEATS, this.config.getApEnM(),
+                                                     this.config.getApEnR() * this.timeStats.getSD() );
+                this.valueStress = ResultAnalyzer.calculateStressLevel(
+                                                    this.valueApEn, this.valueMADRR,
+                                                    this.valueMeanBPM, this.valuePNN50 );
+                this.calculateSpectrum( BEATS );
+            }
+        } catch(IOException | JsonParseException exc)
+        {
+            this.error = exc;
+        }
+    }
+
+    private void load(String fileName) throws IOException, JsonParseException
+    {
+        try {
+            this.result = ResultFormat.read( new File( fileName ) );
+        } catch (IOException | JsonParseException exc) {
+            Log.e( LOG_TAG, () -> "Error reading result for file: " + fileName + " " + exc.getMessage() );
+            throw exc;
+        }
+    }
+
+    /** First pass: the time-domain statistics, the rejected beats and the last beat time. */
+    private void calculateTimeStats(final FilteredBeats BEATS)
+    {
+        this.timeStats.reset();
+        BEATS.rewind();
+
+        while( BEATS.next() ) {
+            this.timeStats.add( BEATS.rr, BEATS.hr );
+        }
+
+        this.lastBeatTime = BEATS.beatTime;
+        this.filteredData = this.beatFilter.getNumRejected();
+        this.valueRMS = this.timeStats.getRMSSD();
+        this.valueSTD = this.timeStats.getSDNN();
+        this.valuePNN50 = this.timeStats.getPNN50();
+        this.valueMeanBPM = this.timeStats.getMeanHR();
+        this.valueNormHRV = this.timeStats.getNormHRV();
+
+        Log.i( LOG_TAG, () -> "Filtered sequence: " + this.numBeats + " values" );
+        Log.i( LOG_TAG, () -> "Removed beats: " + this.filteredData );
+    }
+
+    /** Calculates the median of the absolute differences of consecutive rr's.
+      * Each value is selected in two passes, counting the high bits, and then the low ones
+      * of the values with the right high bits. Differences are never negative,
+      * so their bits are sorted as their values.
+      * @return the MADRR (median) value, or NaN if there are less than two beats.
+      */
+    private float calculateMADRR(final FilteredBeats BEATS)
+    {
+        final int NUM_DIFS = this.numBeats - 1;
+        final int[] HISTOGRAM = new int[ HISTOGRAM_SIZE ];
+        final int n = NUM_DIFS / 2;
+        float toret = Float.NaN;    // No differences, as in ResultAnalyzer
+
+        if ( NUM_DIFS > 0 ) {
+            toret = Float.intBitsToFloat( selectDif( BEATS, n, HISTOGRAM ) );
+
+            if ( NUM_DIFS % 2 == 0 ) {
+                toret = ( toret + Float.intBitsToFloat( selectDif( BEATS, n - 1, HISTOGRAM ) ) ) / 2;
+            }
+        }
+
+        return toret;
+    }
+
+    /** @return the bits of the rank-th smallest absolute difference of consecutive rr's. */
+    private static int selectDif(final FilteredBeats BEATS, int rank, final int[] HISTOGRAM)
+    {
+        final int HIGH_BITS = selectBits( BEATS, rank, HISTOGRAM, 0, 0 );
+        final int RANK_IN_HIGH = rank - countBelow( HISTOGRAM, HIGH_BITS );
+
+        return ( HIGH_BITS << HISTOGRAM_BITS )
+                | selectBits( BEATS, RANK_IN_HIGH, HISTOGRAM, 0xFFFF0000, HIGH_BITS << HISTOGRAM_BITS );
+    }
+
+    /** Counts the differences whose bits match the mask, by their next bits.
+      * @return the value of the next bits holding the given rank.
+      */
+    private static int selectBits(final FilteredBeats BEATS, int rank, final int[] HISTOGRAM,
+                                  int mask, int masked)
+    {
+        final int SHIFT = mask == 0 ? HISTOGRAM_BITS : 0;
+        float previous = 0.0f;
+        int toret = 0;
+
+        Arrays.fill( HISTOGRAM, 0 );
+        BEATS.rewind();
+
+        while( BEATS.next() ) {
+            final int BITS = Float.floatToIntBits( Math.abs( BEATS.rr - previous ) );
+
+            if ( BEATS.pos > 0
+              && ( BITS & mask ) == masked )
+            {
+                ++HISTOGRAM[ ( BITS >>> SHIFT ) & ( HISTOGRAM_SIZE - 1 ) ];
+            }
+
+            previous = BEATS.rr;
+        }
+
+        for (int count = 0; toret < HISTOGRAM_SIZE; ++toret) {
+            count += HISTOGRAM[ toret ];
+
+            if ( count > rank ) {
+                break;
+            }
+        }
+
+        return toret;
+    }
+
+    /** @return the number of values counted in the histogram before the given position. */
+    private static int countBelow(final int[] HISTOGRAM, int pos)
+    {
+        int toret = 0;
+
+        for (int i = 0; i < pos; ++i) {
+            toret += HISTOGRAM[ i ];
+        }
+
+        return toret;
+    }
+
+    /** Calculates the entropy, comparing a block of templates with all of them in each pass.
+      * The templates in the block are sorted by their first value, so each template read
+      * is only compared with the ones in the block whose first value is within r.
+      * The count of matches is the same as ApproximateEntropy, and so is the entropy.
+      * @see ApproximateEntropy
+      * @return the entropy.
+      */
+    private float calculateApEn(final FilteredBeats BEATS, int m, float r)
+    {
+        final int LENGTH = this.numBeats;
+        final int NUM_TEMPLATES = Math.max( 0, LENGTH - m + 1 );
+        final int NUM_TEMPLATES_M1 = Math.max( 0, LENGTH - m );
+        final int BLOCK_SIZE = this.chunkSize;
+        final float[] BLOCK = new float[ BLOCK_SIZE + m ];
+        final float[] NEXT_BLOCK = new float[ BLOCK_SIZE + m ];
+        final float[] FIRSTS = new float[ BLOCK_SIZE ];
+        final int[] SORTED = new int[ BLOCK_SIZE ];
+        final long[] KEYS = new long[ BLOCK_SIZE ];
+        final int[] COUNTS_M = new int[ BLOCK_SIZE ];
+        final int[] COUNTS_M1 = new int[ BLOCK_SIZE ];
+        final float[] TEMPLATE = new float[ m + 1 ];
+        float phiM = .0f;
+        float phiM1 = .0f;
+
+        // The first block is read on its own, the next ones while comparing the current one
+        fillBlock( BEATS, 0, BLOCK, LENGTH );
+
+        for (int blockBeg = 0; blockBeg < NUM_TEMPLATES; blockBeg += BLOCK_SIZE) {
+            final int BLOCK_LENGTH = Math.min( BLOCK_SIZE, NUM_TEMPLATES - blockBeg );
+            final int NEXT_BEG = blockBeg + BLOCK_SIZE;
+
+            for (int i = 0; i < BLOCK_LENGTH; ++i) {
+                KEYS[ i ] = ( (long) Float.floatToIntBits( BLOCK[ i ] ) << 32 ) | i;
+            }
+
+            sortByValue( KEYS, BLOCK_LENGTH );
+
+            for (int i = 0; i < BLOCK_LENGTH; ++i) {
+                SORTED[ i ] = (int) KEYS[ i ];
+                FIRSTS[ i ] = BLOCK[ SORTED[ i ] ];
+            }
+
+            Arrays.fill( COUNTS_M, 0, BLOCK_LENGTH, 0 );
+            Arrays.fill( COUNTS_M1, 0, BLOCK_LENGTH, 0 );
+            BEATS.rewind();
+
+            // Each template j is complete when its value j + m is read, or the signal ends
+            for (int pos = 0; BEATS.next(); ++pos) {
+                final int J = pos - m;
+
+                if ( pos >= NEXT_BEG
+                  && pos < NEXT_BEG + BLOCK_SIZE + m )
+                {
+                    NEXT_BLOCK[ pos - NEXT_BEG ] = BEATS.rr;
+                }
+
+                System.arraycopy( TEMPLATE, 1, TEMPLATE, 0, m );
+                TEMPLATE[ m ] = BEATS.rr;
+
+                if ( J >= 0 ) {
+                    countMatches( BLOCK, blockBeg, BLOCK_LENGTH, FIRSTS, SORTED,
+                                  TEMPLATE, 0, J, m, r, NUM_TEMPLATES_M1,
+                                  COUNTS_M, COUNTS_M1 );
+                }
+            }
+
+            // The last template has no value m
+            if ( NUM_TEMPLATES > 0 ) {
+                countMatches( BLOCK, blockBeg, BLOCK_LENGTH, FIRSTS, SORTED,
+                              TEMPLATE, 1, NUM_TEMPLATES - 1, m, r, NUM_TEMPLATES_M1,
+                              COUNTS_M, COUNTS_M1 );
+            }
+
+            // Same order and operations as ApproximateEntropy.phi()
+            for (int i = 0; i < BLOCK_LENGTH; ++i) {
+                phiM += Math.log( ( (float) COUNTS_M[ i ] ) / ( LENGTH - m + 1.0f ) );
+
+                if ( blockBeg + i < NUM_TEMPLATES_M1 ) {
+                    phiM1 += Math.log( ( (float) COUNTS_M1[ i ] ) / ( LENGTH - ( m + 1 ) + 1.0f ) );
+                }
+            }
+
+            System.arraycopy( NEXT_BLOCK, 0, BLOCK, 0, BLOCK.length );
+        }
+
+        phiM /= ( LENGTH - m + 1.0f );
+        phiM1 /= ( LENGTH - ( m + 1 ) + 1.0f );
+
+        return Math.abs( phiM1 - phiM );
+    }
+
+    /** Reads the values of the signal in [beg, beg + block.length), as far as there are. */
+    private static void fillBlock(final FilteredBeats BEATS, int beg, final float[] BLOCK, int length)
+    {
+        final int END = Math.min( length, beg + BLOCK.length );
+
+        BEATS.rewind();
+
+        for (int pos = 0; pos < END && BEATS.next(); ++pos) {
+            if ( pos >= beg ) {
+                BLOCK[ pos - beg ] = BEATS.rr;
+            }
+        }
+
+        return;
+    }
+
+    /** Counts the matches of the template j with the templates in the block.
+      * @param template the values of the template j, from templateBeg on.
+      * @param j the position of the template.
+      */
+    private static void countMatches(final float[] BLOCK, int blockBeg, int blockLength,
+                                     final float[] FIRSTS, final int[] SORTED,
+                                     final float[] template, int templateBeg, int j, int m, float r,
+                                     int numTemplatesM1, final int[] COUNTS_M, final int[] COUNTS_M1)
+    {
+        final float FIRST = template[ templateBeg ];
+
+        // The difference with the first value never decreases along the sorted block
+        int low = 0;
+        int high = blockLength;
+
+        while( low < high ) {
+            final int MID = ( low + high ) >>> 1;
+
+            if ( FIRSTS[ MID ] - FIRST >= -r ) {
+                high = MID;
+            } else {
+                low = MID + 1;
+            }
+        }
+
+        for (int p = low; p < blockLength; ++p) {
+            if ( !( Math.abs( FIRSTS[ p ] - FIRST ) <= r ) ) {
+                break;
+            }
+
+            final int I = SORTED[ p ];
+            boolean matches = true;
+
+            for (int k = 1; k < m; ++k) {
+                if ( !( Math.abs( BLOCK[ I + k ] - template[ templateBeg + k ] ) <= r ) ) {
+                    matches = false;
+                    break;
+                }
+            }
+
+            if ( matches ) {
+                ++COUNTS_M[ I ];
+
+                if ( blockBeg + I < numTemplatesM1
+                  && j < numTemplatesM1
+                  && Math.abs( BLOCK[ I + m ] - template[ templateBeg + m ] ) <= r )
+                {
+                    ++COUNTS_M1[ I ];
+                }
+            }
+        }
+
+        return;
+    }
+
+    /** Sorts the keys by the float value in their high bits, which can be negative. */
+    private static void sortByValue(final long[] KEYS, int length)
+    {
+        for (int i = 0; i < length; ++i) {
+            final int BITS = (int) ( KEYS[ i ] >>> 32 );
+
+            KEYS[ i ] = ( (long) ( BITS ^ ( ( BITS >> 31 ) & 0x7fffffff ) ) << 32 )
+                        | ( KEYS[ i ] & 0xFFFFFFFFL );
+        }
+
+        Arrays.sort( KEYS, 0, length );
+        return;
+    }
+
+    /** Calculates the spectrum, averaging windows of fixed length.
+      * The hr is interpolated as ResultAnalyzer does, but only one window is held.
+      */
+    private void calculateSpectrum(final FilteredBeats BEATS)
+    {
+        final float STEP = 1.0f / this.config.getInterpolationFreq();
+        final float[] WINDOW = new float[ SPECTRUM_WINDOW_LENGTH ];
+        final int HALF_WINDOW = SPECTRUM_WINDOW_LENGTH / 2;
+        final FftPlan PLAN = FftPlan.forSize( SPECTRUM_WINDOW_LENGTH );
+        final int SPECTRUM_LENGTH = PLAN.getSize() / 2;
+        final double[] RE = new double[ SPECTRUM_LENGTH ];
+        final double[] IM = new double[ SPECTRUM_LENGTH ];
+        final float[] SPECTRUM_SUM = new float[ SPECTRUM_LENGTH ];
+        int numWindows = 0;
+        int windowLength = 0;
+
+        BEATS.rewind();
+        BEATS.next();
+
+        float leftBeatPos = BEATS.beatTime;
+        float leftHRVal = BEATS.hr;
+        float rightBeatPos = leftBeatPos;
+        float rightHRVal = leftHRVal;
+        float x = leftBeatPos;
+
+        if ( BEATS.next() ) {
+            rightBeatPos = BEATS.beatTime;
+            rightHRVal = BEATS.hr;
+        }
+
+        while( x <= this.lastBeatTime ) {
+            if ( x >= rightBeatPos
+              && BEATS.next() )
+            {
+                leftBeatPos = rightBeatPos;
+                leftHRVal = rightHRVal;
+                rightBeatPos = BEATS.beatTime;
+                rightHRVal = BEATS.hr;
+            }
+
+            WINDOW[ windowLength++ ] = rightBeatPos == leftBeatPos ? leftHRVal
+                                        : ( rightHRVal - leftHRVal ) * ( x - leftBeatPos )
+                                            / ( rightBeatPos - leftBeatPos ) + leftHRVal;
+
+            if ( windowLength == SPECTRUM_WINDOW_LENGTH ) {
+                addWindowSpectrum( WINDOW, windowLength, PLAN, RE, IM, SPECTRUM_SUM );
+                ++numWindows;
+
+                // Windows overlap by 50%
+                System.arraycopy( WINDOW, HALF_WINDOW, WINDOW, 0, HALF_WINDOW );
+                windowLength = HALF_WINDOW;
+            }
+
+            x += STEP;
+        }
+
+        // A recording shorter than a window is taken whole
+        float duration = SPECTRUM_WINDOW_LENGTH * STEP;
+
+        if ( numWindows == 0
+          && windowLength > 1 )
+        {
+            addWindowSpectrum( WINDOW, windowLength, PLAN, RE, IM, SPECTRUM_SUM );
+            duration = ( windowLength - 1 ) * STEP;
+            numWindows = 1;
+        }
+
+        if ( numWindows > 0 ) {
+            for (int index = 0; index < SPECTRUM_LENGTH; index++) {
+                SPECTRUM_SUM[ index ] /= numWindows;
+            }
+
+            final float[] POWER_BANDS = ResultAnalyzer.calculatePowerBands(
+                                            this.config, SPECTRUM_SUM, new float[ SPECTRUM_LENGTH ],
+                                            SPECTRUM_LENGTH, duration );
+
+            this.valueTotalPower = POWER_BANDS[ 0 ];
+            this.valueLFPower = POWER_BANDS[ 1 ];
+            this.valueHFPower = POWER_BANDS[ 2 ];
+            this.valueLFHFRatio = POWER_BANDS[ 3 ];
+        } else {
+            this.valueTotalPower = this.valueLFPower = this.valueHFPower = -1.0f;
+            this.valueLFHFRatio = 1.0f;
+        }
+
+        final int NUM_WINDOWS = numWindows;
+        Log.i( LOG_TAG, () -> "Spectrum windows: " + NUM_WINDOWS );
+    }
+
+    private static void addWindowSpectrum(final float[] WINDOW, int length, FftPlan plan,
+                                          double[] re, double[] im, final float[] SPECTRUM_SUM)
+    {
+        ResultAnalyzer.calculateWindowSpectrum( WINDOW, 0, length, plan, re, im );
+
+        for (int index = 0; index < SPECTRUM_SUM.length; index++) {
+            SPECTRUM_SUM[ index ] += (float) ( Math.pow( re[ index ], 2 )
+                                             + Math.pow( im[ index ], 2 ) );
+        }
+
+        return;
+    }
+
+    /** @return a value between 0 and 1. Values > .5 indicate stress. */
+    public float getProbeStress()
+    {
+        return ResultAnalyzer.calculateProbeStress( this.valueStress );
+    }
+
+    public float getStressLevel()
+    {
+        return this.valueStress;
+    }
+
+    public float getMadRR()
+    {
+        return this.valueMADRR;
+    }
+
+    public float getApEn()
+    {
+        return this.valueApEn;
+    }
+
+    public float getMeanBPM()
+    {
+        return this.valueMeanBPM;
+    }
+
+    public float getSDNN()
+    {
+        return this.valueSTD;
+    }
+
+    public float getRMSSD()
+    {
+        return this.valueRMS;
+    }
+
+    public float getPNN50()
+    {
+        return this.valuePNN50;
+    }
+
+    public float getNormHRV()
+    {
+        return this.valueNormHRV;
+    }
+
+    /** @return the total power, averaged over windows of fixed length. */
+    public float getTotalPower()
+    {
+        return this.valueTotalPower;
+    }
+
+    /** @return the LF power, averaged over windows of fixed length. */
+    public float getLFPower()
+    {
+        return this.valueLFPower;
+    }
+
+    /** @return the HF power, averaged over windows of fixed length. */
+    public float getHFPower()
+    {
+        return this.valueHFPower;
+    }
+
+    /** @return the LF/HF ratio, averaged over windows of fixed length. */
+    public float getLFHFRatio()
+    {
+        return this.valueLFHFRatio;
+    }
+
+    public int getNumBeats()
+    {
+        return this.numBeats;
+    }
+
+    public int getNumRejectedBeats()
+    {
+        return this.filteredData;
+    }
+
+    /** @return the error of the last analysis, or null if there was none. */
+    public Exception getError()
+    {
+        return this.error;
+    }
+
+    /** @return all values of the last analysis, in an immutable object. */
+    public AnalysisSummary getSummary()
+    {
+        return new AnalysisSummary(
+                        this.fileName,
+                        this.getNumBeats(),
+                        this.getNumRejectedBeats(),
+                        this.getStressLevel(),
+                        this.getProbeStress(),
+                        this.getMadRR(),
+                        this.getApEn(),
+                        this.getMeanBPM(),
+                        this.getSDNN(),
+                        this.getRMSSD(),
+                        this.getPNN50(),
+                        this.getNormHRV(),
+                        this.getTotalPower(),
+                        this.getLFPower(),
+                        this.getHFPower(),
+                        this.getLFHFRatio() );
+    }
+
+    private final String fileName;
+    private ResultData result;
+    private final boolean preloaded;
+    private final int chunkSize;
+    private BeatFilter beatFilter;
+    private AnalysisConfig config;
+    private final TimeDomainStatistics timeStats;
+
+    private int numBeats;
+    private float lastBeatTime;
+    private int filteredData;
+    private float valueStress;
+    private float valueApEn;
+    private float valueMADRR;
+    private float valueSTD;
+    private float valueRMS;
+    private float valueMeanBPM;
+    private float valuePNN50;
+    private float valueNormHRV;
+    private float valueTotalPower;
+    private float valueLFPower;
+    private float valueHFPower;
+    private float valueLFHFRatio;
+    private Exception error;
+}
@@ -0,0 +1,308 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+/** A result stored in columns, read through a memory-mapped file.
+  * The beats are never copied into the heap: times and rr's are read
+  * directly from the mapped file, which is handled by the operating system.
+  * Analyzing it with ResultAnalyzer still copies the signal into arrays
+  * as long as the recording; LongRecordingAnalyzer needs bounded memory.
+  * The layout, little-endian, is:
+  * the magic bytes "CVJC", the version (int), the length of the header (int),
+  * the header (as in the binary format), the number of beats (long),
+  * and then, aligned to eight bytes, the time column (longs) and the rr column (ints).
+  * The mapping is released when this object is garbage collected.
+  * @see ResultFormat#COLUMNAR
+  */
+public final class MappedResult implements ResultData {
+    /** The first bytes of a columnar file: "CVJC". */
+    static final byte[] MAGIC = { 'C', 'V', 'J', 'C' };
+    static final int VERSION = 1;
+    private static final int PREAMBLE_LENGTH = 12;
+    private static final int MAX_HEADER_LENGTH = 64 * 1024;
+
+    private MappedResult(Id id, Tag tag, long dateTime, long durationInMillis,
+                         LongBuffer times, IntBuffer rrs)
+    {
+        this.id = id;
+        this.tag = tag;
+        this.dateTime = dateTime;
+        this.durationInMillis = durationInMillis;
+        this.times = times;
+        this.rrs = rrs;
+    }
+
+    /** Maps a columnar file.
+      * @param file the file to map.
+      * @return the mapped result.
+      * @throws IOException if the file cannot be read, or is not a valid columnar file.
+      */
+    public static MappedResult open(File file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ )) {
+            return map( channel );
+        }
+    }
+
+    /** Maps the contents of a channel, which can be closed afterwards.
+      * @param channel the channel of a columnar file.
+      * @return the mapped result.
+      * @throws IOException if the channel cannot be read, or is not a valid columnar file.
+      */
+    public static MappedResult map(FileChannel channel) throws IOException
+    {
+        final ByteBuffer PREAMBLE = readFully( channel, 0, PREAMBLE_LENGTH );
+        final byte[] MAGIC_READ = new byte[ MAGIC.length ];
+
+        PREAMBLE.get( MAGIC_READ );
+
+        if ( !Arrays.equals( MAGIC_READ, MAGIC ) ) {
+            throw new IOException( "Mapping result: not a columnar result" );
+        }
+
+        final int VERSION_READ = PREAMBLE.getInt();
+
+        if ( VERSION_READ != VERSION ) {
+            throw new IOException( "Mapping result: unsupported version: " + VERSION_READ );
+        }
+
+        final int HEADER_LENGTH = PREAMBLE.getInt();
+
+        if ( HEADER_LENGTH < 0
+          || HEADER_LENGTH > MAX_HEADER_LENGTH )
+        {
+            throw new IOException( "Mapping result: invalid header length: " + HEADER_LENGTH );
+        }
+
+        // Header
+        final ByteBuffer HEADER = readFully( channel, PREAMBLE_LENGTH, HEADER_LENGTH + 8 );
+        final BinaryFormat.Decoder DECODER = new BinaryFormat.Decoder(
+                                new ByteArrayInputStream( HEADER.array(), 0, HEADER_LENGTH ) );
+
+        try {
+            if ( Persistent.TypeId.parse( DECODER.readString() ) != Persistent.TypeId.Result ) {
+                throw new IOException( "Mapping result: not a result" );
+            }
+        } catch(IllegalArgumentException exc) {
+            throw new IOException( "Mapping result: " + exc.getMessage() );
+        }
+
+        final Id ID = new Id( DECODER.readSignedVarLong() );
+        final Tag TAG = new Tag( DECODER.readString() );
+        final long DATE_TIME = DECODER.readSignedVarLong();
+        final long DURATION_IN_MILLIS = DECODER.readSignedVarLong();
+
+        // Columns
+        final long NUM_BEATS = HEADER.getLong( HEADER_LENGTH );
+        final long TIMES_POS = getTimesPosition( HEADER_LENGTH );
+        final long RRS_POS = TIMES_POS + NUM_BEATS * Long.BYTES;
+
+        if ( NUM_BEATS < 0
+          || NUM_BEATS > Integer.MAX_VALUE / Long.BYTES
+          || RRS_POS + NUM_BEATS * Integer.BYTES > channel.size() )
+        {
+            throw new IOException( "Mapping result: invalid number of beats: " + NUM_BEATS );
+        }
+
+        final LongBuffer TIMES = channel.map( FileChannel.MapMode.READ_ONLY,
+                                              TIMES_POS, NUM_BEATS * Long.BYTES )
+                                        .order( ByteOrder.LITTLE_ENDIAN )
+                                        .asLongBuffer()
+                                        .asReadOnlyBuffer();
+        final IntBuffer RRS = channel.map( FileChannel.MapMode.READ_ONLY,
+                                           RRS_POS, NUM_BEATS * Integer.BYTES )
+                                        .order( ByteOrder.LITTLE_ENDIAN )
+                                        .asIntBuffer()
+                                        .asReadOnlyBuffer();
+
+        return new MappedResult( ID, TAG, DATE_TIME, DURATION_IN_MILLIS, TIMES, RRS );
+    }
+
+    /** Writes a result in the columnar format.
+      * @param result the result to write.
+      * @param out the stream to write to. It is flushed, but not closed.
+      * @throws IOException if the stream cannot be written.
+      */
+    public static void write(Result result, OutputStream out) throws IOException
+    {
+        final int NUM_BEATS = result.size();
+        final ByteArrayOutputStream HEADER = new ByteArrayOutputStream();
+        final BinaryFormat.Encoder HEADER_ENCODER = new BinaryFormat.Encoder( HEADER );
+
+        HEADER_ENCODER.writeString( result.getTypeId().toString() );
+        HEADER_ENCODER.writeSignedVarLong( result.getId().get() );
+        HEADER_ENCODER.writeString( result.getTag().toString() );
+        HEADER_ENCODER.writeSignedVarLong( result.getTime() );
+        HEADER_ENCODER.writeSignedVarLong( result.getDurationInMillis() );
+        HEADER_ENCODER.flush();
+
+        final int HEADER_LENGTH = HEADER.size();
+        final long TIMES_POS = getTimesPosition( HEADER_LENGTH );
+        final ByteBuffer PREAMBLE = ByteBuffer.allocate( (int) TIMES_POS )
+                                        .order( ByteOrder.LITTLE_ENDIAN );
+
+        PREAMBLE.put( MAGIC );
+        PREAMBLE.putInt( VERSION );
+        PREAMBLE.putInt( HEADER_LENGTH );
+        PREAMBLE.put( HEADER.toByteArray() );
+        PREAMBLE.putLong( NUM_BEATS );
+        out.write( PREAMBLE.array() );
+
+        // Columns, in chunks
+        final ByteBuffer CHUNK = ByteBuffer.allocate( 64 * 1024 ).order( ByteOrder.LITTLE_ENDIAN );
+
+        for (int i = 0; i < NUM_BEATS; ++i) {
+            if ( CHUNK.remaining() < Long.BYTES ) {
+                flushChunk( CHUNK, out );
+            }
+
+            CHUNK.putLong( result.timeAt( i ) );
+        }
+
+        for (int i = 0; i < NUM_BEATS; ++i) {
+            if ( CHUNK.remaining() < Integer.BYTES ) {
+                flushChunk( CHUNK, out );
+            }
+
+            // Results store rr's as ints, so they always fit
+            CHUNK.putInt( (int) result.rrAt( i ) );
+        }
+
+        flushChunk( CHUNK, out );
+        out.flush();
+    }
+
+    /** @return the id of the result. */
+    public Id getId()
+    {
+        return this.id;
+    }
+
+    /** @return the tag of the result. */
+    public Tag getTag()
+    {
+        return this.tag;
+    }
+
+    /** @return the date of the result. */
+    public long getTime()
+    {
+        return this.dateTime;
+    }
+
+    /** @return the duration in millis. */
+    public long getDurationInMillis()
+    {
+        return this.durationInMillis;
+    }
+
+    /** Creates a view of the beats in a span of time, read in place from the mapped file.
+      * @see Result#slice(long, long)
+      */
+    public ResultSlice slice(long fromMillis, long toMillis)
+    {
+        return ResultSlice.of( this, fromMillis, toMillis );
+    }
+
+    @Override
+    public int size()
+    {
+        return this.times.limit();
+    }
+
+    @Override
+    public long timeAt(int i)
+    {
+        return this.times.get( i );
+    }
+
+    @Override
+    public long rrAt(int i)
+    {
+        return this.rrs.get( i );
+    }
+
+    /** @return a read-only view of the times column, in millis. */
+    public LongBuffer getTimes()
+    {
+        return this.times.duplicate();
+    }
+
+    /** @return a read-only view of the rr column, in millis. */
+    public IntBuffer getRRs()
+    {
+        return this.rrs.duplicate();
+    }
+
+    /** @return a Result with the same data, copied into the heap. */
+    public Result toResult()
+    {
+        final long[] TIMES = new long[ this.size() ];
+        final int[] RRS = new int[ this.size() ];
+
+        this.getTimes().get( TIMES );
+        this.getRRs().get( RRS );
+
+        return new Result( this.tag, this.id, this.dateTime, this.durationInMillis, TIMES, RRS );
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.getId() + "@" + this.getTime() + ": " + this.getTag()
+                + " - " + this.size() + " beats (mapped)";
+    }
+
+    /** @return the position of the times column, after the count and aligned to 8 bytes. */
+    private static long getTimesPosition(int headerLength)
+    {
+        final long END_OF_COUNT = PREAMBLE_LENGTH + headerLength + Long.BYTES;
+
+        return ( END_OF_COUNT + 7 ) & ~7L;
+    }
+
+    /** @return a buffer with the given bytes of the channel, little-endian. */
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException
+    {
+        final ByteBuffer TORET = ByteBuffer.allocate( length ).order( ByteOrder.LITTLE_ENDIAN );
+
+        while ( TORET.hasRemaining() ) {
+            if ( channel.read( TORET, position + TORET.position() ) < 0 ) {
+                throw new EOFException( "Mapping result: unexpected end of file" );
+            }
+        }
+
+        TORET.flip();
+        return TORET;
+    }
+
+    private static void flushChunk(ByteBuffer chunk, OutputStream out) throws IOException
+    {
+        out.write( chunk.array(), 0, chunk.position() );
+        chunk.clear();
+    }
+
+    private final Id id;
+    private final Tag tag;
+    private final long dateTime;
+    private final long durationInMillis;
+    private final LongBuffer times;
+    private final IntBuffer rrs;
+}
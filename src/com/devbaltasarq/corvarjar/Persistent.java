@@ -8,14 +8,20 @@ import com.google.gson.stream.JsonReader;
 import com.google.gson.JsonParseException;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 
 
-/** Represents classes that can be stored and retrieved using JSON. */
+/** Represents classes that can be stored and retrieved using JSON, or binary. */
 public abstract class Persistent implements Identifiable {
     private static final String LOG_TAG = Persistent.class.getSimpleName();
 
+    /** The types of persistent objects.
+      * Their ordinals are stored in segments, so new types must be added at the end.
+      * @see SegmentStore
+      */
     public enum TypeId {
             Result;
 
@@ -108,6 +114,12 @@ public abstract class Persistent implements Identifiable {
      */
     public abstract void writeToJSON(JsonWriter jsonWriter) throws IOException;
 
+    /** Writes this object in its binary format, which load() reads back.
+      * @param out the stream to write to. It is flushed, but not closed.
+      * @throws IOException if the stream cannot be written.
+      */
+    public abstract void toBinary(OutputStream out) throws IOException;
+
     /** Writes the identification of the object to a json writer. */
     protected void writeIdToJSON(JsonWriter jsonWriter) throws IOException
     {
@@ -150,5 +162,13 @@ public abstract class Persistent implements Identifiable {
         return Result.fromJSON( reader );
     }
 
+    /** Loads an object from a stream, detecting whether it is JSON or binary.
+      * @see ResultFormat
+      */
+    public static Persistent load(TypeId id, InputStream in) throws IOException, JsonParseException
+    {
+        return Result.fromStream( in );
+    }
+
     private Id id;
 }
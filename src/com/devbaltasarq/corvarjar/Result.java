@@ -7,16 +7,18 @@ import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 import com.google.gson.JsonParseException;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.ArrayList;
 
 
 /** Represents the results of a given experiment. */
-public class Result extends Persistent {
+public class Result extends Persistent implements ResultData {
     private static final String FIELD_TAG = "tag";
     private static final String FIELD_TIME = "time";
     private static final String FIELD_DATE = "date";
@@ -30,6 +32,7 @@ public class Result extends Persistent {
 
 
     private static final String LOG_TAG = Result.class.getSimpleName();
+    private static final int BINARY_INITIAL_CAPACITY = 4096;
 
     public static class BeatEvent {
         public BeatEvent(long time, long rr)
@@ -53,10 +56,14 @@ public class Result extends Persistent {
     }
 
     public static class Builder {
+        private static final int INITIAL_CAPACITY = 1024;
+
         public Builder(long dateTime)
         {
             this.dateTime = dateTime;
-            this.rrs = new ArrayList<>();
+            this.times = new long[ INITIAL_CAPACITY ];
+            this.rrs = new int[ INITIAL_CAPACITY ];
+            this.size = 0;
         }
 
         /** Adds a new Event to the list.
@@ -64,7 +71,26 @@ public class Result extends Persistent {
           */
         public void add(BeatEvent beat)
         {
-            this.rrs.add( beat );
+            this.add( beat.getTime(), beat.getRR() );
+        }
+
+        /** Adds a new beat, without creating an event.
+          * @param time the time of the beat, in millis.
+          * @param rr the rr interval, in millis.
+          * @throws IllegalArgumentException if the rr does not fit in an int.
+          */
+        public void add(long time, long rr)
+        {
+            if ( this.size == this.times.length ) {
+                final int NEW_CAPACITY = this.times.length * 2;
+
+                this.times = Arrays.copyOf( this.times, NEW_CAPACITY );
+                this.rrs = Arrays.copyOf( this.rrs, NEW_CAPACITY );
+            }
+
+            this.times[ this.size ] = time;
+            this.rrs[ this.size ] = toRR( rr );
+            ++this.size;
         }
 
         /** Adds all the given events.
@@ -72,19 +98,29 @@ public class Result extends Persistent {
           */
         public void addAll(Collection<BeatEvent> beats)
         {
-            this.rrs.addAll( beats );
+            for(BeatEvent beat: beats) {
+                this.add( beat );
+            }
+
+            return;
         }
 
         /** Clears all the stored events. */
         public void clear()
         {
-            this.rrs.clear();
+            this.size = 0;
+        }
+
+        /** @return the number of beats stored up to this moment. */
+        public int size()
+        {
+            return this.size;
         }
 
         /** @return all stored hearbeats up to this moment. */
         public BeatEvent[] getAllRRs()
         {
-            return this.rrs.toArray( new BeatEvent[ 0 ] );
+            return toBeatEvents( this.times, this.rrs, this.size );
         }
 
         public Result build(long elapsedMillis)
@@ -98,33 +134,50 @@ public class Result extends Persistent {
           * @see Result
           */
         public Result build(Tag tag, long elapsedMillis)
+        {
+            return this.build( tag, Id.create(), this.dateTime, elapsedMillis );
+        }
+
+        /** @return a Result with the current data, and the given properties. */
+        Result build(Tag tag, Id id, long dateTime, long elapsedMillis)
         {
             return new Result(
                             tag,
-                            Id.create(),
-                            this.dateTime,
+                            id,
+                            dateTime,
                             elapsedMillis,
-                            this.rrs.toArray( new BeatEvent[ 0 ]) );
+                            Arrays.copyOf( this.times, this.size ),
+                            Arrays.copyOf( this.rrs, this.size ) );
         }
 
         private long dateTime;
-        private ArrayList<BeatEvent> rrs;
+        private long[] times;
+        private int[] rrs;
+        private int size;
     }
 
 
     /** Creates a new Result, in which the events of the experiment will be stored.
+     * Beats are stored in two parallel columns, which are not copied.
      * @param tag  the tag for the result.
      * @param id   the id of the result.
      * @param dateTime the moment (in millis) this experiment was collected.
-     * @param rrs the collection of time/rr's pairs.
+     * @param times the times of the beats.
+     * @param rrs the rr's of the beats, same length as times.
      */
-    private Result(Tag tag, Id id, long dateTime, long durationInMillis, BeatEvent[] rrs)
+    Result(Tag tag, Id id, long dateTime, long durationInMillis, long[] times, int[] rrs)
     {
         super( id );
 
+        if ( times.length != rrs.length ) {
+            throw new IllegalArgumentException( "columns of different length: "
+                                                + times.length + " != " + rrs.length );
+        }
+
         this.tag = tag;
         this.durationInMillis = durationInMillis;
         this.dateTime = dateTime;
+        this.times = times;
         this.rrs = rrs;
     }
 
@@ -148,7 +201,7 @@ public class Result extends Persistent {
     {
         return ( 11 * this.getId().hashCode() )
                 + Long.valueOf( 13 * this.getDurationInMillis() ).hashCode()
-                + ( 17 * this.rrs.length )
+                + ( 17 * this.size() )
                 + ( 23 * this.getTag().hashCode() );
     }
 
@@ -160,29 +213,55 @@ public class Result extends Persistent {
         if ( o instanceof Result ) {
             Result ro = (Result) o;
 
-            if ( this.getTag().equals( ro.getTag() )
-              && this.getDurationInMillis() == ro.getDurationInMillis()
-              && this.rrs.length == ro.rrs.length )
-            {
-                toret = true;
-
-                for(int i = 0; i < this.rrs.length; ++i) {
-                    if ( this.rrs[ i ] != ro.rrs[ i ] ) {
-                        toret = false;
-                        break;
-                    }
-                }
-
-            }
+            toret = this.getTag().equals( ro.getTag() )
+                 && this.getDurationInMillis() == ro.getDurationInMillis()
+                 && Arrays.equals( this.times, ro.times )
+                 && Arrays.equals( this.rrs, ro.rrs );
         }
 
         return toret;
     }
 
-    /** @return all rr's in this result. Warning: the list can be huge. */
+    /** @return all rr's in this result, as events created for the occasion.
+      * Warning: the list can be huge. Prefer timeAt(), rrAt() or the copy methods.
+      */
     public BeatEvent[] getRRsCopy()
     {
-        return Arrays.copyOf( this.rrs, this.rrs.length );
+        return toBeatEvents( this.times, this.rrs, this.rrs.length );
+    }
+
+    /** Copies the times of some beats into a buffer.
+      * @param from the position of the first beat.
+      * @param dest the buffer to copy to.
+      * @param destPos the position in the buffer.
+      * @param length the number of beats.
+      */
+    public void copyTimes(int from, long[] dest, int destPos, int length)
+    {
+        System.arraycopy( this.times, from, dest, destPos, length );
+    }
+
+    /** Copies the rr's of some beats into a buffer.
+      * @param from the position of the first beat.
+      * @param dest the buffer to copy to.
+      * @param destPos the position in the buffer.
+      * @param length the number of beats.
+      */
+    public void copyRRs(int from, int[] dest, int destPos, int length)
+    {
+        System.arraycopy( this.rrs, from, dest, destPos, length );
+    }
+
+    /** Creates a view of the beats in a span of time, without copying them.
+      * For example, the last five minutes are slice( getDurationInMillis() - 5 * 60 * 1000, Long.MAX_VALUE ).
+      * @param fromMillis the start of the span, since the start of the result, included.
+      * @param toMillis the end of the span, since the start of the result, excluded.
+      * @return a view of the beats in the span, found by binary search on their times.
+      * @see ResultSlice
+      */
+    public ResultSlice slice(long fromMillis, long toMillis)
+    {
+        return ResultSlice.of( this, fromMillis, toMillis );
     }
 
     /** Creates the standard pair of text files, one for heatbeats,
@@ -191,8 +270,8 @@ public class Result extends Persistent {
     public void exportToStdTextFormat(Writer beatsStream) throws IOException
     {
         // Run all over the rr's and scatter them on files
-        for (BeatEvent rr : this.rrs) {
-            beatsStream.write( Long.toString( rr.getRR() ) );
+        for (int rr : this.rrs) {
+            beatsStream.write( Integer.toString( rr ) );
             beatsStream.write( '\n' );
         }
 
@@ -200,11 +279,24 @@ public class Result extends Persistent {
     }
 
     /** @return the number of rr's stored. */
+    @Override
     public int size()
     {
         return this.rrs.length;
     }
 
+    @Override
+    public long timeAt(int i)
+    {
+        return this.times[ i ];
+    }
+
+    @Override
+    public long rrAt(int i)
+    {
+        return this.rrs[ i ];
+    }
+
     public String getResultFileName()
     {
         return buildResultFileName( this );
@@ -232,10 +324,10 @@ public class Result extends Persistent {
         jsonWriter.name( FIELD_TIME ).value( this.getDurationInMillis() );
 
         jsonWriter.name( FIELD_RRS ).beginArray();
-        for(BeatEvent rr: this.rrs) {
+        for(int i = 0; i < this.rrs.length; ++i) {
             jsonWriter.beginObject();
-            jsonWriter.name( FIELD_RR ).value( rr.getRR() );
-            jsonWriter.name( FIELD_TIME ).value( rr.getTime() );
+            jsonWriter.name( FIELD_RR ).value( this.rrs[ i ] );
+            jsonWriter.name( FIELD_TIME ).value( this.times[ i ] );
             jsonWriter.endObject();
         }
 
@@ -245,7 +337,7 @@ public class Result extends Persistent {
     public static Result fromJSON(Reader reader) throws JsonParseException
     {
         final JsonReader JSON_READER = new JsonReader( reader );
-        final ArrayList<BeatEvent> RRS = new ArrayList<>();
+        final Builder BEATS = new Builder( -1L );
         Result toret;
         long durationInMillis = -1L;
         TypeId typeId = null;
@@ -320,10 +412,11 @@ public class Result extends Persistent {
                         if ( time >= 0
                           && rr >= 0 )
                         {
-                            RRS.add( new BeatEvent( time, rr ) );
+                            BEATS.add( time, rr );
                         } else {
-                            Log.i( LOG_TAG,"ignored entry with no rr, even_type: "
-                                    + eventType );
+                            final String EVENT_TYPE = eventType;
+                            Log.i( LOG_TAG, () -> "ignored entry with no rr, even_type: "
+                                                  + EVENT_TYPE );
                         }
                     }
 
@@ -332,7 +425,7 @@ public class Result extends Persistent {
                     JSON_READER.skipValue();
                 }
             }
-        } catch(IOException exc)
+        } catch(IOException | IllegalArgumentException exc)
         {
             final String ERROR_MSG = "Creating result from JSON: " + exc.getMessage();
 
@@ -351,20 +444,178 @@ public class Result extends Persistent {
             Log.e(LOG_TAG, MSG );
             throw new JsonParseException( MSG );
         } else {
-            toret = new Result( tag,
-                                id,
-                                dateTime,
-                                durationInMillis,
-                                RRS.toArray( new BeatEvent[ 0 ] ) );
+            toret = BEATS.build( tag, id, dateTime, durationInMillis );
         }
 
         return toret;
     }
 
+    /** Writes this result in the compact binary format.
+      * After the header, times and rr's are stored as two columns of differences
+      * with the previous value, as zig-zag varints: most beats take two bytes each.
+      * @param out the stream to write to. It is flushed, but not closed.
+      * @throws IOException if the stream cannot be written.
+      * @see ResultFormat#BINARY
+      */
+    @Override
+    public void toBinary(OutputStream out) throws IOException
+    {
+        final BinaryFormat.Encoder ENCODER = new BinaryFormat.Encoder( out );
+        long last;
+
+        ENCODER.writeBytes( BinaryFormat.MAGIC );
+        ENCODER.writeVarLong( BinaryFormat.VERSION );
+        ENCODER.writeString( this.getTypeId().toString() );
+        ENCODER.writeSignedVarLong( this.getId().get() );
+        ENCODER.writeString( this.getTag().toString() );
+        ENCODER.writeSignedVarLong( this.getTime() );
+        ENCODER.writeSignedVarLong( this.getDurationInMillis() );
+        ENCODER.writeVarLong( this.rrs.length );
+
+        last = 0;
+        for(long time: this.times) {
+            ENCODER.writeSignedVarLong( time - last );
+            last = time;
+        }
+
+        last = 0;
+        for(int rr: this.rrs) {
+            ENCODER.writeSignedVarLong( rr - last );
+            last = rr;
+        }
+
+        ENCODER.flush();
+    }
+
+    /** Reads a result in the compact binary format.
+      * @param in the stream to read from.
+      * @return the result read.
+      * @throws IOException if the stream cannot be read, or the data is not valid.
+      * @see Result#toBinary(OutputStream)
+      */
+    public static Result fromBinary(InputStream in) throws IOException
+    {
+        final BinaryFormat.Decoder DECODER = new BinaryFormat.Decoder( in );
+        final byte[] MAGIC = new byte[ BinaryFormat.MAGIC.length ];
+
+        DECODER.readBytes( MAGIC );
+
+        if ( !Arrays.equals( MAGIC, BinaryFormat.MAGIC ) ) {
+            throw new IOException( "Creating result from binary: not a binary result" );
+        }
+
+        final long VERSION = DECODER.readVarLong();
+
+        if ( VERSION != BinaryFormat.VERSION ) {
+            throw new IOException( "Creating result from binary: unsupported version: " + VERSION );
+        }
+
+        try {
+            if ( TypeId.parse( DECODER.readString() ) != TypeId.Result ) {
+                throw new IOException( "Creating result from binary: not a result" );
+            }
+        } catch(IllegalArgumentException exc) {
+            throw new IOException( "Creating result from binary: " + exc.getMessage() );
+        }
+
+        final Id ID = new Id( DECODER.readSignedVarLong() );
+        final Tag TAG = new Tag( DECODER.readString() );
+        final long DATE_TIME = DECODER.readSignedVarLong();
+        final long DURATION_IN_MILLIS = DECODER.readSignedVarLong();
+        final int NUM_BEATS = DECODER.readLength( Integer.MAX_VALUE - 8 );
+        long[] times = new long[ Math.min( NUM_BEATS, BINARY_INITIAL_CAPACITY ) ];
+        long last;
+
+        // The count is not trusted: times grow as they are read,
+        // so corrupt data ends in an IOException, instead of a huge allocation
+        last = 0;
+        for (int i = 0; i < NUM_BEATS; ++i) {
+            if ( i == times.length ) {
+                times = Arrays.copyOf( times, (int) Math.min( NUM_BEATS, times.length * 2L ) );
+            }
+
+            last += DECODER.readSignedVarLong();
+            times[ i ] = last;
+        }
+
+        // Each time took at least a byte, so the rr's are known to be there
+        final long[] TIMES = times;
+        final int[] RRS = new int[ NUM_BEATS ];
+
+        last = 0;
+        for (int i = 0; i < NUM_BEATS; ++i) {
+            last += DECODER.readSignedVarLong();
+
+            try {
+                RRS[ i ] = toRR( last );
+            } catch(IllegalArgumentException exc) {
+                throw new IOException( "Creating result from binary: " + exc.getMessage() );
+            }
+        }
+
+        return new Result( TAG, ID, DATE_TIME, DURATION_IN_MILLIS, TIMES, RRS );
+    }
+
+    /** Reads a result in any format, detecting it automatically.
+      * @param in the stream to read from.
+      * @return the result read.
+      * @throws IOException if the stream cannot be read, or the binary data is not valid.
+      * @throws JsonParseException if the JSON data is not valid.
+      * @see ResultFormat
+      */
+    public static Result fromStream(InputStream in) throws IOException, JsonParseException
+    {
+        final Result toret;
+
+        if ( !in.markSupported() ) {
+            in = new BufferedInputStream( in );
+        }
+
+        final ResultFormat FORMAT = ResultFormat.detect( in );
+
+        if ( FORMAT == ResultFormat.BINARY ) {
+            toret = fromBinary( in );
+        }
+        else
+        if ( FORMAT == ResultFormat.COLUMNAR ) {
+            throw new IOException( "Creating result from stream: columnar results must be mapped" );
+        } else {
+            toret = ResultJsonParser.parse( in );
+        }
+
+        return toret;
+    }
+
+    /** @return the rr as an int, which is how it is stored.
+      * @throws IllegalArgumentException if it does not fit.
+      */
+    static int toRR(long rr)
+    {
+        if ( rr < Integer.MIN_VALUE
+          || rr > Integer.MAX_VALUE )
+        {
+            throw new IllegalArgumentException( "rr out of range: " + rr );
+        }
+
+        return (int) rr;
+    }
+
+    /** @return events for the given columns. */
+    private static BeatEvent[] toBeatEvents(long[] times, int[] rrs, int length)
+    {
+        final BeatEvent[] TORET = new BeatEvent[ length ];
+
+        for (int i = 0; i < length; ++i) {
+            TORET[ i ] = new BeatEvent( times[ i ], rrs[ i ] );
+        }
+
+        return TORET;
+    }
+
     /** Creates the result name. This name contains important info.
       * @param res The result to build a name for.
       */
-    static String buildResultFileName(Result res)
+    static String buildResultFileName(ResultData res)
     {
         return TypeId.Result.toString().toLowerCase()
                 + "-i" + res.getId()
@@ -431,5 +682,6 @@ public class Result extends Persistent {
     private Tag tag;
     private long durationInMillis;
     private long dateTime;
-    private BeatEvent[] rrs;
+    private long[] times;
+    private int[] rrs;
 }
@@ -5,22 +5,20 @@ package com.devbaltasarq.corvarjar;
 
 import com.google.gson.JsonParseException;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Locale;
-import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
 public class ResultAnalyzer {
     private static String LOG_TAG = ResultAnalyzer.class.getSimpleName();
-    
+    private static final String LOG_TAG_SPEC = LOG_TAG + ".Spec";
+
     // Stress level calculation constants
     private static final float STRESS_LEVEL_A1 = -8.64502f;
     private static final float STRESS_LEVEL_A2 = -0.01312f;
@@ -28,10 +26,73 @@ public class ResultAnalyzer {
     private static final float STRESS_LEVEL_A4 = -0.01223f;
     private static final float STRESS_LEVEL_INDEPENDENT_TERM = 5.97785f;
 
+    // Spectrum calculation constants
+    private static final int NUM_WINDOWS = 5;
+    private static final int MIN_PARALLEL_SEGMENT_LENGTH = 2048;
+
+    // Stages of the analysis, as bits, to know which ones are already calculated
+    private static final int STAGE_LOADED = 1;
+    private static final int STAGE_SIGNAL = 1 << 1;
+    private static final int STAGE_INTERPOLATION = 1 << 2;
+    private static final int STAGE_TIME_STATS = 1 << 3;
+    private static final int STAGE_MADRR = 1 << 4;
+    private static final int STAGE_APEN = 1 << 5;
+    private static final int STAGE_STRESS = 1 << 6;
+    private static final int STAGE_SPECTRUM = 1 << 7;
+
     public ResultAnalyzer(String fileName)
+    {
+        this( fileName, null );
+    }
+
+    /** Creates an analyzer for a result already loaded, which is not read again.
+      * The beats of a mapped result are read in place, but the analysis still keeps
+      * the signal, filtered and interpolated, in several arrays as long as the result,
+      * so the heap grows with it. For bounded memory, use LongRecordingAnalyzer.
+      * @param result the result to analyze, in the heap or mapped.
+      * @see LongRecordingAnalyzer
+      */
+    public ResultAnalyzer(ResultData result)
+    {
+        this( Result.buildResultFileName( result ), result );
+    }
+
+    /** Creates an analyzer with no data, to be given with reuse(String, ResultData).
+      * @param config the configuration of the analyses.
+      * @see AnalysisEngine
+      */
+    ResultAnalyzer(AnalysisConfig config)
+    {
+        this( null, null );
+        this.setConfig( config );
+    }
+
+    private ResultAnalyzer(String fileName, ResultData result)
     {
         this.fileName = fileName;
+        this.result = result;
+        this.preloaded = ( result != null );
         this.log = null;
+        this.config = AnalysisConfig.DEFAULT;
+
+        this.dataRRnf = new float[ 0 ];
+        this.dataHRnf = new float[ 0 ];
+        this.dataBeatTimesnf = new float[ 0 ];
+        this.dataRR = new float[ 0 ];
+        this.dataHR = new float[ 0 ];
+        this.dataHRInterpX = new float[ 0 ];
+        this.dataHRInterp = new float[ 0 ];
+        this.difsRR = new float[ 0 ];
+        this.paddedX = new double[ 0 ];
+        this.paddedY = new double[ 0 ];
+        this.spectrumAvg = new float[ 0 ];
+        this.spectrumAxis = new float[ 0 ];
+        this.apEn = new ApproximateEntropy();
+        this.timeStats = new TimeDomainStatistics();
+        this.beatFilter = this.config.createBeatFilter();
+        this.spectrumPool = null;
+        this.windowsRe = new double[ NUM_WINDOWS ][ 0 ];
+        this.windowsIm = new double[ NUM_WINDOWS ][ 0 ];
     }
 
     public boolean isVerbose()
@@ -44,224 +105,494 @@ public class ResultAnalyzer {
         this.log = log;
     }
 
+    /** @return the pool the spectrum windows are calculated in, or null if serial. */
+    public ForkJoinPool getSpectrumPool()
+    {
+        return this.spectrumPool;
+    }
+
+    /** Makes the windows of the spectrum to be calculated in parallel, for long recordings.
+      * The result is exactly the same as calculating them one after another.
+      * @param spectrumPool the pool to use, e.g. ForkJoinPool.commonPool(), or null for serial.
+      */
+    public void setSpectrumPool(ForkJoinPool spectrumPool)
+    {
+        this.spectrumPool = spectrumPool;
+    }
+
+    /** @return the configuration of the analysis. */
+    public AnalysisConfig getConfig()
+    {
+        return this.config;
+    }
+
+    /** Changes the configuration of the analysis.
+      * The filter is replaced by a new one, with the thresholds of the configuration.
+      * @param config the new configuration.
+      */
+    public void setConfig(AnalysisConfig config)
+    {
+        this.config = config;
+        this.beatFilter = config.createBeatFilter();
+    }
+
+    /** @return the filter used to remove artifacts from the signal. */
+    public BeatFilter getBeatFilter()
+    {
+        return this.beatFilter;
+    }
+
+    /** Changes the filter used to remove artifacts from the signal.
+      * @param beatFilter the new filter.
+      */
+    public void setBeatFilter(BeatFilter beatFilter)
+    {
+        this.beatFilter = beatFilter;
+    }
+
+    /** @return the listener for the timings and counters of each stage, or null. */
+    public AnalysisMetrics getMetrics()
+    {
+        return this.metrics;
+    }
+
+    /** Changes the listener for the timings and counters of each stage.
+      * @param metrics the new listener, or null for none.
+      */
+    public void setMetrics(AnalysisMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    /** @return true if metrics are calculated only when first asked for. */
+    public boolean isLazy()
+    {
+        return this.lazy;
+    }
+
+    /** Changes whether metrics are calculated all in analyze(), or on demand.
+      * In lazy mode, analyze() only loads the data, and each stage is calculated,
+      * along with the stages it depends on, the first time one of its values is read.
+      * Values are the same in both modes.
+      * @param lazy true for calculating on demand, false for calculating everything.
+      */
+    public void setLazy(boolean lazy)
+    {
+        this.lazy = lazy;
+    }
+
     public void analyze()
     {
+        this.error = null;
+        this.report = null;
+        this.stages = 0;
+
         try {
-            this.load( this.fileName );
+            if ( !this.preloaded ) {
+                this.load( this.fileName );
+            }
 
-            this.report = this.createHeader();
+            // Loads data into dataRRnf (unfiltered RR in milliseconds)
+            this.loadDataOnArrays();
+            this.stages = STAGE_LOADED;
 
-            // Loads data into dataRRnf and episodes (unfiltered RR in milliseconds)
-            this.dataRRnf = new ArrayList<>();
+            if ( !this.isLazy() ) {
+                this.ensureReport();
+            }
+        } catch(IOException | JsonParseException exc)
+        {
+            this.error = exc;
+            this.report = "Error reading result for file: " + fileName + ": " + exc.getMessage();
+        }
+    }
 
-            this.loadDataOnLists();
+    /** Makes this analyzer analyze another result, keeping its scratch buffers.
+      * @param fileName the name of the .res file, read in analyze() if result is null.
+      * @param result the result to analyze, already loaded, or null.
+      *               Both null just drop the current result.
+      */
+    void reuse(String fileName, ResultData result)
+    {
+        this.fileName = fileName;
+        this.result = result;
+        this.preloaded = ( result != null );
+        this.error = null;
+        this.report = null;
+        this.stages = 0;
+        this.dataLength = 0;
+
+        // No stage runs for an empty result, so values must be the ones of a new analyzer
+        this.filteredData = 0;
+        this.valueStress = 0;
+        this.valueApEn = 0;
+        this.valueMADRR = 0;
+        this.valueSTD = 0;
+        this.valueRMS = 0;
+        this.valueMeanBPM = 0;
+        this.valuePNN50 = 0;
+        this.valueNormHRV = 0;
+        this.valueTotalPower = 0;
+        this.valueLFPower = 0;
+        this.valueHFPower = 0;
+        this.valueLFHFRatio = 0;
+    }
 
-            if ( this.dataRRnf.size() > 0 ) {
-                // Generates dataHRnf (unfiltered sequence of BPS values)
-                dataHRnf = new ArrayList<>();
+    /** Marks a stage as calculated, if it can and must be calculated now.
+      * @param stage the stage to check.
+      * @return true if there is data, and the stage was not calculated yet.
+      */
+    private boolean startStage(int stage)
+    {
+        final boolean TORET = ( this.stages & STAGE_LOADED ) != 0
+                            && ( this.stages & stage ) == 0
+                            && this.dataLength > 0;
 
-                for (int i = 0; i< dataRRnf.size(); i++) {
-                    dataHRnf.add( 60.0f / ( dataRRnf.get(i) / 1000.0f ) );
-                }
+        if ( TORET ) {
+            this.stages |= stage;
+        }
 
-                if ( this.isVerbose() ) {
-                    this.dumpList( this.dataHRnf, log, "Unfiltered hr" );
-                }
+        return TORET;
+    }
 
-                // Calculates dataBeatTimesnf (unfiltered beat positions in seconds) from dataRRnf
-                dataBeatTimesnf = new ArrayList<>();
-                dataBeatTimesnf.add(dataRRnf.get(0)/1000.0f);
-                for (int i=1; i<dataRRnf.size(); i++) {
-                    dataBeatTimesnf.add(dataBeatTimesnf.get(i-1)+dataRRnf.get(i)/1000.0f);
-                }
+    /** @return the current time in nanoseconds, or 0 if there is no listener for the metrics. */
+    private long startTiming()
+    {
+        return this.metrics != null ? System.nanoTime() : 0;
+    }
 
-                // Filters beat times creating a sequence of RR intervals
-                dataBeatTimes = new ArrayList<>(dataBeatTimesnf);
-                dataHR = new ArrayList<>(dataHRnf);
-                dataRR = new ArrayList<>(dataRRnf);
-                this.filterData();
+    /** Tells the listener for the metrics, if any, the time spent in a stage.
+      * @param stage the stage that finished.
+      * @param timeStart the value of startTiming() when the stage started.
+      */
+    private void endTiming(AnalysisMetrics.Stage stage, long timeStart)
+    {
+        if ( this.metrics != null ) {
+            this.metrics.onStage( stage, System.nanoTime() - timeStart );
+        }
 
+        return;
+    }
 
-                Log.i( LOG_TAG,"Filtered sequence: " + dataBeatTimes.size() +" values" );
-                Log.i( LOG_TAG,"Last beat position: "
-                                + dataBeatTimes.get( dataBeatTimes.size() - 1 ) + " seconds" );
+    /** Tells the listener for the metrics, if any, a value counted. */
+    private void count(AnalysisMetrics.Counter counter, long value)
+    {
+        if ( this.metrics != null ) {
+            this.metrics.onCount( counter, value );
+        }
 
-                // Creates a series of HR values linearly interpolated
-                dataHRInterpX = new ArrayList<>();
-                dataHRInterp = new ArrayList<>();
-                this.interpolate();
+        return;
+    }
 
-                Log.i( LOG_TAG,"length of xinterp: "+ dataHRInterpX.size());
-                Log.i( LOG_TAG,"First value: "+ dataHRInterpX.get( 0 ) );
-                Log.i( LOG_TAG,"Last value: "+ dataHRInterpX.get( dataHRInterpX.size() - 1 ) );
+    /** Calculates the unfiltered hr, the beat times, and the filtered rr and hr. */
+    private void ensureSignal()
+    {
+        if ( this.startStage( STAGE_SIGNAL ) ) {
+            final long TIME_START = this.startTiming();
+            final int LENGTH = this.dataLength;
 
-                if( this.isVerbose() ) {
-                    this.dumpList( this.dataRR, log, "Normalized rr" );
-                    this.dumpList( this.dataHR, log, "Normalized hr" );
-                }
+            // Generates dataHRnf (unfiltered sequence of BPS values)
+            this.dataHRnf = ensureCapacity( this.dataHRnf, LENGTH );
 
-                // Calculate stress level
-                this.valueRMS = this.calculateRMSSD( this.dataRR );
-                this.valueSTD = this.calculateSTD( this.dataRR );
-                this.valuePNN50 = this.calculatePNN50( this.dataRR );
-                this.valueMeanBPM = this.calculateMean( this.dataHR );
+            for (int i = 0; i < LENGTH; ++i) {
+                this.dataHRnf[ i ] = 60.0f / ( this.dataRRnf[ i ] / 1000.0f );
+            }
 
-                // Calculate the median
-                this.valueMADRR = this.calculateMADRR( this.dataRR );
+            if ( this.isVerbose() ) {
+                this.dumpList( this.dataHRnf, LENGTH, log, "Unfiltered hr" );
+            }
 
-                // Calculate the entropy
-                this.valueApEn = this.calculateApEn( this.dataRR, 2, 0.2f );
+            // Calculates dataBeatTimesnf (unfiltered beat positions in seconds) from dataRRnf
+            this.dataBeatTimesnf = ensureCapacity( this.dataBeatTimesnf, LENGTH );
+            this.dataBeatTimesnf[ 0 ] = this.dataRRnf[ 0 ] / 1000.0f;
 
-                // Calculate stress level
-                this.calculateStress();
+            for (int i = 1; i < LENGTH; ++i) {
+                this.dataBeatTimesnf[ i ] = this.dataBeatTimesnf[ i - 1 ]
+                                            + this.dataRRnf[ i ] / 1000.0f;
+            }
 
-                // Summarizes all the results
-                this.report += this.createReport();
-            } else {
-                this.report += "Empty data.";
+            // Filters beat times creating a sequence of RR intervals.
+            // Beat times are never modified by the filter, so they are shared.
+            this.dataBeatTimes = this.dataBeatTimesnf;
+            this.dataHR = ensureCapacity( this.dataHR, LENGTH );
+            this.dataRR = ensureCapacity( this.dataRR, LENGTH );
+            System.arraycopy( this.dataHRnf, 0, this.dataHR, 0, LENGTH );
+            System.arraycopy( this.dataRRnf, 0, this.dataRR, 0, LENGTH );
+            this.filterData();
+
+            Log.i( LOG_TAG, () -> "Filtered sequence: " + LENGTH +" values" );
+            Log.i( LOG_TAG, () -> "Last beat position: "
+                            + this.dataBeatTimes[ LENGTH - 1 ] + " seconds" );
+
+            if( this.isVerbose() ) {
+                this.dumpList( this.dataRR, LENGTH, log, "Normalized rr" );
+                this.dumpList( this.dataHR, LENGTH, log, "Normalized hr" );
             }
-        } catch(IOException | JsonParseException exc)
+
+            this.endTiming( AnalysisMetrics.Stage.FILTER, TIME_START );
+            this.count( AnalysisMetrics.Counter.BEATS_REJECTED, this.filteredData );
+        }
+
+        return;
+    }
+
+    /** Creates a series of HR values linearly interpolated. */
+    private void ensureInterpolation()
+    {
+        this.ensureSignal();
+
+        if ( this.startStage( STAGE_INTERPOLATION ) ) {
+            final long TIME_START = this.startTiming();
+
+            this.interpolate();
+            this.endTiming( AnalysisMetrics.Stage.INTERPOLATE, TIME_START );
+            this.count( AnalysisMetrics.Counter.INTERPOLATED_SAMPLES, this.interpLength );
+
+            Log.i( LOG_TAG, () -> "length of xinterp: " + this.interpLength );
+            Log.i( LOG_TAG, () -> "First value: " + this.dataHRInterpX[ 0 ] );
+            Log.i( LOG_TAG, () -> "Last value: " + this.dataHRInterpX[ this.interpLength - 1 ] );
+        }
+
+        return;
+    }
+
+    /** Calculates time-domain statistics, in a single pass. */
+    private void ensureTimeStats()
+    {
+        this.ensureSignal();
+
+        if ( this.startStage( STAGE_TIME_STATS ) ) {
+            final long TIME_START = this.startTiming();
+            final int LENGTH = this.dataLength;
+
+            this.timeStats.reset();
+
+            for (int i = 0; i < LENGTH; ++i) {
+                this.timeStats.add( this.dataRR[ i ], this.dataHR[ i ] );
+            }
+
+            this.valueRMS = this.timeStats.getRMSSD();
+            this.valueSTD = this.timeStats.getSDNN();
+            this.valuePNN50 = this.timeStats.getPNN50();
+            this.valueMeanBPM = this.timeStats.getMeanHR();
+            this.valueNormHRV = this.timeStats.getNormHRV();
+            this.endTiming( AnalysisMetrics.Stage.TIME_STATS, TIME_START );
+        }
+
+        return;
+    }
+
+    /** Calculates the median. */
+    private void ensureMadRR()
+    {
+        this.ensureSignal();
+
+        if ( this.startStage( STAGE_MADRR ) ) {
+            final long TIME_START = this.startTiming();
+
+            this.valueMADRR = this.calculateMADRR( this.dataRR, this.dataLength );
+            this.endTiming( AnalysisMetrics.Stage.MADRR, TIME_START );
+        }
+
+        return;
+    }
+
+    /** Calculates the entropy, which needs the standard deviation. */
+    private void ensureApEn()
+    {
+        this.ensureTimeStats();
+
+        if ( this.startStage( STAGE_APEN ) ) {
+            final long TIME_START = this.startTiming();
+
+            this.valueApEn = this.calculateApEn( this.dataRR, this.dataLength,
+                                     this.config.getApEnM(), this.config.getApEnR() );
+            this.endTiming( AnalysisMetrics.Stage.APEN, TIME_START );
+        }
+
+        return;
+    }
+
+    /** Calculates the stress level, and all values it depends on. */
+    private void ensureStress()
+    {
+        this.ensureMadRR();
+        this.ensureApEn();
+
+        if ( this.startStage( STAGE_STRESS ) ) {
+            final long TIME_START = this.startTiming();
+
+            this.calculateStress();
+            this.endTiming( AnalysisMetrics.Stage.STRESS, TIME_START );
+        }
+
+        return;
+    }
+
+    /** Calculates the power bands of the spectrum. */
+    private void ensureSpectrum()
+    {
+        this.ensureInterpolation();
+
+        if ( this.startStage( STAGE_SPECTRUM ) ) {
+            final long TIME_START = this.startTiming();
+            final float[] POWER_BANDS = this.calculateSpectrum(
+                                            this.dataHRInterpX[ 0 ],
+                                            this.dataHRInterpX[ this.interpLength - 1 ] );
+
+            this.valueTotalPower = POWER_BANDS[ 0 ];
+            this.valueLFPower = POWER_BANDS[ 1 ];
+            this.valueHFPower = POWER_BANDS[ 2 ];
+            this.valueLFHFRatio = POWER_BANDS[ 3 ];
+            this.endTiming( AnalysisMetrics.Stage.SPECTRUM, TIME_START );
+        }
+
+        return;
+    }
+
+    /** Summarizes all the results, calculating all stages. */
+    private void ensureReport()
+    {
+        if ( this.report == null
+          && ( this.stages & STAGE_LOADED ) != 0 )
         {
-            this.report = "Error reading result for file: " + fileName + ": " + exc.getMessage();
+            String report = this.createHeader();
+
+            if ( this.dataLength > 0 ) {
+                this.ensureInterpolation();
+                this.ensureStress();
+                this.ensureSpectrum();
+
+                final long TIME_START = this.startTiming();
+                report += this.createReport();
+                this.endTiming( AnalysisMetrics.Stage.REPORT, TIME_START );
+            } else {
+                report += "Empty data.";
+            }
+
+            this.report = report;
         }
+
+        return;
     }
 
     private void load(String fileName) throws IOException, JsonParseException
     {
+        final long TIME_START = this.startTiming();
 
-        try (FileInputStream fileInputStream = new FileInputStream(fileName);
-             InputStreamReader inputStreamReader = new InputStreamReader(
-                     fileInputStream,
-                     StandardCharsets.UTF_8.newDecoder() );
-             BufferedReader bufferedReader = new BufferedReader( inputStreamReader ))
-        {
-            this.result = Result.fromJSON( bufferedReader );
+        try {
+            this.result = ResultFormat.read( new File( fileName ) );
+            this.endTiming( AnalysisMetrics.Stage.LOAD, TIME_START );
         } catch (IOException | JsonParseException exc) {
-            Log.e(LOG_TAG, "Error reading result for file: " + fileName + " " + exc.getMessage());
+            Log.e( LOG_TAG, () -> "Error reading result for file: " + fileName + " " + exc.getMessage() );
             throw exc;
         }
     }
 
-    private void loadDataOnLists()
+    private void loadDataOnArrays()
     {
+        final long TIME_START = this.startTiming();
+        final BeatColumns BEATS = this.result;
+
         // Init data holders
-        this.dataRRnf = new ArrayList<>( result.size() );
+        this.dataLength = BEATS.size();
+        this.dataRRnf = ensureCapacity( this.dataRRnf, this.dataLength );
 
-        // Store all data
-        for(Result.BeatEvent evt: this.result.getRRsCopy()) {
-            this.dataRRnf.add( (float) evt.getRR() );
+        // Store all data, reading the rr column in place: the stages need it in the heap
+        for(int i = 0; i < this.dataLength; ++i) {
+            this.dataRRnf[ i ] = (float) BEATS.rrAt( i );
         }
 
         if ( this.isVerbose() ) {
-            this.dumpList( this.dataRRnf, log, "Unfiltered rr" );
-            Log.i( LOG_TAG,"Size of vector: " + this.dataRRnf.size() );
+            this.dumpList( this.dataRRnf, this.dataLength, log, "Unfiltered rr" );
+            Log.i( LOG_TAG, () -> "Size of vector: " + this.dataLength );
         }
 
+        this.endTiming( AnalysisMetrics.Stage.PARSE, TIME_START );
+        this.count( AnalysisMetrics.Counter.BEATS_PARSED, this.dataLength );
         return;
     }
 
     private void filterData()
     {
-        final int WIN_LENGTH = 50;
-        final float MIN_BPM = 24.0f;
-        final float MAX_BPM = 198.0f;
-        final float U_LAST = 13.0f;
-        final float U_MEAN = 1.5f * U_LAST;
-
         Log.i( LOG_TAG,"I'm going to filter the signal" );
 
-        int index = 1;
-
-        this.filteredData = 0;
-
-        while ( index < ( dataHR.size() - 1 ) ) {
-            List<Float> v = dataHR.subList( Math.max( index-WIN_LENGTH, 0 ),index );
-
-            float MEAN_LAST_BEATS = 0.0f;  // M = mean(v)
-            for (int i = 0 ; i < v.size(); i++) {
-                MEAN_LAST_BEATS += v.get( i );
-            }
-            MEAN_LAST_BEATS = MEAN_LAST_BEATS / v.size();
-
-            final float CURRENT_BEAT = this.dataHR.get( index );
-            final float PREVIOUS_BEAT = this.dataHR.get( index - 1 );
-            final float NEXT_BEAT = this.dataHR.get( index + 1 );
-            final float RELATION_PREVIOUS_BEAT = 100
-                    * Math.abs( ( CURRENT_BEAT - PREVIOUS_BEAT ) / PREVIOUS_BEAT );
-            final float RELATION_NEXT_BEAT = 100
-                    * Math.abs( ( CURRENT_BEAT - NEXT_BEAT ) / NEXT_BEAT );
-
-            final float RELATION_MEAN_BEAT = 100
-                    * Math.abs( ( CURRENT_BEAT - MEAN_LAST_BEATS ) / MEAN_LAST_BEATS );
-
-            if ( ( RELATION_PREVIOUS_BEAT < U_LAST
-                    || RELATION_NEXT_BEAT < U_LAST
-                    || RELATION_MEAN_BEAT < U_MEAN )
-                    && CURRENT_BEAT > MIN_BPM
-                    && CURRENT_BEAT < MAX_BPM )
-            {
-                index += 1;
-            } else {
-                Log.i( LOG_TAG,"Removing beat index: " + index );
-
-                index += 1;
-                ++this.filteredData;
-                this.dataHR.set( index, MEAN_LAST_BEATS );
-                this.dataRR.set( index, 60.0f / MEAN_LAST_BEATS );
-            }
-        }
+        this.filteredData = this.beatFilter.filter( this.dataHR, this.dataRR, this.dataLength );
 
+        Log.i( LOG_TAG, () -> "Removed beats: " + this.filteredData );
         return;
     }
 
     private void interpolate()
     {
-        float xmin = dataBeatTimes.get(0);
-        float xmax = dataBeatTimes.get(dataBeatTimes.size()-1);
-        float step = 1.0f / freq;
+        final int LENGTH = this.dataLength;
+        final float[] BEAT_TIMES = this.dataBeatTimes;
+        float xmin = BEAT_TIMES[ 0 ];
+        float xmax = BEAT_TIMES[ LENGTH - 1 ];
+        final float FREQ = this.config.getInterpolationFreq();
+        float step = 1.0f / FREQ;
 
-        if ( dataBeatTimes.size() > 2 ) {
+        this.interpLength = 0;
+
+        if ( LENGTH > 2 ) {
             int leftHRIndex, rightHRIndex;
             float leftBeatPos, rightBeatPos, leftHRVal, rightHRVal;
             leftHRIndex = 0;
             rightHRIndex = 1;
-            leftBeatPos = dataBeatTimes.get( leftHRIndex );
-            rightBeatPos = dataBeatTimes.get( rightHRIndex );
-            leftHRVal = dataHR.get(leftHRIndex);
-            rightHRVal = dataHR.get(rightHRIndex);
+            leftBeatPos = BEAT_TIMES[ leftHRIndex ];
+            rightBeatPos = BEAT_TIMES[ rightHRIndex ];
+            leftHRVal = this.dataHR[ leftHRIndex ];
+            rightHRVal = this.dataHR[ rightHRIndex ];
 
             // Calculates positions in x axis
-            dataHRInterpX.add(xmin);
-            float newValue = xmin+step;
-            while (newValue<=xmax) {
-                dataHRInterpX.add(newValue);
+            this.dataHRInterpX = ensureCapacity( this.dataHRInterpX,
+                                    (int) ( ( xmax - xmin ) * FREQ ) + 2 );
+            this.dataHRInterpX[ this.interpLength++ ] = xmin;
+
+            float newValue = xmin + step;
+            while ( newValue <= xmax ) {
+                if ( this.interpLength == this.dataHRInterpX.length ) {
+                    this.dataHRInterpX = Arrays.copyOf( this.dataHRInterpX,
+                                                        this.interpLength * 2 );
+                }
+
+                this.dataHRInterpX[ this.interpLength++ ] = newValue;
                 newValue += step;
             }
 
-            for (int xInterpIndex = 0; xInterpIndex< dataHRInterpX.size(); xInterpIndex++ )
+            this.dataHRInterp = ensureCapacity( this.dataHRInterp, this.interpLength );
+
+            for (int xInterpIndex = 0; xInterpIndex < this.interpLength; ++xInterpIndex)
             {
-                if (dataHRInterpX.get(xInterpIndex) >= rightBeatPos) {
+                final float X = this.dataHRInterpX[ xInterpIndex ];
+
+                if ( X >= rightBeatPos ) {
                     leftHRIndex++;
                     rightHRIndex++;
-                    leftBeatPos = dataBeatTimes.get(leftHRIndex);
-                    rightBeatPos = dataBeatTimes.get(rightHRIndex);
-                    leftHRVal = dataHR.get(leftHRIndex);
-                    rightHRVal = dataHR.get(rightHRIndex);
+                    leftBeatPos = BEAT_TIMES[ leftHRIndex ];
+                    rightBeatPos = BEAT_TIMES[ rightHRIndex ];
+                    leftHRVal = this.dataHR[ leftHRIndex ];
+                    rightHRVal = this.dataHR[ rightHRIndex ];
                 }
 
                 // Estimate HR value in position
-                float HR = (rightHRVal-leftHRVal)*(dataHRInterpX.get(xInterpIndex)-leftBeatPos)/(rightBeatPos-leftBeatPos)+leftHRVal;
-                dataHRInterp.add(HR);
+                this.dataHRInterp[ xInterpIndex ] =
+                        ( rightHRVal - leftHRVal ) * ( X - leftBeatPos )
+                        / ( rightBeatPos - leftBeatPos ) + leftHRVal;
             }
         } else {
             float xAxis = xmin;
 
-            for(float dataBeatTime: this.dataBeatTimes) {
-                this.dataHRInterp.add( dataBeatTime );
-                this.dataHRInterpX.add( xAxis );
+            this.dataHRInterp = ensureCapacity( this.dataHRInterp, LENGTH );
+            this.dataHRInterpX = ensureCapacity( this.dataHRInterpX, LENGTH );
+
+            for(int i = 0; i < LENGTH; ++i) {
+                this.dataHRInterp[ i ] = BEAT_TIMES[ i ];
+                this.dataHRInterpX[ i ] = xAxis;
 
                 xAxis += step;
             }
+
+            this.interpLength = LENGTH;
         }
 
         return;
@@ -270,23 +601,24 @@ public class ResultAnalyzer {
     private String createReport()
     {
         final StringBuilder TEXT = new StringBuilder( "<h3>Signal data</h3>" );
-        final float FILTERED_RATE = 100.0f * ( dataRRnf.size() - dataRR.size() ) / dataRRnf.size();
+        // Beats are replaced by filterData(), never removed
+        final float FILTERED_RATE = 0.0f;
 
         TEXT.append( "<p>&nbsp;&nbsp;<b>Length of original RR signal</b>: " );
-        TEXT.append( String.format( Locale.getDefault(), "%d", dataRRnf.size()) );
+        TEXT.append( String.format( Locale.getDefault(), "%d", this.dataLength ) );
         TEXT.append( " values</p>" );
         TEXT.append( "<p>&nbsp;&nbsp;<b>Length of filtered RR signal</b>: " );
-        TEXT.append( String.format( Locale.getDefault(), "%d", dataRRnf.size() - this.filteredData) );
+        TEXT.append( String.format( Locale.getDefault(), "%d", this.dataLength - this.filteredData ) );
         TEXT.append( " values</p>" );
 
         TEXT.append( "<p>&nbsp;&nbsp;<b>Beat rejection rate</b>: " );
         TEXT.append( String.format( Locale.getDefault(), "%.2f", FILTERED_RATE) );
         TEXT.append( "%</p>" );
         TEXT.append( "<p>&nbsp;&nbsp;<b>Interpolation frequency</b>: " );
-        TEXT.append( String.format( Locale.getDefault(), "%.2f", freq) );
+        TEXT.append( String.format( Locale.getDefault(), "%.2f", this.config.getInterpolationFreq() ) );
         TEXT.append( " Hz</p>" );
         TEXT.append( "<p>&nbsp;&nbsp;<b>Number of interpolated samples</b>: " );
-        TEXT.append( String.format( Locale.getDefault(), "%d", dataHRInterp.size()) );
+        TEXT.append( String.format( Locale.getDefault(), "%d", this.interpLength ) );
         TEXT.append( "</p>" );
 
         // ------------------------
@@ -305,36 +637,37 @@ public class ResultAnalyzer {
         TEXT.append( String.format( Locale.getDefault(), "%.2f", this.valueRMS) );
         TEXT.append( " ms</p>" );
         TEXT.append( "<p>&nbsp;&nbsp;<b>normHRV</b>: " );
-        TEXT.append( String.format( Locale.getDefault(), "%.2f", calculateNormHRV(dataRR)) );
+        TEXT.append( String.format( Locale.getDefault(), "%.2f", this.valueNormHRV ) );
         TEXT.append( "</p>" );
 
         // ------------------------
-        final List<Float> POWER_BANDS = calculateSpectrum(dataHRInterpX.get(0), dataHRInterpX.get(dataHRInterpX.size()-1));
+        final float[] POWER_BANDS = {
+                this.valueTotalPower, this.valueLFPower, this.valueHFPower, this.valueLFHFRatio };
 
         TEXT.append( "<br/><h3>HRV frequency-domain results</h3>" );
         TEXT.append( "<p>&nbsp;&nbsp;<b>Total power</b>: " );
-        TEXT.append( String.format( Locale.getDefault(), "%.2f", POWER_BANDS.get(0)) );
+        TEXT.append( String.format( Locale.getDefault(), "%.2f", POWER_BANDS[ 0 ] ) );
         TEXT.append( " ms&sup2;</p>" );
 
-        if ( POWER_BANDS.get( 1 ) > 0.0 ) {
+        if ( POWER_BANDS[ 1 ] > 0.0 ) {
             TEXT.append( "<p>&nbsp;&nbsp;<b>LF power</b>: " );
-            TEXT.append( String.format( Locale.getDefault(), "%.2f", POWER_BANDS.get(1)) );
+            TEXT.append( String.format( Locale.getDefault(), "%.2f", POWER_BANDS[ 1 ] ) );
             TEXT.append( " ms&sup2;</p>" );
         } else {
             TEXT.append( "<p>&nbsp;&nbsp;<b>LF power</b>: --</p>" );
         }
 
-        if ( POWER_BANDS.get( 2 ) > 0.0 ) {
+        if ( POWER_BANDS[ 2 ] > 0.0 ) {
             TEXT.append( "<p>&nbsp;&nbsp;<b>HF power</b>: " );
-            TEXT.append( String.format( Locale.getDefault(), "%.2f", POWER_BANDS.get(2)) );
+            TEXT.append( String.format( Locale.getDefault(), "%.2f", POWER_BANDS[ 2 ] ) );
             TEXT.append( " ms&sup2;</p>" );
         } else {
             TEXT.append( "<p>&nbsp;&nbsp;<b>HF power</b>: --</p>" );
         }
 
-        if ( POWER_BANDS.get( 1 ) > 0.0 ) {
+        if ( POWER_BANDS[ 1 ] > 0.0 ) {
             TEXT.append( "<p>&nbsp;&nbsp;<b>LF/HF ratio</b>: " );
-            TEXT.append( String.format( Locale.getDefault(), "%.2f", POWER_BANDS.get(3)) );
+            TEXT.append( String.format( Locale.getDefault(), "%.2f", POWER_BANDS[ 3 ] ) );
             TEXT.append( "</p>" );
         } else {
             TEXT.append( "<p>&nbsp;&nbsp;<b>LF/HF ratio</b>: --</p>" );
@@ -358,423 +691,373 @@ public class ResultAnalyzer {
         return TEXT.toString();
     }
 
-    private float calculateMean(List<Float> signal)
-    {
-        float sum = 0.0f;
-
-        for (int i=0 ; i < signal.size() ; i++) {
-            sum += signal.get(i);
-        }
-
-        return sum/signal.size();
-    }
-
-    private float calculateSTD(List<Float> signal)
-    {
-        float std = 0.0f;
-
-        for (int i=1 ; i < signal.size() ; i++) {
-            std += Math.pow(signal.get(i)-calculateMean(signal),2);
-        }
-
-        std /= (signal.size()-1);
-        std = (float) Math.sqrt(std);
-        return std;
-    }
-
-    private float calculateRMSSD(List<Float> signal)
-    {
-        float rrdifs2 = 0.0f;
-
-        for (int i=1 ; i < signal.size() ; i++) {
-            rrdifs2 += Math.pow((signal.get(i) - signal.get(i-1)),2);
-        }
-
-        return (float) Math.sqrt(rrdifs2/(signal.size()-1));
-    }
-
-    private float calculateNormHRV(List<Float> signal)
-    {
-        float lnrMSSD = (float) Math.log(calculateRMSSD(signal));
-        return lnrMSSD*100.0f/6.5f;
-    }
-
-    private float calculatePNN50(List<Float> signal)
-    {
-        int numIntervals = 0;
-        int numBigIntervals = 0;
-        for (int i=1 ; i < signal.size() ; i++) {
-            numIntervals++;
-            if (Math.abs(signal.get(i)-signal.get(i-1)) > 50.0) {
-                numBigIntervals++;
-            }
-        }
-
-        return 100.0f * ((float)numBigIntervals/(float)numIntervals);
-    }
-
-    private List<Float> calculateSpectrum(Float begSegment, Float endSegment)
+    /** Calculates the spectrum using Welch's method.
+      * @param begSegment the first time in the interpolated signal.
+      * @param endSegment the last time in the interpolated signal.
+      * @return total power, LF power, HF power and LF/HF ratio, in this order.
+      */
+    private float[] calculateSpectrum(float begSegment, float endSegment)
     {
-        Log.i(LOG_TAG + ".Spec","Calculating spectrum");
-        Log.i(LOG_TAG + ".Spec","Minimum time: " + begSegment + " seconds");
-        Log.i(LOG_TAG + ".Spec","Maximum time: " + endSegment + " seconds");
-        float analysisWindowLength = ( endSegment-begSegment ) / 3.0f;
-        Log.i(LOG_TAG + ".Spec","Analysis window length: "+ analysisWindowLength +" seconds");
+        Log.i( LOG_TAG_SPEC, "Calculating spectrum" );
+        Log.i( LOG_TAG_SPEC, () -> "Minimum time: " + begSegment + " seconds" );
+        Log.i( LOG_TAG_SPEC, () -> "Maximum time: " + endSegment + " seconds" );
+        final float analysisWindowLength = ( endSegment-begSegment ) / 3.0f;
+        Log.i( LOG_TAG_SPEC, () -> "Analysis window length: "+ analysisWindowLength +" seconds" );
 
         // Five windows, length 1/3 of signal, overlap 50%
 
-        float beg[] = new float[5];
-        float end[] = new float[5];
+        float beg[] = new float[ NUM_WINDOWS ];
+        float end[] = new float[ NUM_WINDOWS ];
 
         beg[0] = begSegment;
         end[0] = beg[0] + analysisWindowLength;
 
-        for (int index=1 ; index < 5; index++ ) {
+        for (int index = 1; index < NUM_WINDOWS; index++ ) {
             beg[index] = beg[index-1] + analysisWindowLength / 2.0f;
             end[index] = beg[index] + analysisWindowLength;
         }
 
-        for (int index=0; index < 5; index++) {
-            Log.i(LOG_TAG + ".Spec","Window number "+ (index+1) +": ("+ beg[index] + "," + end[index] +") seconds");
+        if ( Log.isLoggable( Log.Level.INFO ) ) {
+            for (int index = 0; index < NUM_WINDOWS; index++) {
+                Log.i( LOG_TAG_SPEC, "Window number "+ (index+1) +": ("+ beg[index] + "," + end[index] +") seconds" );
+            }
         }
 
+        // Locate each window in the interpolated signal, which is sorted by time
+        final int[] SEGMENT_BEG = new int[ NUM_WINDOWS ];
+        final int[] SEGMENT_END = new int[ NUM_WINDOWS ];
         int maxSegmentLength = 0;
-        for (int index=0; index<5; index++) {
-            List<Float> segmentTMP;
-            segmentTMP = getSegmentHRInterp(beg[index],end[index]);
-            if ( segmentTMP.size() > maxSegmentLength )
-                maxSegmentLength = segmentTMP.size();
-        }
 
-        int paddedLength = (int) Math.pow(2,(int) Math.ceil(Math.log((double) maxSegmentLength) / Math.log(2.0)));
+        for (int index = 0; index < NUM_WINDOWS; index++) {
+            SEGMENT_BEG[ index ] = this.findFirstInterpAtOrAfter( beg[ index ] );
+            SEGMENT_END[ index ] = Math.max( SEGMENT_BEG[ index ],
+                                             this.findFirstInterpAfter( end[ index ] ) );
 
-        Log.i(LOG_TAG + ".Spec","Max segment length: "+maxSegmentLength);
-        Log.i(LOG_TAG + ".Spec","Padded length: "+paddedLength);
+            maxSegmentLength = Math.max( maxSegmentLength, SEGMENT_END[ index ] - SEGMENT_BEG[ index ] );
+        }
 
+        int paddedLength = maxSegmentLength <= 1 ? maxSegmentLength
+                                    : Integer.highestOneBit( maxSegmentLength - 1 ) << 1;
 
-        List<Float> SpectrumAvg = new ArrayList<>();
-        int SpectrumLength = paddedLength/2;
+        final int MAX_SEGMENT_LENGTH = maxSegmentLength;
+        final int PADDED_LENGTH = paddedLength;
+        Log.i( LOG_TAG_SPEC, () -> "Max segment length: " + MAX_SEGMENT_LENGTH );
+        Log.i( LOG_TAG_SPEC, () -> "Padded length: " + PADDED_LENGTH );
+        this.count( AnalysisMetrics.Counter.FFT_SIZE, paddedLength );
 
+        final int SPECTRUM_LENGTH = paddedLength / 2;
 
-        for (int windowIndex=0 ; windowIndex<5 ; windowIndex++) {
-            List<Float> RRSegment = getSegmentHRInterp(beg[windowIndex],end[windowIndex]);
-            for  (int index=0 ; index < RRSegment.size() ; index++) {
-                RRSegment.set(index,1000.0f/(RRSegment.get(index)/60.f));
-            }
-            Log.i(LOG_TAG + ".Spec", "Segment "+(windowIndex+1)+" - number of samples: "+RRSegment.size());
-            double avg = 0.0;
-            for  (int index=0 ; index < RRSegment.size() ; index++) {
-                avg += RRSegment.get(index);
-            }
-            avg = avg / RRSegment.size();
-            for  (int index=0 ; index < RRSegment.size() ; index++) {
-                RRSegment.set( index , (float) (RRSegment.get(index)-avg) );
-            }
+        this.paddedX = ensureCapacity( this.paddedX, SPECTRUM_LENGTH );
+        this.paddedY = ensureCapacity( this.paddedY, SPECTRUM_LENGTH );
+        this.spectrumAvg = ensureCapacity( this.spectrumAvg, SPECTRUM_LENGTH );
+        this.spectrumAxis = ensureCapacity( this.spectrumAxis, SPECTRUM_LENGTH );
 
-            double[] hamWindow = makeHammingWindow(RRSegment.size());
-            for (int index=0 ; index < RRSegment.size() ; index++) {
-                RRSegment.set(index, (float) (RRSegment.get(index)*hamWindow[index]));
-            }
+        final FftPlan PLAN = FftPlan.forSize( Math.max( 1, paddedLength ) );
+        final float[] SPECTRUM_AVG = this.spectrumAvg;
+        double[] PADDED_X = this.paddedX;
+        double[] PADDED_Y = this.paddedY;
 
-            // writeFile("timeSignal.txt", RRSegment);
+        final boolean PARALLEL = this.spectrumPool != null
+                              && maxSegmentLength >= MIN_PARALLEL_SEGMENT_LENGTH;
 
-            double[] RRSegmentPaddedX = padSegmentHRInterp(RRSegment, paddedLength);
-            //corvarjar.Log.i(LogTag + ".Spec", "Length of padded array: "+RRSegmentPaddedX.length);
+        if ( PARALLEL ) {
+            this.calculateWindowSpectraInParallel( SEGMENT_BEG, SEGMENT_END, PLAN );
+        }
 
-            /*
-            List<Double> RRSPtmp = new ArrayList<>();
-            for (double rrPaddedX: RRSegmentPaddedX) {
-                RRSPtmp.add( rrPaddedX );
+        // Sum the spectra always in the same order, so the result does not depend on threads
+        for (int windowIndex = 0; windowIndex < NUM_WINDOWS; windowIndex++) {
+            if ( Log.isLoggable( Log.Level.INFO ) ) {
+                Log.i( LOG_TAG_SPEC, "Segment "+(windowIndex+1)+" - number of samples: "
+                                        + ( SEGMENT_END[ windowIndex ] - SEGMENT_BEG[ windowIndex ] ) );
             }
-            writeFile("timeSignalPadded.txt", RRSPtmp);
-            */
-            double[] RRSegmentPaddedY = new double[RRSegmentPaddedX.length];
-
-            fft(RRSegmentPaddedX,RRSegmentPaddedY, RRSegmentPaddedX.length);
-            //corvarjar.Log.i(LogTag + ".Spec","Length of fft: "+RRSegmentPaddedX.length);
 
-            List<Float> Spectrum = new ArrayList<>();
-            for (int index=0 ; index<SpectrumLength ; index++) { // Only positive half of the spectrum
-                Spectrum.add((float) (Math.pow(RRSegmentPaddedX[index],2)+Math.pow(RRSegmentPaddedY[index],2)));
+            if ( PARALLEL ) {
+                PADDED_X = this.windowsRe[ windowIndex ];
+                PADDED_Y = this.windowsIm[ windowIndex ];
+            } else if ( SPECTRUM_LENGTH > 0 ) {
+                // A single sample has no positive half: the bands are left as an empty spectrum gives
+                this.calculateWindowSpectrum( SEGMENT_BEG[ windowIndex ], SEGMENT_END[ windowIndex ],
+                                              PLAN, PADDED_X, PADDED_Y );
             }
-            Log.i(LOG_TAG + ".Spec","Length of spectrum: "+Spectrum.size());
 
-            if (windowIndex==0) {
-                for (int index=0 ; index<SpectrumLength ; index++) {
-                    SpectrumAvg.add(Spectrum.get(index));
+            // Only positive half of the spectrum
+            if ( windowIndex == 0 ) {
+                for (int index = 0; index < SPECTRUM_LENGTH; index++) {
+                    SPECTRUM_AVG[ index ] = (float) ( Math.pow( PADDED_X[ index ], 2 )
+                                                    + Math.pow( PADDED_Y[ index ], 2 ) );
                 }
             } else {
-                for (int index=0 ; index<SpectrumLength ; index++) {
-                    float newValue = SpectrumAvg.get(index)+Spectrum.get(index);
-                    SpectrumAvg.set(index,newValue);
+                for (int index = 0; index < SPECTRUM_LENGTH; index++) {
+                    SPECTRUM_AVG[ index ] += (float) ( Math.pow( PADDED_X[ index ], 2 )
+                                                     + Math.pow( PADDED_Y[ index ], 2 ) );
                 }
             }
 
+            Log.i( LOG_TAG_SPEC, () -> "Length of spectrum: " + SPECTRUM_LENGTH );
         }  // for windowIndex
 
-        for (int index=0 ; index<SpectrumLength ; index++) {
-            SpectrumAvg.set(index,SpectrumAvg.get(index)/5.0f);
+        for (int index = 0; index < SPECTRUM_LENGTH; index++) {
+            SPECTRUM_AVG[ index ] /= 5.0f;
         }
 
-        List<Float> SpectrumAxis = new ArrayList<>();
-        for (int index=0 ; index<SpectrumLength ; index++) { // Only positive half of the spectrum
-            SpectrumAxis.add(index*(freq/2)/(SpectrumLength-1));
-        }
+        return calculatePowerBands( this.config, SPECTRUM_AVG, this.spectrumAxis, SPECTRUM_LENGTH,
+                                    endSegment - begSegment );
+    }
 
-        // writeFile("Spectrum.txt", SpectrumAvg);
+    /** Calculates the power bands of an averaged spectrum.
+      * @param config the configuration with the frequency and the bands.
+      * @param spectrumAvg the positive half of the averaged spectrum.
+      * @param spectrumAxis a buffer for the frequencies of the spectrum, of at least length values.
+      * @param length the number of values in the positive half of the spectrum.
+      * @param duration the length of the analyzed windows, in seconds.
+      * @return total power, LF power, HF power and LF/HF ratio, in this order.
+      */
+    static float[] calculatePowerBands(AnalysisConfig config, final float[] spectrumAvg, final float[] spectrumAxis, int length, float duration)
+    {
+        final float[] SPECTRUM_AVG = spectrumAvg;
+        final int SPECTRUM_LENGTH = length;
+        final float FREQ = config.getInterpolationFreq();
+        final float HAMMING_FACTOR = config.getHammingFactor();
+
+        for (int index = 0; index < SPECTRUM_LENGTH; index++) { // Only positive half of the spectrum
+            spectrumAxis[ index ] = index * ( FREQ / 2 ) / ( SPECTRUM_LENGTH - 1 );
+        }
 
-        Log.i(LOG_TAG + ".Spec","Length of spectrum axis: "+SpectrumAxis.size());
+        Log.i( LOG_TAG_SPEC, () -> "Length of spectrum axis: " + SPECTRUM_LENGTH );
 
-        if ( SpectrumAxis.size() > 0 ) {
-            Log.i(LOG_TAG + ".Spec","First sample of spectrum axis: "+SpectrumAxis.get(0));
-            Log.i(LOG_TAG + ".Spec","Last sample of spectrum axis: "+SpectrumAxis.get(SpectrumLength-1));
+        if ( SPECTRUM_LENGTH > 0 ) {
+            Log.i( LOG_TAG_SPEC, () -> "First sample of spectrum axis: " + spectrumAxis[ 0 ] );
+            Log.i( LOG_TAG_SPEC, () -> "Last sample of spectrum axis: " + spectrumAxis[ SPECTRUM_LENGTH - 1 ] );
         }
 
-        List<Float> results = new ArrayList<>();
+        final float[] RESULTS = new float[ 4 ];
 
-        float totalPower = powerInBand(SpectrumAvg, SpectrumAxis, totalPowerBeg, totalPowerEnd);
+        float totalPower = powerInBand( SPECTRUM_AVG, spectrumAxis, SPECTRUM_LENGTH, HAMMING_FACTOR,
+                                        config.getTotalPowerBeg(), config.getTotalPowerEnd() );
 
-        results.add(totalPower);
+        RESULTS[ 0 ] = totalPower;
 
-        Log.i(LOG_TAG + ".Spec", "Total power: "+totalPower);
+        Log.i( LOG_TAG_SPEC, () -> "Total power: " + totalPower );
 
         float LFPower;
-        if ((endSegment-begSegment) > 40.0) {
+        if (duration > 40.0) {
             // Minimum freq. in LF band is 0.05 Hz. Two cycles are required to estimate power
-            LFPower = powerInBand(SpectrumAvg, SpectrumAxis, LFPowerBeg, LFPowerEnd);
+            LFPower = powerInBand( SPECTRUM_AVG, spectrumAxis, SPECTRUM_LENGTH, HAMMING_FACTOR,
+                                   config.getLFPowerBeg(), config.getLFPowerEnd() );
         } else {
             LFPower = -1.0f;
         }
-        results.add(LFPower);
-        Log.i(LOG_TAG + ".Spec", "LF power: "+LFPower);
+        RESULTS[ 1 ] = LFPower;
+        Log.i( LOG_TAG_SPEC, () -> "LF power: " + LFPower );
 
         float HFPower;
-        if ((endSegment-begSegment) > 13.33) {
-            HFPower = powerInBand(SpectrumAvg, SpectrumAxis, HFPowerBeg, HFPowerEnd);
+        if (duration > 13.33) {
+            HFPower = powerInBand( SPECTRUM_AVG, spectrumAxis, SPECTRUM_LENGTH, HAMMING_FACTOR,
+                                   config.getHFPowerBeg(), config.getHFPowerEnd() );
         } else {
             HFPower = -1.0f;
         }
-        results.add(HFPower);
-        Log.i(LOG_TAG + ".Spec", "HF power: "+HFPower);
-        Log.i(LOG_TAG + ".Spec", "LF/HF ratio: "+LFPower/HFPower);
-        results.add(LFPower/HFPower);
+        RESULTS[ 2 ] = HFPower;
+        Log.i( LOG_TAG_SPEC, () -> "HF power: " + HFPower );
+        Log.i( LOG_TAG_SPEC, () -> "LF/HF ratio: " + LFPower / HFPower );
+        RESULTS[ 3 ] = LFPower / HFPower;
 
-        return results;
+        return RESULTS;
     }
 
-    private void fft(double[] x, double[] y, int n)
+    private static float powerInBand(float[] spectrum, float[] spectrumAxis, int length,
+                                     float hammingFactor, float begFreq, float endFreq)
     {
-        int i,j,k,n2,a;
-        int n1;
-        double c,s,t1,t2;
-
-        int m = (int)(Math.log(n) / Math.log(2));
-
-        double[] cos = new double[n/2];
-        double[] sin = new double[n/2];
-        for(int index=0; index<n/2; index++) {
-            cos[index] = Math.cos(-2*Math.PI*index/n);
-            sin[index] = Math.sin(-2*Math.PI*index/n);
-        }
+        float pp = 0.0f;
 
-        // Bit-reverse
-        j = 0;
-        n2 = n/2;
-        for (i=1; i < n - 1; i++) {
-            n1 = n2;
-            while ( j >= n1 ) {
-                j = j - n1;
-                n1 = n1/2;
-            }
-            j = j + n1;
-
-            if (i < j) {
-                t1 = x[i];
-                x[i] = x[j];
-                x[j] = t1;
-                t1 = y[i];
-                y[i] = y[j];
-                y[j] = t1;
+        for (int index = 0; index < length; index++) {
+            if ( ( spectrumAxis[ index ] >= begFreq ) && ( spectrumAxis[ index ] <= endFreq ) ) {
+                pp = pp + spectrum[ index ];
             }
         }
 
-        // FFT
-        n2 = 1;
-
-        for (i=0; i < m; i++) {
-            n1 = n2;
-            n2 = n2 + n2;
-            a = 0;
-
-            for (j=0; j < n1; j++) {
-                c = cos[a];
-                s = sin[a];
-                a +=  1 << (m-i-1);
-
-                for (k=j; k < n; k=k+n2) {
-                    t1 = c*x[k+n1] - s*y[k+n1];
-                    t2 = s*x[k+n1] + c*y[k+n1];
-                    x[k+n1] = x[k] - t1;
-                    y[k+n1] = y[k] - t2;
-                    x[k] = x[k] + t1;
-                    y[k] = y[k] + t2;
-                }
-            }
-        }
+        pp = pp * hammingFactor;
+        pp = pp / (float) ( 2.0f * Math.pow( length, 2.0f ) );
+        return pp;
     }
 
-    private double[] makeHammingWindow(int windowLength)
+    /** Calculates the spectrum of a window of the interpolated signal.
+      * The window is read in place: its samples are converted to rr, detrended,
+      * multiplied by the Hamming window and packed for the real FFT on the fly.
+      * @param from the position of the first sample of the window.
+      * @param to the position after the last sample of the window.
+      * @param plan the plan for the padded length.
+      * @param re the buffer for the real part of the spectrum, of half the padded length.
+      * @param im the buffer for the imaginary part of the spectrum, of half the padded length.
+      */
+    private void calculateWindowSpectrum(int from, int to, FftPlan plan, double[] re, double[] im)
     {
-        // Make a Hamming window:
-        // w(n) = a0 - (1-a0)*cos( 2*PI*n/(N-1) )
-        // a0 = 25/46
-        double a0 = 25.0/46.0;
-        double[] window = new double[windowLength];
-
-        for(int i = 0; i < windowLength; i++)
-            window[i] = a0 - (1-a0) * Math.cos(2*Math.PI*i/(windowLength-1));
-
-        return window;
+        calculateWindowSpectrum( this.dataHRInterp, from, to, plan, re, im );
     }
 
-    private float powerInBand(List<Float> spectrum, List<Float> spectrumAxis, float begFreq, float endFreq)
+    /** Calculates the spectrum of a window of an interpolated hr signal.
+      * @param hr the interpolated hr signal.
+      * @see ResultAnalyzer#calculateWindowSpectrum(int, int, FftPlan, double[], double[])
+      */
+    static void calculateWindowSpectrum(final float[] hr, int from, int to, FftPlan plan, double[] re, double[] im)
     {
-        float pp = 0.0f;
-
-        for (int index=0 ; index < spectrum.size() ; index++) {
-            if ( (spectrumAxis.get(index)>=begFreq) && (spectrumAxis.get(index)<=endFreq) ) {
-                pp = pp + spectrum.get(index);
-            }
+        final float[] HR = hr;
+        final int SEGMENT_LENGTH = to - from;
+        final int HALF_LENGTH = plan.getSize() / 2;
+
+        // Detrend
+        double avg = 0.0;
+        for (int index = from; index < to; index++) {
+            avg += 1000.0f / ( HR[ index ] / 60.f );
         }
+        avg = avg / SEGMENT_LENGTH;
 
-        pp = pp * hammingFactor;
-        pp = pp / (float)(2.0f*Math.pow(spectrum.size(),2.0f));
-        return pp;
-    }
+        // Zero-padding of the segment, packing even samples in re, odd samples in im
+        final double[] HAMMING_WINDOW = plan.getHammingWindow( SEGMENT_LENGTH );
 
-    private List<Float> getSegmentHRInterp(float beg, float end)
-    {
-        List<Float> segment = new ArrayList<>();
+        Arrays.fill( re, 0, HALF_LENGTH, 0.0 );
+        Arrays.fill( im, 0, HALF_LENGTH, 0.0 );
 
-        for (int indexHR=0 ; indexHR<dataHRInterp.size() ; indexHR++) {
-            if  ( (dataHRInterpX.get(indexHR) >= beg) && (dataHRInterpX.get(indexHR) <= end) ) {
-                segment.add(dataHRInterp.get(indexHR));
+        for (int index = 0; index < SEGMENT_LENGTH; index++) {
+            final float RR = 1000.0f / ( HR[ from + index ] / 60.f );
+            final float DETRENDED = (float) ( RR - avg );
+            final float WINDOWED = (float) ( DETRENDED * HAMMING_WINDOW[ index ] );
+
+            if ( ( index & 1 ) == 0 ) {
+                re[ index >> 1 ] = WINDOWED;
+            } else {
+                im[ index >> 1 ] = WINDOWED;
             }
         }
 
-        return segment;
+        plan.transformReal( re, im );
     }
 
-    private double[] padSegmentHRInterp(List<Float> hrSegment, int newLength)
+    /** Calculates the spectrum of each window in its own task, using the spectrum pool.
+      * Each window gets its own buffers, in windowsRe and windowsIm.
+      * @param segmentBeg the position of the first sample of each window.
+      * @param segmentEnd the position after the last sample of each window.
+      * @param plan the plan for the padded length.
+      */
+    private void calculateWindowSpectraInParallel(final int[] segmentBeg, final int[] segmentEnd, final FftPlan plan)
     {
-        double[] segmentPadded = new double[newLength];
+        final int HALF_LENGTH = plan.getSize() / 2;
+        final RecursiveAction[] TASKS = new RecursiveAction[ NUM_WINDOWS ];
+
+        for (int windowIndex = 0; windowIndex < NUM_WINDOWS; windowIndex++) {
+            final int WINDOW_INDEX = windowIndex;
 
-        for (int index = 0 ; index < hrSegment.size() ; index++) {
-            segmentPadded[index] =  (double) (hrSegment.get(index));
+            this.windowsRe[ windowIndex ] = ensureCapacity( this.windowsRe[ windowIndex ], HALF_LENGTH );
+            this.windowsIm[ windowIndex ] = ensureCapacity( this.windowsIm[ windowIndex ], HALF_LENGTH );
+
+            TASKS[ windowIndex ] = new RecursiveAction() {
+                @Override
+                protected void compute()
+                {
+                    ResultAnalyzer.this.calculateWindowSpectrum(
+                                            segmentBeg[ WINDOW_INDEX ],
+                                            segmentEnd[ WINDOW_INDEX ],
+                                            plan,
+                                            ResultAnalyzer.this.windowsRe[ WINDOW_INDEX ],
+                                            ResultAnalyzer.this.windowsIm[ WINDOW_INDEX ] );
+                }
+            };
         }
 
-        return segmentPadded;
+        this.spectrumPool.invoke( new RecursiveAction() {
+            @Override
+            protected void compute()
+            {
+                invokeAll( TASKS );
+            }
+        });
     }
 
-    /** @return the MADDRR (median) value. */
-    private float calculateMADRR(List<Float> signal)
+    /** @return the position of the first interpolated sample at or after the given time. */
+    private int findFirstInterpAtOrAfter(float time)
     {
-        List<Float> difsRR = new ArrayList<>();
-        float result;
-
-        for (int i=1 ; i < signal.size() ; i++) {
-            difsRR.add(Math.abs(signal.get(i) - signal.get(i-1)));
-        }
-        Collections.sort(difsRR);
-        int n = difsRR.size() / 2;
+        final float[] X = this.dataHRInterpX;
+        int low = 0;
+        int high = this.interpLength;
 
-        if (difsRR.size() % 2 == 0)
-            result = ( difsRR.get(n) + difsRR.get(n-1) )/2;
-        else
-            result = difsRR.get(n);
+        while ( low < high ) {
+            final int MID = ( low + high ) >>> 1;
 
-        return result;
-    }
+            if ( X[ MID ] >= time ) {
+                high = MID;
+            } else {
+                low = MID + 1;
+            }
+        }
 
-    /** @return the entropy. */
-    private float calculateApEn(final List<Float> SIGNAL, int m, float r)
-    {
-        r *= _calculateSD( SIGNAL );
-        return Math.abs( _phi( SIGNAL, m + 1, r )  - _phi( SIGNAL, m, r ) );
+        return low;
     }
 
-    private float _calculateSD(final List<Float> SIGNAL)
+    /** @return the position of the first interpolated sample after the given time. */
+    private int findFirstInterpAfter(float time)
     {
-        float sum = 0.0f, standardDeviation = 0.0f;
-        int length = SIGNAL.size();
-
-        for(int index=0 ; index < length ; index++) {
-            sum += SIGNAL.get(index);
-        }
+        final float[] X = this.dataHRInterpX;
+        int low = 0;
+        int high = this.interpLength;
 
-        float mean = sum/length;
+        while ( low < high ) {
+            final int MID = ( low + high ) >>> 1;
 
-        for(int index=0 ; index < length ; index++) {
-            standardDeviation += Math.pow(SIGNAL.get(index) - mean, 2);
+            if ( !( X[ MID ] <= time ) ) {
+                high = MID;
+            } else {
+                low = MID + 1;
+            }
         }
 
-        return (float) Math.sqrt(standardDeviation/length);
+        return low;
     }
 
-    private float _phi(final List<Float> U, int m, float r)
+    /** @return the MADDRR (median) value. */
+    private float calculateMADRR(final float[] SIGNAL, int length)
     {
-        int N = U.size();
-        ArrayList<ArrayList<Float>> x = new ArrayList<>();
-        for (int i=0; i < N-m+1 ; i++) {
-            ArrayList<Float> x_row = new ArrayList<>();
-            for (int j=i; j<i+m ; j++) {
-                x_row.add(U.get(j));
-            }
-            x.add(x_row);
-        }
+        final int NUM_DIFS = Math.max( 0, length - 1 );
+        float result;
 
-        ArrayList<Float> C = new ArrayList<>();
-        for (int i=0 ; i<x.size() ; i++)
-        {
-            float C_tmp = .0f;
-            for (int j=0 ; j<x.size() ; j++)
-            {
-                if (_maxdist(x.get(i),x.get(j)) <= r)
-                {
-                    C_tmp += 1.0f;
-                }
-            }
-            C.add(C_tmp / (N-m+1.0f));
-        }
+        this.difsRR = ensureCapacity( this.difsRR, NUM_DIFS );
 
-        float result = .0f;
-        for (int index=0 ; index<C.size() ; index++) {
-            result += Math.log(C.get(index));
+        for (int i = 1; i < length; ++i) {
+            this.difsRR[ i - 1 ] = Math.abs( SIGNAL[ i ] - SIGNAL[ i - 1 ] );
         }
-        result /= (N - m + 1.0f);
+
+        Arrays.sort( this.difsRR, 0, NUM_DIFS );
+        int n = NUM_DIFS / 2;
+
+        if ( NUM_DIFS == 0 )
+            result = Float.NaN;     // A single beat has no differences
+        else if ( NUM_DIFS % 2 == 0 )
+            result = ( this.difsRR[ n ] + this.difsRR[ n - 1 ] ) / 2;
+        else
+            result = this.difsRR[ n ];
+
         return result;
     }
 
-    private float _maxdist(final List<Float> X_I , final List<Float> X_J)
+    /** @return the entropy. */
+    private float calculateApEn(final float[] SIGNAL, int length, int m, float r)
     {
-        ArrayList<Float> diffs = new ArrayList<>();
-        for (int index = 0; index < X_I.size(); index++) {
-            diffs.add(Math.abs(X_I.get(index)-X_J.get(index)));
-        }
-        return Collections.max(diffs);
+        r *= this.timeStats.getSD();
+        return this.apEn.calculate( SIGNAL, length, m, r );
     }
 
     /** Calculates the stress level. */
     private void calculateStress()
     {
-        final float TERM1 = STRESS_LEVEL_A1 * this.valueApEn;
-        final float TERM2 = STRESS_LEVEL_A2 * this.valueMADRR;
-        final float TERM3 = STRESS_LEVEL_A3 * this.valueMeanBPM;
-        final float TERM4 = STRESS_LEVEL_A4 * this.valuePNN50;
-
-        this.valueStress = TERM1 + TERM2 + TERM3 + TERM4 + STRESS_LEVEL_INDEPENDENT_TERM;
+        this.valueStress = calculateStressLevel(
+                                    this.valueApEn, this.valueMADRR,
+                                    this.valueMeanBPM, this.valuePNN50 );
 
         if ( this.isVerbose() ) {
+            final float TERM1 = STRESS_LEVEL_A1 * this.valueApEn;
+            final float TERM2 = STRESS_LEVEL_A2 * this.valueMADRR;
+            final float TERM3 = STRESS_LEVEL_A3 * this.valueMeanBPM;
+            final float TERM4 = STRESS_LEVEL_A4 * this.valuePNN50;
+
             this.log.append( "\nApEn: " + this.valueApEn);
             this.log.append( "\nMADRR: " + this.valueMADRR);
             this.log.append( "\nMean BPM: " + this.valueMeanBPM );
@@ -791,16 +1074,35 @@ public class ResultAnalyzer {
         return;
     }
 
-    /** @return a value between 0 and 1. Values > .5 indicate stress. */
-    public float getProbeStress()
+    /** @return the stress level, given the values it depends on. */
+    static float calculateStressLevel(float apEn, float madRR, float meanBPM, float pnn50)
+    {
+        final float TERM1 = STRESS_LEVEL_A1 * apEn;
+        final float TERM2 = STRESS_LEVEL_A2 * madRR;
+        final float TERM3 = STRESS_LEVEL_A3 * meanBPM;
+        final float TERM4 = STRESS_LEVEL_A4 * pnn50;
+
+        return TERM1 + TERM2 + TERM3 + TERM4 + STRESS_LEVEL_INDEPENDENT_TERM;
+    }
+
+    /** @return the probability of stress, given the stress level. */
+    static float calculateProbeStress(float stressLevel)
     {
-        final float ODDS_RATIO = (float) Math.exp( this.valueStress );
+        final float ODDS_RATIO = (float) Math.exp( stressLevel );
 
         return ( ODDS_RATIO / ( ODDS_RATIO + 1 ) );
     }
 
+    /** @return a value between 0 and 1. Values > .5 indicate stress. */
+    public float getProbeStress()
+    {
+        this.ensureStress();
+        return calculateProbeStress( this.valueStress );
+    }
+
     public String getReport()
     {
+        this.ensureReport();
         return this.report;
     }
 
@@ -814,31 +1116,179 @@ public class ResultAnalyzer {
      */
     public float getStressLevel()
     {
+        this.ensureStress();
         return this.valueStress;
     }
 
     /** @return the median of RR (MADRR value), in ms. */
     public float getMadRR()
     {
+        this.ensureMadRR();
         return this.valueMADRR;
     }
 
     /** @return the entropy. */
     public float getApEn()
     {
+        this.ensureApEn();
         return this.valueApEn;
     }
 
+    /** @return the mean heart rate, in bpm. */
+    public float getMeanBPM()
+    {
+        this.ensureTimeStats();
+        return this.valueMeanBPM;
+    }
+
+    /** @return the standard deviation of the rr intervals (SDNN), in ms. */
+    public float getSDNN()
+    {
+        this.ensureTimeStats();
+        return this.valueSTD;
+    }
+
+    /** @return the root mean square of successive differences (rMSSD), in ms. */
+    public float getRMSSD()
+    {
+        this.ensureTimeStats();
+        return this.valueRMS;
+    }
+
+    /** @return the percentage of successive differences bigger than 50ms (pNN50). */
+    public float getPNN50()
+    {
+        this.ensureTimeStats();
+        return this.valuePNN50;
+    }
+
+    /** @return the normalized HRV. */
+    public float getNormHRV()
+    {
+        this.ensureTimeStats();
+        return this.valueNormHRV;
+    }
+
+    /** @return the total power of the spectrum, in ms^2. */
+    public float getTotalPower()
+    {
+        this.ensureSpectrum();
+        return this.valueTotalPower;
+    }
+
+    /** @return the power in the LF band, in ms^2, or a negative value if too short. */
+    public float getLFPower()
+    {
+        this.ensureSpectrum();
+        return this.valueLFPower;
+    }
+
+    /** @return the power in the HF band, in ms^2, or a negative value if too short. */
+    public float getHFPower()
+    {
+        this.ensureSpectrum();
+        return this.valueHFPower;
+    }
+
+    /** @return the LF/HF ratio. */
+    public float getLFHFRatio()
+    {
+        this.ensureSpectrum();
+        return this.valueLFHFRatio;
+    }
+
+    /** @return the number of beats in the analyzed result. */
+    public int getNumBeats()
+    {
+        return this.dataLength;
+    }
+
+    /** @return the number of beats rejected by the filter. */
+    public int getNumRejectedBeats()
+    {
+        this.ensureSignal();
+        return this.filteredData;
+    }
+
+    /** @return the error found in the last analysis, or null if there was none. */
+    public Exception getError()
+    {
+        return this.error;
+    }
+
+    /** @return all values of the last analysis, in an immutable object. */
+    public AnalysisSummary getSummary()
+    {
+        return new AnalysisSummary(
+                        this.fileName,
+                        this.getNumBeats(),
+                        this.getNumRejectedBeats(),
+                        this.getStressLevel(),
+                        this.getProbeStress(),
+                        this.getMadRR(),
+                        this.getApEn(),
+                        this.getMeanBPM(),
+                        this.getSDNN(),
+                        this.getRMSSD(),
+                        this.getPNN50(),
+                        this.getNormHRV(),
+                        this.getTotalPower(),
+                        this.getLFPower(),
+                        this.getHFPower(),
+                        this.getLFHFRatio() );
+    }
+
     /** @return the HR sequence, interpolated. */
     public Float[] getDataHRInterpolated()
     {
-        return this.dataHRInterp.toArray( new Float[ 0 ] );
+        this.ensureInterpolation();
+        return box( this.dataHRInterp, this.interpLength );
     }
 
     /** @return the HR sequence, interpolated for time. */
     public Float[] getDataHRInterpolatedForX()
     {
-        return this.dataHRInterpX.toArray( new Float[ 0 ] );
+        this.ensureInterpolation();
+        return box( this.dataHRInterpX, this.interpLength );
+    }
+
+    // Single stages, run again on the data of the last analysis, so they can be
+    // benchmarked on their own. They need a complete, non-lazy analysis.
+
+    /** Filters the unfiltered signal again. @return the number of rejected beats. */
+    int runFilterStage()
+    {
+        System.arraycopy( this.dataHRnf, 0, this.dataHR, 0, this.dataLength );
+        System.arraycopy( this.dataRRnf, 0, this.dataRR, 0, this.dataLength );
+        this.filterData();
+        return this.filteredData;
+    }
+
+    /** Interpolates the filtered hr again. @return the length of the interpolated signal. */
+    int runInterpolationStage()
+    {
+        this.interpolate();
+        return this.interpLength;
+    }
+
+    /** Calculates the spectrum again. @return total power, LF, HF and LF/HF ratio. */
+    float[] runSpectrumStage()
+    {
+        return this.calculateSpectrum( this.dataHRInterpX[ 0 ],
+                                       this.dataHRInterpX[ this.interpLength - 1 ] );
+    }
+
+    /** Calculates the entropy again. @return the entropy. */
+    float runApEnStage()
+    {
+        return this.calculateApEn( this.dataRR, this.dataLength,
+                                     this.config.getApEnM(), this.config.getApEnR() );
+    }
+
+    /** Calculates the median again. @return the MadRR. */
+    float runMadRRStage()
+    {
+        return this.calculateMADRR( this.dataRR, this.dataLength );
     }
 
     private String createHeader()
@@ -855,7 +1305,7 @@ public class ResultAnalyzer {
                 + "\n\n";
     }
 
-    private void dumpList(final List<Float> DATA, StringBuilder log, String label)
+    private void dumpList(final float[] DATA, int length, StringBuilder log, String label)
     {
         float avg = 0;
         String delim = "";
@@ -864,33 +1314,72 @@ public class ResultAnalyzer {
         log.append( label );
         log.append( ": [" );
 
-        for(float v: DATA) {
+        for(int i = 0; i < length; ++i) {
+            final float V = DATA[ i ];
+
             log.append( delim );
-            log.append( String.format( "%5.2f", v ) );
+            log.append( String.format( "%5.2f", V ) );
 
-            avg += v;
+            avg += V;
             delim = ", ";
         }
 
         log.append( "]\n" );
         log.append( "Avg: " );
-        log.append( String.format( "%5.2f", avg / DATA.size() ) );
+        log.append( String.format( "%5.2f", avg / length ) );
         log.append( '\n' );
     }
 
+    /** @return the given buffer if it can hold length values, a new, bigger one otherwise. */
+    private static float[] ensureCapacity(float[] buffer, int length)
+    {
+        if ( buffer.length < length ) {
+            buffer = new float[ length ];
+        }
+
+        return buffer;
+    }
+
+    /** @return the given buffer if it can hold length values, a new, bigger one otherwise. */
+    private static double[] ensureCapacity(double[] buffer, int length)
+    {
+        if ( buffer.length < length ) {
+            buffer = new double[ length ];
+        }
+
+        return buffer;
+    }
+
+    /** @return the first length values of data, as objects. */
+    private static Float[] box(final float[] DATA, int length)
+    {
+        final Float[] TORET = new Float[ length ];
+
+        for(int i = 0; i < length; ++i) {
+            TORET[ i ] = DATA[ i ];
+        }
+
+        return TORET;
+    }
+
     private String fileName;
-    private Result result;
+    private ResultData result;
+    private boolean preloaded;
     private String report;
     private StringBuilder log;
-
-    private List<Float> dataRRnf;
-    private List<Float> dataHRnf;
-    private List<Float> dataBeatTimesnf;
-    private List<Float> dataBeatTimes;
-    private List<Float> dataRR;
-    private List<Float> dataHR;
-    private List<Float> dataHRInterpX;
-    private List<Float> dataHRInterp;
+    private BeatFilter beatFilter;
+    private AnalysisConfig config;
+
+    private int dataLength;
+    private int interpLength;
+    private float[] dataRRnf;
+    private float[] dataHRnf;
+    private float[] dataBeatTimesnf;
+    private float[] dataBeatTimes;
+    private float[] dataRR;
+    private float[] dataHR;
+    private float[] dataHRInterpX;
+    private float[] dataHRInterp;
     private int filteredData;
     private float valueStress;
     private float valueApEn;
@@ -899,16 +1388,25 @@ public class ResultAnalyzer {
     private float valueRMS;
     private float valueMeanBPM;
     private float valuePNN50;
-
-    private static float freq = 4.0f;                   // Interpolation frequency in hz.
-    private static float hammingFactor = 1.586f;
-
-    private static float totalPowerBeg = 0.0f;
-    private static float totalPowerEnd = 4.0f/2.0f;     // Beginning and end of total power band
-
-    private static float LFPowerBeg = 0.05f;
-    private static float LFPowerEnd = 0.15f;            // Beginning and end of LF band
-
-    private static float HFPowerBeg = 0.15f;
-    private static float HFPowerEnd = 0.4f;             // Beginning and end of HF band
+    private float valueNormHRV;
+    private float valueTotalPower;
+    private float valueLFPower;
+    private float valueHFPower;
+    private float valueLFHFRatio;
+    private Exception error;
+    private AnalysisMetrics metrics;
+    private boolean lazy;
+    private int stages;
+
+    // Scratch buffers, reused between analysis stages and calls.
+    private float[] difsRR;
+    private double[] paddedX;
+    private double[] paddedY;
+    private double[][] windowsRe;
+    private double[][] windowsIm;
+    private ForkJoinPool spectrumPool;
+    private float[] spectrumAvg;
+    private float[] spectrumAxis;
+    private ApproximateEntropy apEn;
+    private TimeDomainStatistics timeStats;
 }
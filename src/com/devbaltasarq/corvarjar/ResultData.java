@@ -0,0 +1,21 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+/** A result ready to be analyzed: its properties, and its beats.
+  * It can be held in the heap, as a Result, or read from disk, as a MappedResult.
+  * @see Result
+  * @see MappedResult
+  */
+public interface ResultData extends BeatColumns, Identifiable {
+    /** @return the tag of the result. */
+    Tag getTag();
+
+    /** @return the date of the result, in millis. */
+    long getTime();
+
+    /** @return the duration of the result, in millis. */
+    long getDurationInMillis();
+}
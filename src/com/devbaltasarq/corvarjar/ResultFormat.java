@@ -0,0 +1,96 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import com.google.gson.JsonParseException;
+
+
+/** The formats a result can be stored in.
+  * All of them use the .res extension, and are told apart by their first bytes.
+  */
+public enum ResultFormat {
+    /** Text, the original format. */
+    JSON,
+    /** Compact binary, with delta-encoded varint columns. */
+    BINARY,
+    /** Fixed-width columns, to be memory-mapped.
+      * @see MappedResult
+      */
+    COLUMNAR;
+
+    /** Finds out the format of the data in a stream, without consuming it.
+      * @param in the stream, which must support mark() and reset().
+      * @return the format detected. Anything not binary nor columnar is supposed to be JSON.
+      * @throws IOException if the stream cannot be read.
+      */
+    public static ResultFormat detect(InputStream in) throws IOException
+    {
+        final byte[] MAGIC = new byte[ BinaryFormat.MAGIC.length ];
+        ResultFormat toret = JSON;
+        int numRead = 0;
+
+        if ( !in.markSupported() ) {
+            throw new IllegalArgumentException( "detecting format: stream does not support mark()" );
+        }
+
+        in.mark( MAGIC.length );
+
+        try {
+            while ( numRead < MAGIC.length ) {
+                final int READ = in.read( MAGIC, numRead, MAGIC.length - numRead );
+
+                if ( READ < 0 ) {
+                    break;
+                }
+
+                numRead += READ;
+            }
+        } finally {
+            in.reset();
+        }
+
+        if ( Arrays.equals( MAGIC, BinaryFormat.MAGIC ) ) {
+            toret = BINARY;
+        }
+        else
+        if ( Arrays.equals( MAGIC, MappedResult.MAGIC ) ) {
+            toret = COLUMNAR;
+        }
+
+        return toret;
+    }
+
+    /** Reads a result file, whatever its format.
+      * Columnar files are mapped, the rest are read into the heap.
+      * @param file the file to read.
+      * @return the result read.
+      * @throws IOException if the file cannot be read, or is not valid binary data.
+      * @throws JsonParseException if the file is JSON, but not a valid result.
+      */
+    public static ResultData read(File file) throws IOException, JsonParseException
+    {
+        final ResultData TORET;
+
+        try (FileInputStream fileInputStream = new FileInputStream( file );
+             BufferedInputStream bufferedInputStream = new BufferedInputStream( fileInputStream ))
+        {
+            // Columnar results are mapped, and the beats are read in place
+            if ( detect( bufferedInputStream ) == COLUMNAR ) {
+                TORET = MappedResult.map( fileInputStream.getChannel() );
+            } else {
+                TORET = Result.fromStream( bufferedInputStream );
+            }
+        }
+
+        return TORET;
+    }
+}
@@ -0,0 +1,622 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+/** Reads results in JSON straight from the UTF-8 bytes.
+  * Only the schema of .res files is understood, both the one with "rrs"
+  * and the one with "events" (in which "heart_beat_at" can be a string).
+  * Keys are compared as bytes, and beats are stored in growable primitive arrays,
+  * so no object is created per beat.
+  * @see Result#fromJSON(java.io.Reader), the general, slower, parser.
+  */
+final class ResultJsonParser {
+    private static final String LOG_TAG = ResultJsonParser.class.getSimpleName();
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] FIELD_TAG = bytes( "tag" );
+    private static final byte[] FIELD_TIME = bytes( "time" );
+    private static final byte[] FIELD_DATE = bytes( "date" );
+    private static final byte[] FIELD_RR = bytes( "rr" );
+    private static final byte[] FIELD_RRS = bytes( "rrs" );
+    private static final byte[] FIELD_EVENTS = bytes( "events" );
+    private static final byte[] FIELD_TYPE_ID = bytes( Persistent.TypeId.FIELD );
+    private static final byte[] FIELD_ID = bytes( Id.FIELD );
+    private static final byte[] FIELD_EVENT_TYPE = bytes( "event_type" );
+    private static final byte[] FIELD_HEART_BEAT_AT = bytes( "heart_beat_at" );
+    private static final byte[] FIELD_ELAPSED_TIME = bytes( "elapsed_time" );
+
+    private ResultJsonParser(InputStream in)
+    {
+        this.in = in;
+        this.buffer = new byte[ BUFFER_SIZE ];
+        this.pos = 0;
+        this.limit = 0;
+        this.consumed = 0;
+        this.scratch = new byte[ 64 ];
+        this.scratchLength = 0;
+        this.eventType = new byte[ 64 ];
+        this.eventTypeLength = 0;
+        this.beats = new Result.Builder( -1L );
+    }
+
+    /** Reads a result in JSON.
+      * @param in the stream, with UTF-8 bytes.
+      * @return the result read.
+      * @throws IOException if the stream cannot be read.
+      * @throws JsonParseException if the data is not valid.
+      */
+    static Result parse(InputStream in) throws IOException, JsonParseException
+    {
+        return new ResultJsonParser( in ).parseResult();
+    }
+
+    private Result parseResult() throws IOException, JsonParseException
+    {
+        long durationInMillis = -1L;
+        Persistent.TypeId typeId = null;
+        Id id = null;
+        Tag tag = Tag.NO_TAG;
+        long dateTime = -1L;
+        boolean more;
+
+        this.skipByteOrderMark();
+        this.expect( '{' );
+        more = this.peek() != '}';
+
+        while ( more ) {
+            this.nextKey();
+
+            if ( this.keyIs( FIELD_TAG ) ) {
+                tag = new Tag( this.nextString() );
+            }
+            else
+            if ( this.keyIs( FIELD_DATE ) ) {
+                dateTime = this.nextLong();
+            }
+            else
+            if ( this.keyIs( FIELD_TIME ) ) {
+                durationInMillis = this.nextLong();
+            }
+            else
+            if ( this.keyIs( FIELD_TYPE_ID ) ) {
+                try {
+                    typeId = Persistent.TypeId.parse( this.nextString() );
+                } catch(IllegalArgumentException exc) {
+                    throw new JsonParseException( "read type id: " + exc.getMessage() );
+                }
+            }
+            else
+            if ( this.keyIs( FIELD_ID ) ) {
+                id = new Id( this.nextLong() );
+            }
+            else
+            if ( this.keyIs( FIELD_RRS )
+              || this.keyIs( FIELD_EVENTS ) )
+            {
+                this.parseBeats();
+            } else {
+                this.skipValue();
+            }
+
+            more = this.nextMember( '}' );
+        }
+
+        this.expect( '}' );
+
+        // Chk
+        if ( id == null
+          || dateTime < 0
+          || durationInMillis < 0
+          || typeId != Persistent.TypeId.Result )
+        {
+            final String MSG = "Creating result from JSON: invalid or missing data.";
+
+            Log.e( LOG_TAG, MSG );
+            throw new JsonParseException( MSG );
+        }
+
+        return this.beats.build( tag, id, dateTime, durationInMillis );
+    }
+
+    /** Reads the array of beats, storing each time, rr pair. */
+    private void parseBeats() throws IOException, JsonParseException
+    {
+        boolean more;
+
+        this.expect( '[' );
+        more = this.peek() != ']';
+
+        while ( more ) {
+            long time = -1;
+            long rr = -1;
+            boolean moreFields;
+
+            this.eventTypeLength = 0;
+            this.expect( '{' );
+            moreFields = this.peek() != '}';
+
+            // Read the individual time, rr object.
+            while ( moreFields ) {
+                this.nextKey();
+
+                if ( this.keyIs( FIELD_EVENT_TYPE ) ) {
+                    this.expect( '"' );
+                    this.readStringIntoScratch();
+
+                    if ( this.eventType.length < this.scratchLength ) {
+                        this.eventType = new byte[ this.scratchLength ];
+                    }
+
+                    System.arraycopy( this.scratch, 0, this.eventType, 0, this.scratchLength );
+                    this.eventTypeLength = this.scratchLength;
+                }
+                else
+                if ( this.keyIs( FIELD_TIME )
+                  || this.keyIs( FIELD_ELAPSED_TIME ) )
+                {
+                    time = this.nextLong();
+                }
+                else
+                if ( this.keyIs( FIELD_RR )
+                  || this.keyIs( FIELD_HEART_BEAT_AT ) )
+                {
+                    rr = this.nextLong();
+                } else {
+                    this.skipValue();
+                }
+
+                moreFields = this.nextMember( '}' );
+            }
+
+            this.expect( '}' );
+
+            if ( time >= 0
+              && rr >= 0 )
+            {
+                try {
+                    this.beats.add( time, rr );
+                } catch(IllegalArgumentException exc) {
+                    throw this.error( exc.getMessage() );
+                }
+            } else {
+                if ( Log.isLoggable( Log.Level.INFO ) ) {
+                    Log.i( LOG_TAG, "ignored entry with no rr, even_type: "
+                            + ( this.eventTypeLength > 0
+                                    ? new String( this.eventType, 0, this.eventTypeLength, StandardCharsets.UTF_8 )
+                                    : "N/A" ) );
+                }
+            }
+
+            more = this.nextMember( ']' );
+        }
+
+        this.expect( ']' );
+    }
+
+    /** Reads a key and the colon after it. The key is left in the scratch buffer. */
+    private void nextKey() throws IOException, JsonParseException
+    {
+        this.expect( '"' );
+        this.readStringIntoScratch();
+        this.expect( ':' );
+    }
+
+    /** @return true if the last key read is the given one. */
+    private boolean keyIs(byte[] name)
+    {
+        boolean toret = this.scratchLength == name.length;
+
+        for (int i = 0; toret && i < name.length; ++i) {
+            toret = this.scratch[ i ] == name[ i ];
+        }
+
+        return toret;
+    }
+
+    /** Consumes the comma between members of an object or array.
+      * @param close the character closing the object or array.
+      * @return true if there are more members, false if the closing char is next.
+      */
+    private boolean nextMember(char close) throws IOException, JsonParseException
+    {
+        final int NEXT = this.peek();
+        boolean toret = false;
+
+        if ( NEXT == ',' ) {
+            ++this.pos;
+            toret = true;
+        }
+        else
+        if ( NEXT != close ) {
+            throw this.error( "expected ',' or '" + close + "'" );
+        }
+
+        return toret;
+    }
+
+    /** @return the value as a long, be it a number or a string holding a number. */
+    private long nextLong() throws IOException, JsonParseException
+    {
+        if ( this.peek() == '"' ) {
+            ++this.pos;
+            this.readStringIntoScratch();
+        } else {
+            this.readLiteralIntoScratch();
+        }
+
+        return this.parseScratchAsLong();
+    }
+
+    /** @return the value as a string, be it a string or a literal. */
+    private String nextString() throws IOException, JsonParseException
+    {
+        if ( this.peek() == '"' ) {
+            ++this.pos;
+            this.readStringIntoScratch();
+        } else {
+            this.readLiteralIntoScratch();
+        }
+
+        return new String( this.scratch, 0, this.scratchLength, StandardCharsets.UTF_8 );
+    }
+
+    /** Skips a whole value, whatever it is. */
+    private void skipValue() throws IOException, JsonParseException
+    {
+        final int NEXT = this.peek();
+
+        if ( NEXT == '{' ) {
+            boolean more;
+
+            ++this.pos;
+            more = this.peek() != '}';
+
+            while ( more ) {
+                this.nextKey();
+                this.skipValue();
+                more = this.nextMember( '}' );
+            }
+
+            this.expect( '}' );
+        }
+        else
+        if ( NEXT == '[' ) {
+            boolean more;
+
+            ++this.pos;
+            more = this.peek() != ']';
+
+            while ( more ) {
+                this.skipValue();
+                more = this.nextMember( ']' );
+            }
+
+            this.expect( ']' );
+        }
+        else
+        if ( NEXT == '"' ) {
+            ++this.pos;
+            this.readStringIntoScratch();
+        } else {
+            this.readLiteralIntoScratch();
+        }
+
+        return;
+    }
+
+    /** Reads a number, true, false or null into the scratch buffer. */
+    private void readLiteralIntoScratch() throws IOException, JsonParseException
+    {
+        this.scratchLength = 0;
+
+        while ( true ) {
+            final int B = this.peekRaw();
+
+            if ( B < 0
+              || B == ',' || B == '}' || B == ']' || B == ':'
+              || isWhitespace( B ) )
+            {
+                break;
+            }
+
+            this.appendToScratch( B );
+            ++this.pos;
+        }
+
+        if ( this.scratchLength == 0 ) {
+            throw this.error( "expected a value" );
+        }
+
+        return;
+    }
+
+    /** Reads a string, after its opening quote, into the scratch buffer, as UTF-8. */
+    private void readStringIntoScratch() throws IOException, JsonParseException
+    {
+        this.scratchLength = 0;
+
+        while ( true ) {
+            int b = this.readRaw();
+
+            if ( b == '"' ) {
+                break;
+            }
+
+            if ( b == '\\' ) {
+                b = this.readRaw();
+
+                switch ( b ) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        break;
+                    case 'b':
+                        b = '\b';
+                        break;
+                    case 'f':
+                        b = '\f';
+                        break;
+                    case 'n':
+                        b = '\n';
+                        break;
+                    case 'r':
+                        b = '\r';
+                        break;
+                    case 't':
+                        b = '\t';
+                        break;
+                    case 'u':
+                        this.appendCodePoint( this.readUnicodeEscape() );
+                        continue;
+                    default:
+                        throw this.error( "invalid escape sequence" );
+                }
+            }
+
+            this.appendToScratch( b );
+        }
+
+        return;
+    }
+
+    /** @return the code point of a \\u escape, joining surrogate pairs. */
+    private int readUnicodeEscape() throws IOException, JsonParseException
+    {
+        int toret = this.readHex4();
+
+        if ( Character.isHighSurrogate( (char) toret )
+          && this.peekRaw() == '\\' )
+        {
+            ++this.pos;
+
+            if ( this.readRaw() != 'u' ) {
+                throw this.error( "invalid surrogate pair" );
+            }
+
+            toret = Character.toCodePoint( (char) toret, (char) this.readHex4() );
+        }
+
+        return toret;
+    }
+
+    private int readHex4() throws IOException, JsonParseException
+    {
+        int toret = 0;
+
+        for (int i = 0; i < 4; ++i) {
+            final int DIGIT = Character.digit( this.readRaw(), 16 );
+
+            if ( DIGIT < 0 ) {
+                throw this.error( "invalid unicode escape" );
+            }
+
+            toret = ( toret << 4 ) | DIGIT;
+        }
+
+        return toret;
+    }
+
+    private void appendCodePoint(int codePoint)
+    {
+        if ( codePoint < 0x80 ) {
+            this.appendToScratch( codePoint );
+        }
+        else
+        if ( codePoint < 0x800 ) {
+            this.appendToScratch( 0xC0 | ( codePoint >> 6 ) );
+            this.appendToScratch( 0x80 | ( codePoint & 0x3F ) );
+        }
+        else
+        if ( codePoint < 0x10000 ) {
+            this.appendToScratch( 0xE0 | ( codePoint >> 12 ) );
+            this.appendToScratch( 0x80 | ( ( codePoint >> 6 ) & 0x3F ) );
+            this.appendToScratch( 0x80 | ( codePoint & 0x3F ) );
+        } else {
+            this.appendToScratch( 0xF0 | ( codePoint >> 18 ) );
+            this.appendToScratch( 0x80 | ( ( codePoint >> 12 ) & 0x3F ) );
+            this.appendToScratch( 0x80 | ( ( codePoint >> 6 ) & 0x3F ) );
+            this.appendToScratch( 0x80 | ( codePoint & 0x3F ) );
+        }
+
+        return;
+    }
+
+    private void appendToScratch(int b)
+    {
+        if ( this.scratchLength == this.scratch.length ) {
+            this.scratch = Arrays.copyOf( this.scratch, this.scratch.length * 2 );
+        }
+
+        this.scratch[ this.scratchLength++ ] = (byte) b;
+    }
+
+    /** @return the number in the scratch buffer, which must be integral. */
+    private long parseScratchAsLong() throws JsonParseException
+    {
+        final int LENGTH = this.scratchLength;
+        final boolean NEGATIVE = LENGTH > 0 && this.scratch[ 0 ] == '-';
+        int i = NEGATIVE ? 1 : 0;
+        long toret = 0;
+
+        if ( i == LENGTH ) {
+            throw this.error( "expected a number" );
+        }
+
+        for (; i < LENGTH; ++i) {
+            final int DIGIT = this.scratch[ i ] - '0';
+
+            if ( DIGIT < 0
+              || DIGIT > 9
+              || toret < ( Long.MIN_VALUE + DIGIT ) / 10 )
+            {
+                return this.parseScratchAsIntegralDouble();
+            }
+
+            // Accumulate negatively, so Long.MIN_VALUE fits
+            toret = toret * 10 - DIGIT;
+        }
+
+        if ( !NEGATIVE ) {
+            if ( toret == Long.MIN_VALUE ) {
+                return this.parseScratchAsIntegralDouble();
+            }
+
+            toret = -toret;
+        }
+
+        return toret;
+    }
+
+    /** Parses numbers such as 1.0 or 1e3, as long as they are integral. */
+    private long parseScratchAsIntegralDouble() throws JsonParseException
+    {
+        final String TEXT = new String( this.scratch, 0, this.scratchLength, StandardCharsets.UTF_8 );
+        final double VALUE;
+
+        try {
+            VALUE = Double.parseDouble( TEXT );
+        } catch(NumberFormatException exc) {
+            throw this.error( "expected a long but was " + TEXT );
+        }
+
+        final long TORET = (long) VALUE;
+
+        if ( TORET != VALUE ) {
+            throw this.error( "expected a long but was " + TEXT );
+        }
+
+        return TORET;
+    }
+
+    /** Consumes the given char, after any whitespace. */
+    private void expect(char c) throws IOException, JsonParseException
+    {
+        if ( this.peek() != c ) {
+            throw this.error( "expected '" + c + "'" );
+        }
+
+        ++this.pos;
+    }
+
+    /** @return the next byte that is not whitespace, without consuming it, or -1 at the end. */
+    private int peek() throws IOException
+    {
+        int toret = this.peekRaw();
+
+        while ( isWhitespace( toret ) ) {
+            ++this.pos;
+            toret = this.peekRaw();
+        }
+
+        return toret;
+    }
+
+    /** @return the next byte, without consuming it, or -1 at the end. */
+    private int peekRaw() throws IOException
+    {
+        int toret = -1;
+
+        if ( this.pos < this.limit
+          || this.fillBuffer() )
+        {
+            toret = this.buffer[ this.pos ] & 0xFF;
+        }
+
+        return toret;
+    }
+
+    /** @return the next byte, consumed. */
+    private int readRaw() throws IOException, JsonParseException
+    {
+        final int TORET = this.peekRaw();
+
+        if ( TORET < 0 ) {
+            throw this.error( "unexpected end of data" );
+        }
+
+        ++this.pos;
+        return TORET;
+    }
+
+    private boolean fillBuffer() throws IOException
+    {
+        final int READ = this.in.read( this.buffer );
+
+        this.consumed += this.limit;
+        this.pos = 0;
+        this.limit = Math.max( 0, READ );
+
+        return this.limit > 0;
+    }
+
+    private void skipByteOrderMark() throws IOException
+    {
+        if ( this.peekRaw() == 0xEF ) {
+            for (int i = 0; i < 3 && this.peekRaw() >= 0; ++i) {
+                ++this.pos;
+            }
+        }
+
+        return;
+    }
+
+    private JsonParseException error(String msg)
+    {
+        final String ERROR_MSG = "Creating result from JSON: " + msg
+                                 + " at byte " + ( this.consumed + this.pos );
+
+        Log.e( LOG_TAG, ERROR_MSG );
+        return new JsonParseException( ERROR_MSG );
+    }
+
+    private static boolean isWhitespace(int b)
+    {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static byte[] bytes(String s)
+    {
+        return s.getBytes( StandardCharsets.UTF_8 );
+    }
+
+    private final InputStream in;
+    private final byte[] buffer;
+    private int pos;
+    private int limit;
+    private long consumed;
+    private byte[] scratch;
+    private int scratchLength;
+    private byte[] eventType;
+    private int eventTypeLength;
+    private final Result.Builder beats;
+}
@@ -0,0 +1,179 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+/** A view of the beats of a result in a span of time, e.g. its last five minutes.
+  * Nothing is copied: the beats are read from the columns of the result,
+  * in the heap or mapped, so a slice is created in logarithmic time.
+  * The slice looks like a result recorded during the span: its date is the one
+  * of the result plus the start of the span, and the times of its beats are
+  * relative to that start. It keeps the id and the tag of the result.
+  * Slices can be analyzed directly, e.g. with new ResultAnalyzer( slice ).
+  * @see Result#slice(long, long)
+  * @see MappedResult#slice(long, long)
+  */
+public final class ResultSlice implements ResultData {
+    /** Creates a slice of a result.
+      * @param data the result, or a slice of it.
+      * @param fromMillis the start of the span, since the start of the data, included.
+      * @param toMillis the end of the span, since the start of the data, excluded.
+      */
+    static ResultSlice of(ResultData data, long fromMillis, long toMillis)
+    {
+        final ResultSlice TORET;
+
+        if ( fromMillis > toMillis ) {
+            throw new IllegalArgumentException( "slice ends before it starts: "
+                                                + fromMillis + " > " + toMillis );
+        }
+
+        if ( data instanceof ResultSlice ) {
+            final ResultSlice SLICE = (ResultSlice) data;
+
+            // Slices of slices read directly from the result
+            TORET = new ResultSlice( SLICE.data, SLICE.first, SLICE.first + SLICE.size,
+                                     SLICE.start, SLICE.durationInMillis, fromMillis, toMillis );
+        } else {
+            TORET = new ResultSlice( data, 0, data.size(),
+                                     0, data.getDurationInMillis(), fromMillis, toMillis );
+        }
+
+        return TORET;
+    }
+
+    /** Finds the beats in a span, inside the beats and span of the data.
+      * @param data the result to read the beats from.
+      * @param lo the position of the first beat that can be in the slice.
+      * @param hi the position after the last beat that can be in the slice.
+      * @param base the start of the beats that can be in the slice, in the timeline of the data.
+      * @param duration the length of the data, in millis, which the duration of the slice is cut to.
+      * @param fromMillis the start of the span, since base.
+      * @param toMillis the end of the span, since base.
+      */
+    private ResultSlice(ResultData data, int lo, int hi, long base, long duration,
+                        long fromMillis, long toMillis)
+    {
+        final long FROM = Math.max( 0, fromMillis );
+        // Beats are searched by the span asked for: the last one can be at the very end of the data
+        final long END = toMillis > Long.MAX_VALUE - base ? Long.MAX_VALUE : base + toMillis;
+
+        this.data = data;
+        this.start = base + FROM;
+        this.durationInMillis = Math.max( 0, Math.min( toMillis, duration ) - FROM );
+        this.first = lowerBound( data, lo, hi, this.start );
+        this.size = lowerBound( data, this.first, hi, Math.max( END, this.start ) ) - this.first;
+    }
+
+    /** @return the position of the first beat at or after the given time,
+      *         or hi if there is none. Beat times must not decrease.
+      */
+    static int lowerBound(BeatColumns beats, int lo, int hi, long time)
+    {
+        while ( lo < hi ) {
+            final int MID = ( lo + hi ) >>> 1;
+
+            if ( beats.timeAt( MID ) < time ) {
+                lo = MID + 1;
+            } else {
+                hi = MID;
+            }
+        }
+
+        return lo;
+    }
+
+    /** Creates a slice of this slice.
+      * @param fromMillis the start of the span, since the start of this slice, included.
+      * @param toMillis the end of the span, since the start of this slice, excluded.
+      * @return a view of the beats in the span, inside this slice.
+      */
+    public ResultSlice slice(long fromMillis, long toMillis)
+    {
+        return of( this, fromMillis, toMillis );
+    }
+
+    /** @return the start of the slice, since the start of the result, in millis. */
+    public long getStart()
+    {
+        return this.start;
+    }
+
+    /** @return the position of the first beat of the slice in the result. */
+    public int getFirst()
+    {
+        return this.first;
+    }
+
+    @Override
+    public Id getId()
+    {
+        return this.data.getId();
+    }
+
+    @Override
+    public Tag getTag()
+    {
+        return this.data.getTag();
+    }
+
+    /** @return the date of the start of the slice, in millis. */
+    @Override
+    public long getTime()
+    {
+        return this.data.getTime() + this.start;
+    }
+
+    /** @return the length of the span, in millis, cut to the end of the result. */
+    @Override
+    public long getDurationInMillis()
+    {
+        return this.durationInMillis;
+    }
+
+    @Override
+    public int size()
+    {
+        return this.size;
+    }
+
+    /** @return the time of the i-th beat of the slice, since the start of the slice, in millis. */
+    @Override
+    public long timeAt(int i)
+    {
+        return this.data.timeAt( this.first + this.checkIndex( i ) ) - this.start;
+    }
+
+    @Override
+    public long rrAt(int i)
+    {
+        return this.data.rrAt( this.first + this.checkIndex( i ) );
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.getId() + "@" + this.getTime() + ": " + this.getTag()
+                + " - " + new Duration( this.getDurationInMillis() ).toChronoString()
+                + " [" + this.first + ", " + ( this.first + this.size ) + ")";
+    }
+
+    /** Beats outside the slice must not be read, even if the result has them. */
+    private int checkIndex(int i)
+    {
+        if ( i < 0
+          || i >= this.size )
+        {
+            throw new IndexOutOfBoundsException( "beat " + i + " of a slice of " + this.size );
+        }
+
+        return i;
+    }
+
+    private final ResultData data;
+    private final int first;
+    private final int size;
+    private final long start;
+    private final long durationInMillis;
+}
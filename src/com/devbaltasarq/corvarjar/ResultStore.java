@@ -0,0 +1,351 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/** Finds the .res files in a directory by id, tag and time, without opening them.
+  * The values are read from the names given by Result.buildResultFileName(),
+  * i.e., result-i[id]-g[tag]-t[time].res. Files with other names are ignored.
+  * The directory is listed once, in scan(); afterwards, refresh() only applies
+  * the files created or deleted since the last call, as told by the file system.
+  * All methods can be called from different threads.
+  */
+public class ResultStore implements Closeable {
+    private static final String LOG_TAG = ResultStore.class.getSimpleName();
+    private static final String RES_FILE_PATTERN = "*.res";
+    private static final Pattern RES_FILE_NAME = Pattern.compile(
+                        "result-i(-?\\d+)-g(.+)-t(-?\\d+)\\.res" );
+
+    /** The values of a file, as read from its name. Immutable. */
+    public static final class Entry {
+        private Entry(File file, long id, String tag, long time)
+        {
+            this.file = file;
+            this.id = id;
+            this.tag = tag;
+            this.time = time;
+        }
+
+        /** @return the .res file. */
+        public File getFile()
+        {
+            return this.file;
+        }
+
+        /** @return the id of the result. */
+        public long getId()
+        {
+            return this.id;
+        }
+
+        /** @return the tag of the result, encoded. */
+        public String getTag()
+        {
+            return this.tag;
+        }
+
+        /** @return the time of the result, in millis. */
+        public long getTime()
+        {
+            return this.time;
+        }
+
+        @Override
+        public String toString()
+        {
+            return this.file.getName();
+        }
+
+        private final File file;
+        private final long id;
+        private final String tag;
+        private final long time;
+    }
+
+    /** By time, then by id, then by name, so entries with the same time or id are all kept. */
+    private static final Comparator<Entry> BY_TIME = Comparator
+                        .comparingLong( Entry::getTime )
+                        .thenComparingLong( Entry::getId )
+                        .thenComparing( entry -> entry.getFile().getName() );
+
+    /** Creates an empty store for a directory. Call scan() to fill it.
+      * @param dir the directory holding the .res files.
+      */
+    public ResultStore(File dir)
+    {
+        this.dir = dir;
+        this.byName = new HashMap<>();
+        this.byId = new HashMap<>();
+        this.byTag = new HashMap<>();
+        this.byTime = new TreeSet<>( BY_TIME );
+        this.watcher = null;
+    }
+
+    /** @return the directory of the .res files. */
+    public File getDir()
+    {
+        return this.dir;
+    }
+
+    /** Lists the directory, indexing all .res files, and starts watching it for changes.
+      * @throws IOException if the directory cannot be read.
+      */
+    public synchronized void scan() throws IOException
+    {
+        // Watch before listing, so no file created in between is lost
+        if ( this.watcher == null ) {
+            final WatchService WATCHER = FileSystems.getDefault().newWatchService();
+
+            try {
+                this.dir.toPath().register( WATCHER,
+                                            StandardWatchEventKinds.ENTRY_CREATE,
+                                            StandardWatchEventKinds.ENTRY_DELETE );
+            } catch(IOException exc) {
+                WATCHER.close();
+                throw exc;
+            }
+
+            this.watcher = WATCHER;
+        }
+
+        this.clear();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream( this.dir.toPath(), RES_FILE_PATTERN )) {
+            for(Path path: files) {
+                this.add( path.getFileName().toString() );
+            }
+        }
+
+        Log.i( LOG_TAG, () -> "indexed " + this.size() + " results in: " + this.dir );
+    }
+
+    /** Applies the files created or deleted since the last call, without listing the directory.
+      * If the file system lost track of the changes, the directory is listed again.
+      * @return true if there were changes.
+      * @throws IOException if the directory must be listed again, and cannot be read.
+      */
+    public synchronized boolean refresh() throws IOException
+    {
+        boolean toret = false;
+
+        if ( this.watcher == null ) {
+            this.scan();
+            toret = true;
+        } else {
+            WatchKey key;
+
+            while( ( key = this.watcher.poll() ) != null ) {
+                for(WatchEvent<?> event: key.pollEvents()) {
+                    final WatchEvent.Kind<?> KIND = event.kind();
+
+                    toret = true;
+
+                    if ( KIND == StandardWatchEventKinds.OVERFLOW ) {
+                        Log.i( LOG_TAG, () -> "too many changes, listing again: " + this.dir );
+                        key.reset();
+                        this.scan();
+                        return true;
+                    }
+
+                    final String NAME = event.context().toString();
+
+                    if ( KIND == StandardWatchEventKinds.ENTRY_CREATE ) {
+                        this.add( NAME );
+                    } else {
+                        this.remove( NAME );
+                    }
+                }
+
+                key.reset();
+            }
+        }
+
+        return toret;
+    }
+
+    /** Indexes a file, e.g. one just written, with no need to wait for refresh().
+      * @param fileName the name of the file, in the directory of this store.
+      * @return the entry for the file, or null if its name is not the one of a result.
+      */
+    public synchronized Entry add(String fileName)
+    {
+        final String NAME = new File( fileName ).getName();
+        Entry toret = this.byName.get( NAME );
+
+        if ( toret == null ) {
+            toret = parse( new File( this.dir, NAME ) );
+
+            if ( toret != null ) {
+                this.byName.put( NAME, toret );
+                this.byId.put( toret.getId(), toret );
+                this.byTag.computeIfAbsent( toret.getTag(), tag -> new TreeSet<>( BY_TIME ) ).add( toret );
+                this.byTime.add( toret );
+            }
+        }
+
+        return toret;
+    }
+
+    /** Removes a file from the index, e.g. one just deleted.
+      * @param fileName the name of the file.
+      * @return true if the file was indexed.
+      */
+    public synchronized boolean remove(String fileName)
+    {
+        final Entry ENTRY = this.byName.remove( new File( fileName ).getName() );
+
+        if ( ENTRY != null ) {
+            final NavigableSet<Entry> TAGGED = this.byTag.get( ENTRY.getTag() );
+
+            this.byId.remove( ENTRY.getId(), ENTRY );
+            this.byTime.remove( ENTRY );
+            TAGGED.remove( ENTRY );
+
+            if ( TAGGED.isEmpty() ) {
+                this.byTag.remove( ENTRY.getTag() );
+            }
+        }
+
+        return ENTRY != null;
+    }
+
+    /** @return the number of results indexed. */
+    public synchronized int size()
+    {
+        return this.byName.size();
+    }
+
+    /** @return the entry of the result with the given id, or null if there is none. */
+    public synchronized Entry get(Id id)
+    {
+        return this.byId.get( id.get() );
+    }
+
+    /** @return all entries, sorted by time. */
+    public synchronized List<Entry> getAll()
+    {
+        return new ArrayList<>( this.byTime );
+    }
+
+    /** @return the tags of all results, encoded. */
+    public synchronized Set<String> getTags()
+    {
+        return Collections.unmodifiableSet( new TreeSet<>( this.byTag.keySet() ) );
+    }
+
+    /** @return the entries with a time between from (included) and to (excluded), sorted by time. */
+    public synchronized List<Entry> findByTime(long from, long to)
+    {
+        return range( this.byTime, from, to );
+    }
+
+    /** @return the entries with the given tag, sorted by time. */
+    public synchronized List<Entry> findByTag(Tag tag)
+    {
+        final NavigableSet<Entry> TAGGED = this.byTag.get( tag.toString() );
+
+        return TAGGED == null ? new ArrayList<>() : new ArrayList<>( TAGGED );
+    }
+
+    /** @return the entries with the given tag, and a time between from (included)
+      *         and to (excluded), sorted by time.
+      */
+    public synchronized List<Entry> findByTag(Tag tag, long from, long to)
+    {
+        final NavigableSet<Entry> TAGGED = this.byTag.get( tag.toString() );
+
+        return TAGGED == null ? new ArrayList<>() : range( TAGGED, from, to );
+    }
+
+    /** Stops watching the directory. The index is kept, but not updated anymore. */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if ( this.watcher != null ) {
+            this.watcher.close();
+            this.watcher = null;
+        }
+
+        return;
+    }
+
+    private void clear()
+    {
+        this.byName.clear();
+        this.byId.clear();
+        this.byTag.clear();
+        this.byTime.clear();
+    }
+
+    /** @return the entries of a set sorted by time, with a time in [from, to). */
+    private static List<Entry> range(NavigableSet<Entry> entries, long from, long to)
+    {
+        final List<Entry> TORET = new ArrayList<>();
+
+        if ( from < to ) {
+            final Entry FROM = new Entry( new File( "" ), Long.MIN_VALUE, "", from );
+
+            for(Entry entry: entries.tailSet( FROM, true )) {
+                if ( entry.getTime() >= to ) {
+                    break;
+                }
+
+                TORET.add( entry );
+            }
+        }
+
+        return TORET;
+    }
+
+    /** @return the entry for a file, reading its name, or null if it is not the name of a result. */
+    static Entry parse(File file)
+    {
+        final Matcher MATCHER = RES_FILE_NAME.matcher( file.getName() );
+        Entry toret = null;
+
+        if ( MATCHER.matches() ) {
+            try {
+                toret = new Entry( file,
+                                   Long.parseLong( MATCHER.group( 1 ) ),
+                                   MATCHER.group( 2 ),
+                                   Long.parseLong( MATCHER.group( 3 ) ) );
+            } catch(NumberFormatException exc) {
+                Log.i( LOG_TAG, () -> "ignoring file with a number out of range: " + file );
+            }
+        }
+
+        return toret;
+    }
+
+    private final File dir;
+    private final Map<String, Entry> byName;
+    private final Map<Long, Entry> byId;
+    private final Map<String, NavigableSet<Entry>> byTag;
+    private final NavigableSet<Entry> byTime;
+    private WatchService watcher;
+}
@@ -0,0 +1,1248 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+
+/** Stores persistent objects by appending them to a few big files, instead of one file each.
+  * <p>
+  * Objects are appended, in their binary format, to the active segment, a file named
+  * segment-[number].log. When it reaches the maximum size, it is sealed, writing next to it
+  * an index with the offset of each record, and a new segment is started.
+  * Storing an object with the same id again replaces it, and delete() appends a tombstone.
+  * The offsets of the live objects are kept in memory, in a compact hash table,
+  * so get() reads a single record.
+  * </p><p>
+  * Each record is: the length of the data (int), its CRC32 (int), the type (byte, the ordinal
+  * of its TypeId, -1 for tombstones), the id (long) and the data. When opened, the sealed
+  * segments are read through their indexes, and the active one is checked record by record:
+  * a record torn by a crash is cut away, so the store is always consistent.
+  * Appends reach the operating system at once, so they survive a crash of the process;
+  * call sync(), or setSyncOnAppend(), for them to survive a power loss too.
+  * </p><p>
+  * Compaction copies the live records of the sealed segments which are mostly garbage
+  * to the active segment, and deletes them. It can run in the background, with
+  * startCompaction(). All methods can be called from different threads.
+  * </p>
+  * @see Persistent
+  */
+public final class SegmentStore implements Closeable {
+    private static final String LOG_TAG = SegmentStore.class.getSimpleName();
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 64L * 1024 * 1024;
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+    /** The first bytes of a segment: "CVJL". */
+    static final byte[] MAGIC = { 'C', 'V', 'J', 'L' };
+    /** The first bytes of the index of a segment: "CVJX". */
+    static final byte[] INDEX_MAGIC = { 'C', 'V', 'J', 'X' };
+    static final int VERSION = 1;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_EXTENSION = ".log";
+    private static final String INDEX_EXTENSION = ".idx";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final int SEGMENT_HEADER_LENGTH = MAGIC.length + 4;
+    private static final int RECORD_HEADER_LENGTH = 4 + 4 + 1 + 8;
+    private static final int MAX_DATA_LENGTH = 1 << 30;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte TOMBSTONE = -1;
+    private static final long TOMBSTONE_BIT = Long.MIN_VALUE;
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = ( 1L << OFFSET_BITS ) - 1;
+    private static final int MAX_SEGMENT_NUMBER = ( 1 << ( 63 - OFFSET_BITS ) ) - 1;
+
+    /** Maps ids to locations, with open addressing, so each entry takes just two longs.
+      * Locations hold the number of the segment and the offset in it, and are never negative.
+      */
+    static final class OffsetIndex {
+        static final long EMPTY = -1;
+        private static final int MIN_CAPACITY = 1024;
+
+        OffsetIndex()
+        {
+            this.keys = new long[ MIN_CAPACITY ];
+            this.values = new long[ MIN_CAPACITY ];
+            this.size = 0;
+            Arrays.fill( this.values, EMPTY );
+        }
+
+        int size()
+        {
+            return this.size;
+        }
+
+        /** @return the location for the key, or EMPTY. */
+        long get(long key)
+        {
+            final int MASK = this.keys.length - 1;
+            long toret = EMPTY;
+
+            for (int i = slotOf( key, MASK ); this.values[ i ] != EMPTY; i = ( i + 1 ) & MASK) {
+                if ( this.keys[ i ] == key ) {
+                    toret = this.values[ i ];
+                    break;
+                }
+            }
+
+            return toret;
+        }
+
+        /** @return the previous location for the key, or EMPTY. */
+        long put(long key, long value)
+        {
+            if ( ( this.size + 1 ) * 4L > this.keys.length * 3L ) {
+                this.grow();
+            }
+
+            final int MASK = this.keys.length - 1;
+            int i = slotOf( key, MASK );
+
+            while ( this.values[ i ] != EMPTY
+                 && this.keys[ i ] != key )
+            {
+                i = ( i + 1 ) & MASK;
+            }
+
+            final long TORET = this.values[ i ];
+
+            if ( TORET == EMPTY ) {
+                ++this.size;
+            }
+
+            this.keys[ i ] = key;
+            this.values[ i ] = value;
+            return TORET;
+        }
+
+        /** Removes a key, moving back the keys after it, so no marks for removed keys are needed.
+          * @return the location the key had, or EMPTY.
+          */
+        long remove(long key)
+        {
+            final int MASK = this.keys.length - 1;
+            int i = slotOf( key, MASK );
+
+            while ( this.values[ i ] != EMPTY
+                 && this.keys[ i ] != key )
+            {
+                i = ( i + 1 ) & MASK;
+            }
+
+            final long TORET = this.values[ i ];
+
+            if ( TORET != EMPTY ) {
+                int j = i;
+
+                while( true ) {
+                    j = ( j + 1 ) & MASK;
+
+                    if ( this.values[ j ] == EMPTY ) {
+                        break;
+                    }
+
+                    // Keys whose slot is between the hole and them must stay
+                    final int SLOT = slotOf( this.keys[ j ], MASK );
+                    final boolean STAYS = i <= j ? ( i < SLOT && SLOT <= j )
+                                                 : ( i < SLOT || SLOT <= j );
+
+                    if ( !STAYS ) {
+                        this.keys[ i ] = this.keys[ j ];
+                        this.values[ i ] = this.values[ j ];
+                        i = j;
+                    }
+                }
+
+                this.values[ i ] = EMPTY;
+                --this.size;
+            }
+
+            return TORET;
+        }
+
+        private void grow()
+        {
+            final long[] OLD_KEYS = this.keys;
+            final long[] OLD_VALUES = this.values;
+
+            this.keys = new long[ OLD_KEYS.length * 2 ];
+            this.values = new long[ OLD_KEYS.length * 2 ];
+            this.size = 0;
+            Arrays.fill( this.values, EMPTY );
+
+            for (int i = 0; i < OLD_KEYS.length; ++i) {
+                if ( OLD_VALUES[ i ] != EMPTY ) {
+                    this.put( OLD_KEYS[ i ], OLD_VALUES[ i ] );
+                }
+            }
+
+            return;
+        }
+
+        private static int slotOf(long key, int mask)
+        {
+            key ^= key >>> 33;
+            key *= 0xFF51AFD7ED558CCDL;
+            key ^= key >>> 33;
+
+            return (int) key & mask;
+        }
+
+        private long[] keys;
+        private long[] values;
+        private int size;
+    }
+
+    /** A segment file, and what is known about its records. */
+    private static final class Segment {
+        Segment(int number, File file, FileChannel channel, long size)
+        {
+            this.number = number;
+            this.file = file;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        File getIndexFile()
+        {
+            return new File( this.file.getParentFile(), indexName( this.number ) );
+        }
+
+        private final int number;
+        private final File file;
+        private final FileChannel channel;
+        private long size;
+        private int numRecords;
+        private int numLive;
+        private boolean sealed;
+    }
+
+    /** Reads the records of a segment one after another, checking them. */
+    private static final class RecordReader implements Closeable {
+        RecordReader(File file, long end) throws IOException
+        {
+            this.in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), BUFFER_SIZE ) );
+            this.pos = SEGMENT_HEADER_LENGTH;
+            this.end = end;
+
+            try {
+                this.in.readFully( new byte[ SEGMENT_HEADER_LENGTH ] );
+            } catch(IOException exc) {
+                this.in.close();
+                throw exc;
+            }
+        }
+
+        /** Reads the next record.
+          * @return true if a valid record was read, false at the end, or at a torn or corrupt record.
+          * @throws IOException if the file cannot be read.
+          */
+        boolean next() throws IOException
+        {
+            boolean toret = false;
+
+            if ( this.pos + RECORD_HEADER_LENGTH <= this.end ) {
+                final int LENGTH = this.in.readInt();
+                final int CRC = this.in.readInt();
+
+                this.type = this.in.readByte();
+                this.id = this.in.readLong();
+
+                if ( LENGTH >= 0
+                  && LENGTH <= MAX_DATA_LENGTH
+                  && this.pos + RECORD_HEADER_LENGTH + LENGTH <= this.end )
+                {
+                    this.data = new byte[ LENGTH ];
+                    this.in.readFully( this.data );
+
+                    if ( crcOf( this.type, this.id, this.data ) == CRC ) {
+                        this.offset = this.pos;
+                        this.pos += RECORD_HEADER_LENGTH + LENGTH;
+                        toret = true;
+                    }
+                }
+            }
+
+            return toret;
+        }
+
+        /** @return the position after the last valid record. */
+        long getPosition()
+        {
+            return this.pos;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            this.in.close();
+        }
+
+        private final DataInputStream in;
+        private final long end;
+        private long pos;
+        private long offset;
+        private byte type;
+        private long id;
+        private byte[] data;
+    }
+
+    private SegmentStore(File dir, long maxSegmentSize)
+    {
+        this.dir = dir;
+        this.maxSegmentSize = maxSegmentSize;
+        this.segments = new TreeMap<>();
+        this.index = new OffsetIndex();
+        this.lock = new ReentrantReadWriteLock();
+        this.compactionLock = new ReentrantReadWriteLock();
+        this.compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+    }
+
+    /** Opens a store, with segments of the default maximum size.
+      * @see SegmentStore#open(File, long)
+      */
+    public static SegmentStore open(File dir) throws IOException
+    {
+        return open( dir, DEFAULT_MAX_SEGMENT_SIZE );
+    }
+
+    /** Opens a store, creating it if it does not exist, and recovering it after a crash.
+      * @param dir the directory of the segments.
+      * @param maxSegmentSize the size a segment is sealed at, in bytes.
+      *                       Bigger objects are stored alone in their own segment.
+      * @return the store, ready to be used.
+      * @throws IOException if the directory or the segments cannot be read, or are not valid.
+      */
+    public static SegmentStore open(File dir, long maxSegmentSize) throws IOException
+    {
+        if ( maxSegmentSize <= SEGMENT_HEADER_LENGTH
+          || maxSegmentSize > OFFSET_MASK )
+        {
+            throw new IllegalArgumentException( "invalid maximum segment size: " + maxSegmentSize );
+        }
+
+        if ( !dir.isDirectory()
+          && !dir.mkdirs() )
+        {
+            throw new IOException( "Opening segment store: cannot create directory: " + dir );
+        }
+
+        final SegmentStore TORET = new SegmentStore( dir, maxSegmentSize );
+
+        try {
+            TORET.recover();
+        } catch(IOException | RuntimeException exc) {
+            TORET.closeSegments();
+            throw exc;
+        }
+
+        return TORET;
+    }
+
+    /** @return the directory of the segments. */
+    public File getDir()
+    {
+        return this.dir;
+    }
+
+    /** @return true if each append is forced to the disk before returning. */
+    public boolean isSyncOnAppend()
+    {
+        return this.syncOnAppend;
+    }
+
+    /** Changes whether each append is forced to the disk, which is much slower.
+      * @param syncOnAppend true for surviving power losses after each append.
+      */
+    public void setSyncOnAppend(boolean syncOnAppend)
+    {
+        this.syncOnAppend = syncOnAppend;
+    }
+
+    /** @return the ratio of live records below which a sealed segment is compacted. */
+    public double getCompactionThreshold()
+    {
+        return this.compactionThreshold;
+    }
+
+    /** Changes when sealed segments are compacted.
+      * @param compactionThreshold the ratio of live records below which
+      *                            a segment is compacted, between 0 and 1.
+      */
+    public void setCompactionThreshold(double compactionThreshold)
+    {
+        if ( compactionThreshold < 0
+          || compactionThreshold > 1 )
+        {
+            throw new IllegalArgumentException( "compaction threshold must be between 0 and 1: "
+                                                + compactionThreshold );
+        }
+
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /** Stores an object, replacing the one with the same id, if any.
+      * @param obj the object to store.
+      * @throws IOException if the object cannot be written.
+      */
+    public void append(Persistent obj) throws IOException
+    {
+        final ByteArrayOutputStream DATA = new ByteArrayOutputStream();
+
+        obj.toBinary( DATA );
+
+        if ( DATA.size() > MAX_DATA_LENGTH ) {
+            throw new IOException( "Appending to segment store: object too big: " + DATA.size() );
+        }
+
+        this.lock.writeLock().lock();
+
+        try {
+            this.ensureOpen();
+            this.write( (byte) obj.getTypeId().ordinal(), obj.getId().get(), DATA.toByteArray() );
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        return;
+    }
+
+    /** Deletes an object.
+      * @param id the id of the object.
+      * @return true if the object was stored, false otherwise.
+      * @throws IOException if the tombstone cannot be written.
+      */
+    public boolean delete(Id id) throws IOException
+    {
+        boolean toret = false;
+
+        this.lock.writeLock().lock();
+
+        try {
+            this.ensureOpen();
+
+            if ( this.index.get( id.get() ) != OffsetIndex.EMPTY ) {
+                this.write( TOMBSTONE, id.get(), new byte[ 0 ] );
+                toret = true;
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        return toret;
+    }
+
+    /** Reads an object.
+      * @param id the id of the object.
+      * @return the object, or null if there is none with that id.
+      * @throws IOException if the object cannot be read, or its record is corrupt.
+      */
+    public Persistent get(Id id) throws IOException
+    {
+        Persistent toret = null;
+
+        this.lock.readLock().lock();
+
+        try {
+            this.ensureOpen();
+
+            final long LOCATION = this.index.get( id.get() );
+
+            if ( LOCATION != OffsetIndex.EMPTY ) {
+                final Segment SEGMENT = this.segments.get( segmentOf( LOCATION ) );
+                final long OFFSET = offsetOf( LOCATION );
+                final ByteBuffer HEADER = readFully( SEGMENT.channel, OFFSET, RECORD_HEADER_LENGTH );
+                final int LENGTH = HEADER.getInt();
+                final int CRC = HEADER.getInt();
+                final byte TYPE = HEADER.get();
+                final long ID = HEADER.getLong();
+                final byte[] DATA = readFully( SEGMENT.channel, OFFSET + RECORD_HEADER_LENGTH, LENGTH ).array();
+
+                if ( ID != id.get()
+                  || crcOf( TYPE, ID, DATA ) != CRC )
+                {
+                    throw new IOException( "Reading from segment store: corrupt record for id "
+                                           + id + " in: " + SEGMENT.file );
+                }
+
+                toret = decode( TYPE, DATA );
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+
+        return toret;
+    }
+
+    /** @return true if there is an object with the given id. */
+    public boolean contains(Id id)
+    {
+        this.lock.readLock().lock();
+
+        try {
+            return this.index.get( id.get() ) != OffsetIndex.EMPTY;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /** @return the number of objects stored. */
+    public int size()
+    {
+        this.lock.readLock().lock();
+
+        try {
+            return this.index.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /** @return the number of segment files. */
+    public int getNumSegments()
+    {
+        this.lock.readLock().lock();
+
+        try {
+            return this.segments.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /** Reads all objects, segment after segment, in the order they were stored.
+      * Segments are read sequentially, with no random access. Compaction waits until the scan ends,
+      * so each object is visited once; objects stored during the scan may be visited or not.
+      * @param visitor receives each object.
+      * @throws IOException if a segment cannot be read.
+      */
+    public void scan(Consumer<? super Persistent> visitor) throws IOException
+    {
+        this.compactionLock.readLock().lock();
+
+        try {
+            int number = -1;
+
+            while( true ) {
+                final Segment SEGMENT;
+                final long END;
+
+                this.lock.readLock().lock();
+
+                try {
+                    this.ensureOpen();
+
+                    final Map.Entry<Integer, Segment> ENTRY = this.segments.higherEntry( number );
+
+                    if ( ENTRY == null ) {
+                        break;
+                    }
+
+                    SEGMENT = ENTRY.getValue();
+                    END = SEGMENT.size;
+                } finally {
+                    this.lock.readLock().unlock();
+                }
+
+                try (RecordReader reader = new RecordReader( SEGMENT.file, END )) {
+                    while( reader.next() ) {
+                        if ( reader.type != TOMBSTONE
+                          && this.isLive( SEGMENT.number, reader.id, reader.offset ) )
+                        {
+                            visitor.accept( decode( reader.type, reader.data ) );
+                        }
+                    }
+                }
+
+                number = SEGMENT.number;
+            }
+        } finally {
+            this.compactionLock.readLock().unlock();
+        }
+
+        return;
+    }
+
+    /** Compacts the sealed segments with less live records than the threshold.
+      * Their live records are copied to the active segment, and then they are deleted.
+      * Nothing is done while a scan is running.
+      * @return the number of segments compacted.
+      * @throws IOException if the segments cannot be read or written.
+      */
+    public int compact() throws IOException
+    {
+        int toret = 0;
+
+        if ( this.compactionLock.writeLock().tryLock() ) {
+            try {
+                for(Segment segment: this.findSegmentsToCompact()) {
+                    this.lock.writeLock().lock();
+
+                    try {
+                        this.ensureOpen();
+                        this.compact( segment );
+                        ++toret;
+                    } finally {
+                        this.lock.writeLock().unlock();
+                    }
+                }
+            } finally {
+                this.compactionLock.writeLock().unlock();
+            }
+        }
+
+        if ( toret > 0 ) {
+            final int NUM_COMPACTED = toret;
+
+            Log.i( LOG_TAG, () -> "compacted " + NUM_COMPACTED + " segments in: " + this.dir );
+        }
+
+        return toret;
+    }
+
+    /** Starts compacting periodically, in a background thread, until the store is closed.
+      * @param periodMillis the time between compactions, in millis.
+      */
+    public synchronized void startCompaction(long periodMillis)
+    {
+        if ( periodMillis <= 0 ) {
+            throw new IllegalArgumentException( "compaction period must be positive: " + periodMillis );
+        }
+
+        if ( this.compactionThread == null ) {
+            this.compactionThread = new Thread( () -> this.runCompaction( periodMillis ), "corvarjar-compaction" );
+            this.compactionThread.setDaemon( true );
+            this.compactionThread.start();
+        }
+
+        return;
+    }
+
+    /** Forces all appended records to the disk.
+      * @throws IOException if the active segment cannot be written.
+      */
+    public void sync() throws IOException
+    {
+        this.lock.writeLock().lock();
+
+        try {
+            this.ensureOpen();
+            this.active.channel.force( false );
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        return;
+    }
+
+    /** Stops the compaction, forces the records to the disk, and closes the segments. */
+    @Override
+    public void close() throws IOException
+    {
+        final Thread COMPACTION_THREAD;
+
+        synchronized ( this ) {
+            COMPACTION_THREAD = this.compactionThread;
+            this.compactionThread = null;
+        }
+
+        if ( COMPACTION_THREAD != null ) {
+            COMPACTION_THREAD.interrupt();
+
+            try {
+                COMPACTION_THREAD.join();
+            } catch(InterruptedException exc) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        this.lock.writeLock().lock();
+
+        try {
+            if ( !this.closed ) {
+                this.closed = true;
+
+                try {
+                    this.active.channel.force( true );
+                } finally {
+                    this.closeSegments();
+                }
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        return;
+    }
+
+    private void runCompaction(long periodMillis)
+    {
+        try {
+            while( !this.closed ) {
+                Thread.sleep( periodMillis );
+
+                try {
+                    this.compact();
+                } catch(IOException exc) {
+                    Log.e( LOG_TAG, () -> "compacting: " + this.dir + ": " + exc.getMessage() );
+                }
+            }
+        } catch(InterruptedException exc) {
+            // Closing
+        }
+
+        return;
+    }
+
+    /** Reads the segments in the directory, rebuilding the index, and opens the active segment. */
+    private void recover() throws IOException
+    {
+        final List<Integer> NUMBERS = new ArrayList<>();
+        final String[] NAMES = this.dir.list();
+
+        if ( NAMES == null ) {
+            throw new IOException( "Opening segment store: cannot list directory: " + this.dir );
+        }
+
+        final Set<String> ALL_NAMES = new HashSet<>( Arrays.asList( NAMES ) );
+
+        for(String name: NAMES) {
+            final int NUMBER = parseNumber( name, SEGMENT_EXTENSION );
+            final int INDEX_NUMBER = parseNumber( name, INDEX_EXTENSION );
+
+            if ( NUMBER >= 0 ) {
+                NUMBERS.add( NUMBER );
+            }
+            else
+            if ( ( INDEX_NUMBER >= 0
+                && !ALL_NAMES.contains( segmentName( INDEX_NUMBER ) ) )
+              || ( name.startsWith( SEGMENT_PREFIX )
+                && name.endsWith( INDEX_EXTENSION + TEMP_EXTENSION ) ) )
+            {
+                // Left by a crash: the segment was deleted by a compaction, or the index was being written
+                Files.deleteIfExists( new File( this.dir, name ).toPath() );
+            }
+        }
+
+        NUMBERS.sort( null );
+
+        for (int i = 0; i < NUMBERS.size(); ++i) {
+            final boolean IS_LAST = ( i == NUMBERS.size() - 1 );
+            final Segment SEGMENT = this.openSegment( NUMBERS.get( i ), IS_LAST );
+
+            this.segments.put( SEGMENT.number, SEGMENT );
+
+            if ( !this.readIndexFile( SEGMENT ) ) {
+                this.readSegment( SEGMENT );
+
+                if ( !IS_LAST ) {
+                    this.seal( SEGMENT );
+                }
+            }
+        }
+
+        if ( this.segments.isEmpty()
+          || this.segments.lastEntry().getValue().sealed )
+        {
+            this.active = this.createSegment( this.segments.isEmpty() ? 0 : this.segments.lastKey() + 1 );
+            this.segments.put( this.active.number, this.active );
+        } else {
+            this.active = this.segments.lastEntry().getValue();
+        }
+
+        Log.i( LOG_TAG, () -> "opened " + this.index.size() + " objects in "
+                              + this.segments.size() + " segments: " + this.dir );
+    }
+
+    /** Opens an existing segment, checking its header.
+      * The last segment may be empty, if a crash happened when creating it.
+      */
+    private Segment openSegment(int number, boolean isLast) throws IOException
+    {
+        final File FILE = new File( this.dir, segmentName( number ) );
+        final FileChannel CHANNEL = FileChannel.open( FILE.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE );
+        final Segment TORET = new Segment( number, FILE, CHANNEL, CHANNEL.size() );
+
+        try {
+            if ( isLast
+              && TORET.size < SEGMENT_HEADER_LENGTH )
+            {
+                CHANNEL.truncate( 0 );
+                writeFully( CHANNEL, createSegmentHeader(), 0 );
+                TORET.size = SEGMENT_HEADER_LENGTH;
+            } else {
+                final ByteBuffer HEADER = readFully( CHANNEL, 0, SEGMENT_HEADER_LENGTH );
+                final byte[] MAGIC_READ = new byte[ MAGIC.length ];
+
+                HEADER.get( MAGIC_READ );
+
+                if ( !Arrays.equals( MAGIC_READ, MAGIC )
+                  || HEADER.getInt() != VERSION )
+                {
+                    throw new IOException( "Opening segment store: not a valid segment: " + FILE );
+                }
+            }
+        } catch(IOException exc) {
+            CHANNEL.close();
+            throw exc;
+        }
+
+        return TORET;
+    }
+
+    /** Creates a new, empty segment. */
+    private Segment createSegment(int number) throws IOException
+    {
+        if ( number > MAX_SEGMENT_NUMBER ) {
+            throw new IOException( "Appending to segment store: too many segments: " + this.dir );
+        }
+
+        final File FILE = new File( this.dir, segmentName( number ) );
+        final FileChannel CHANNEL = FileChannel.open( FILE.toPath(), StandardOpenOption.CREATE_NEW,
+                                                      StandardOpenOption.READ, StandardOpenOption.WRITE );
+
+        try {
+            writeFully( CHANNEL, createSegmentHeader(), 0 );
+            CHANNEL.force( true );
+        } catch(IOException exc) {
+            CHANNEL.close();
+            throw exc;
+        }
+
+        return new Segment( number, FILE, CHANNEL, SEGMENT_HEADER_LENGTH );
+    }
+
+    /** Reads all records of a segment into the index, cutting away the torn or corrupt ones at the end. */
+    private void readSegment(Segment segment) throws IOException
+    {
+        final long VALID_END;
+
+        try (RecordReader reader = new RecordReader( segment.file, segment.size )) {
+            while( reader.next() ) {
+                this.apply( segment, reader.type, reader.id, reader.offset );
+            }
+
+            VALID_END = reader.getPosition();
+        }
+
+        if ( VALID_END < segment.size ) {
+            final long DISCARDED = segment.size - VALID_END;
+
+            Log.e( LOG_TAG, () -> "discarding " + DISCARDED + " bytes of torn or corrupt records: " + segment.file );
+            segment.channel.truncate( VALID_END );
+            segment.channel.force( true );
+            segment.size = VALID_END;
+        }
+
+        return;
+    }
+
+    /** Reads the index of a sealed segment into the index.
+      * @return true if it was read, false if it does not exist or is not valid.
+      */
+    private boolean readIndexFile(Segment segment)
+    {
+        final File FILE = segment.getIndexFile();
+        boolean toret = false;
+
+        if ( FILE.exists() ) {
+            try (CheckedInputStream checked = new CheckedInputStream(
+                                                new BufferedInputStream( new FileInputStream( FILE ), BUFFER_SIZE ),
+                                                new CRC32() );
+                 DataInputStream in = new DataInputStream( checked ))
+            {
+                final byte[] MAGIC_READ = new byte[ INDEX_MAGIC.length ];
+
+                in.readFully( MAGIC_READ );
+
+                if ( Arrays.equals( MAGIC_READ, INDEX_MAGIC )
+                  && in.readInt() == VERSION
+                  && in.readLong() == segment.size )
+                {
+                    final int NUM_RECORDS = in.readInt();
+                    final long[] IDS = new long[ Math.max( 0, NUM_RECORDS ) ];
+                    final long[] OFFSETS = new long[ IDS.length ];
+
+                    for (int i = 0; i < IDS.length; ++i) {
+                        IDS[ i ] = in.readLong();
+                        OFFSETS[ i ] = in.readLong();
+                    }
+
+                    final long CRC = checked.getChecksum().getValue();
+
+                    if ( in.readLong() == CRC ) {
+                        for (int i = 0; i < IDS.length; ++i) {
+                            final boolean IS_TOMBSTONE = ( OFFSETS[ i ] & TOMBSTONE_BIT ) != 0;
+
+                            this.apply( segment, IS_TOMBSTONE ? TOMBSTONE : 0,
+                                        IDS[ i ], OFFSETS[ i ] & ~TOMBSTONE_BIT );
+                        }
+
+                        segment.sealed = true;
+                        toret = true;
+                    }
+                }
+            } catch(IOException exc) {
+                Log.e( LOG_TAG, () -> "reading index: " + FILE + ": " + exc.getMessage() );
+            }
+
+            if ( !toret ) {
+                Log.e( LOG_TAG, () -> "invalid index, reading the segment instead: " + FILE );
+            }
+        }
+
+        return toret;
+    }
+
+    /** Writes the index of a segment, which will not change anymore.
+      * It is written to a temporary file first, so a crash never leaves a partial index.
+      */
+    private void writeIndexFile(Segment segment) throws IOException
+    {
+        final File FILE = segment.getIndexFile();
+        final File TEMP = new File( FILE.getPath() + TEMP_EXTENSION );
+        final List<long[]> RECORDS = new ArrayList<>();
+
+        try (RecordReader reader = new RecordReader( segment.file, segment.size )) {
+            while( reader.next() ) {
+                RECORDS.add( new long[] { reader.id,
+                                          reader.type == TOMBSTONE ? reader.offset | TOMBSTONE_BIT
+                                                                   : reader.offset } );
+            }
+        }
+
+        try (FileOutputStream fileOut = new FileOutputStream( TEMP )) {
+            final CheckedOutputStream CHECKED = new CheckedOutputStream(
+                                                    new BufferedOutputStream( fileOut, BUFFER_SIZE ),
+                                                    new CRC32() );
+            final DataOutputStream OUT = new DataOutputStream( CHECKED );
+
+            OUT.write( INDEX_MAGIC );
+            OUT.writeInt( VERSION );
+            OUT.writeLong( segment.size );
+            OUT.writeInt( RECORDS.size() );
+
+            for(long[] record: RECORDS) {
+                OUT.writeLong( record[ 0 ] );
+                OUT.writeLong( record[ 1 ] );
+            }
+
+            OUT.flush();
+            OUT.writeLong( CHECKED.getChecksum().getValue() );
+            OUT.flush();
+            fileOut.getFD().sync();
+        }
+
+        try {
+            Files.move( TEMP.toPath(), FILE.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        } catch(AtomicMoveNotSupportedException exc) {
+            Files.move( TEMP.toPath(), FILE.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        }
+
+        return;
+    }
+
+    /** Forces a segment to the disk, and writes its index. */
+    private void seal(Segment segment) throws IOException
+    {
+        segment.channel.force( true );
+        this.writeIndexFile( segment );
+        segment.sealed = true;
+    }
+
+    /** Appends a record to the active segment, starting a new one if it is full. */
+    private void write(byte type, long id, byte[] data) throws IOException
+    {
+        final int LENGTH = RECORD_HEADER_LENGTH + data.length;
+
+        if ( this.active.size + LENGTH > this.maxSegmentSize
+          && this.active.size > SEGMENT_HEADER_LENGTH )
+        {
+            this.seal( this.active );
+            this.active = this.createSegment( this.active.number + 1 );
+            this.segments.put( this.active.number, this.active );
+        }
+
+        final ByteBuffer RECORD = ByteBuffer.allocate( LENGTH );
+        final long OFFSET = this.active.size;
+
+        RECORD.putInt( data.length );
+        RECORD.putInt( crcOf( type, id, data ) );
+        RECORD.put( type );
+        RECORD.putLong( id );
+        RECORD.put( data );
+        RECORD.flip();
+
+        try {
+            writeFully( this.active.channel, RECORD, OFFSET );
+
+            if ( this.syncOnAppend ) {
+                this.active.channel.force( false );
+            }
+        } catch(IOException exc) {
+            // Leave no partial record behind, or the next ones could not be read
+            this.active.channel.truncate( OFFSET );
+            throw exc;
+        }
+
+        this.active.size += LENGTH;
+        this.apply( this.active, type, id, OFFSET );
+    }
+
+    /** Updates the index with a record, and the count of live records of the segments. */
+    private void apply(Segment segment, byte type, long id, long offset)
+    {
+        final long OLD_LOCATION;
+
+        ++segment.numRecords;
+
+        if ( type == TOMBSTONE ) {
+            OLD_LOCATION = this.index.remove( id );
+        } else {
+            OLD_LOCATION = this.index.put( id, locationOf( segment.number, offset ) );
+            ++segment.numLive;
+        }
+
+        if ( OLD_LOCATION != OffsetIndex.EMPTY ) {
+            --this.segments.get( segmentOf( OLD_LOCATION ) ).numLive;
+        }
+
+        return;
+    }
+
+    /** @return the sealed segments with less live records than the threshold. */
+    private List<Segment> findSegmentsToCompact()
+    {
+        final List<Segment> TORET = new ArrayList<>();
+
+        this.lock.readLock().lock();
+
+        try {
+            for(Segment segment: this.segments.values()) {
+                if ( segment.sealed
+                  && segment.numLive < segment.numRecords * this.compactionThreshold )
+                {
+                    TORET.add( segment );
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+
+        return TORET;
+    }
+
+    /** Copies the live records of a sealed segment to the active one, and deletes it.
+      * Tombstones are copied while the id is still deleted, since an older segment can still
+      * have a record for it; except for the oldest segment, which needs none.
+      */
+    private void compact(Segment segment) throws IOException
+    {
+        final boolean IS_OLDEST = ( this.segments.firstKey() == segment.number );
+
+        try (RecordReader reader = new RecordReader( segment.file, segment.size )) {
+            while( reader.next() ) {
+                if ( reader.type == TOMBSTONE ) {
+                    if ( !IS_OLDEST
+                      && this.index.get( reader.id ) == OffsetIndex.EMPTY )
+                    {
+                        this.write( TOMBSTONE, reader.id, reader.data );
+                    }
+                }
+                else
+                if ( this.index.get( reader.id ) == locationOf( segment.number, reader.offset ) ) {
+                    this.write( reader.type, reader.id, reader.data );
+                }
+            }
+        }
+
+        // The copies must be on disk before the originals are deleted
+        this.active.channel.force( true );
+        this.segments.remove( segment.number );
+        segment.channel.close();
+        Files.deleteIfExists( segment.file.toPath() );
+        Files.deleteIfExists( segment.getIndexFile().toPath() );
+    }
+
+    /** @return true if the record at the given place is the current one for its id. */
+    private boolean isLive(int number, long id, long offset)
+    {
+        this.lock.readLock().lock();
+
+        try {
+            return this.index.get( id ) == locationOf( number, offset );
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private void ensureOpen() throws IOException
+    {
+        if ( this.closed ) {
+            throw new IOException( "segment store is closed: " + this.dir );
+        }
+
+        return;
+    }
+
+    private void closeSegments() throws IOException
+    {
+        IOException error = null;
+
+        for(Segment segment: this.segments.values()) {
+            try {
+                segment.channel.close();
+            } catch(IOException exc) {
+                error = exc;
+            }
+        }
+
+        if ( error != null ) {
+            throw error;
+        }
+
+        return;
+    }
+
+    /** @return the object in a record. */
+    private static Persistent decode(byte type, byte[] data) throws IOException
+    {
+        final Persistent.TypeId[] TYPE_IDS = Persistent.TypeId.values();
+
+        if ( type < 0
+          || type >= TYPE_IDS.length )
+        {
+            throw new IOException( "Reading from segment store: unknown type: " + type );
+        }
+
+        return Persistent.load( TYPE_IDS[ type ], new ByteArrayInputStream( data ) );
+    }
+
+    private static int crcOf(byte type, long id, byte[] data)
+    {
+        final CRC32 CRC = new CRC32();
+
+        CRC.update( ByteBuffer.allocate( 9 ).put( type ).putLong( id ).array() );
+        CRC.update( data );
+        return (int) CRC.getValue();
+    }
+
+    private static ByteBuffer createSegmentHeader()
+    {
+        final ByteBuffer TORET = ByteBuffer.allocate( SEGMENT_HEADER_LENGTH );
+
+        TORET.put( MAGIC );
+        TORET.putInt( VERSION );
+        TORET.flip();
+        return TORET;
+    }
+
+    private static long locationOf(int number, long offset)
+    {
+        return ( (long) number << OFFSET_BITS ) | offset;
+    }
+
+    private static int segmentOf(long location)
+    {
+        return (int) ( location >>> OFFSET_BITS );
+    }
+
+    private static long offsetOf(long location)
+    {
+        return location & OFFSET_MASK;
+    }
+
+    private static String segmentName(int number)
+    {
+        return String.format( "%s%010d%s", SEGMENT_PREFIX, number, SEGMENT_EXTENSION );
+    }
+
+    private static String indexName(int number)
+    {
+        return String.format( "%s%010d%s", SEGMENT_PREFIX, number, INDEX_EXTENSION );
+    }
+
+    /** @return the number in the name of a segment or index, or -1 if it is not one. */
+    private static int parseNumber(String name, String extension)
+    {
+        int toret = -1;
+
+        if ( name.startsWith( SEGMENT_PREFIX )
+          && name.endsWith( extension ) )
+        {
+            try {
+                toret = Integer.parseInt( name.substring( SEGMENT_PREFIX.length(),
+                                                          name.length() - extension.length() ) );
+            } catch(NumberFormatException exc) {
+                toret = -1;
+            }
+        }
+
+        return toret;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException
+    {
+        final ByteBuffer TORET = ByteBuffer.allocate( length );
+
+        while ( TORET.hasRemaining() ) {
+            if ( channel.read( TORET, position + TORET.position() ) < 0 ) {
+                throw new EOFException( "Reading from segment store: unexpected end of segment" );
+            }
+        }
+
+        TORET.flip();
+        return TORET;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while ( buffer.hasRemaining() ) {
+            channel.write( buffer, position + buffer.position() );
+        }
+
+        return;
+    }
+
+    private final File dir;
+    private final long maxSegmentSize;
+    private final TreeMap<Integer, Segment> segments;
+    private final OffsetIndex index;
+    private final ReentrantReadWriteLock lock;
+    private final ReentrantReadWriteLock compactionLock;
+    private volatile double compactionThreshold;
+    private volatile boolean syncOnAppend;
+    private volatile boolean closed;
+    private Segment active;
+    private Thread compactionThread;
+}
@@ -10,15 +10,13 @@ package com.devbaltasarq.corvarjar;
   */
 public class Tag {
     public static final String FIELD = "tag";
-    public static Tag NO_TAG = new Tag( "no tag" );
+    // Before NO_TAG, which needs it when created
+    private static final FileNameAdapter fileNameAdapter = FileNameAdapter.get();
+    public static final Tag NO_TAG = new Tag( "no tag" );
 
     /** Creates a new tag. */
     public Tag(String tag)
     {
-        if ( fileNameAdapter == null ) {
-            fileNameAdapter = FileNameAdapter.get();
-        }
-
         this.tag = encode( tag );
     }
 
@@ -70,5 +68,4 @@ public class Tag {
     }
 
     private String tag;
-    private static FileNameAdapter fileNameAdapter;
 }
@@ -0,0 +1,121 @@
+// CorvarJar (c) 2020 Baltasar MIT License <jbgarcia@uvigo.es>
+
+
+package com.devbaltasarq.corvarjar;
+
+
+/** Time-domain HRV statistics, calculated in a single pass.
+  * Beats are added one by one, and all statistics are available at any moment.
+  * Mean and variance of the RR intervals are updated with Welford's method.
+  */
+public class TimeDomainStatistics {
+    /** The difference between consecutive RR's to count for pNN50, in ms. */
+    public static final float NN50_THRESHOLD = 50.0f;
+
+    /** Creates a new, empty, accumulator. */
+    public TimeDomainStatistics()
+    {
+        this.reset();
+    }
+
+    /** Removes all beats. */
+    public void reset()
+    {
+        this.count = 0;
+        this.meanRR = 0.0;
+        this.m2RR = 0.0;
+        this.sumSquaredDiffs = 0.0;
+        this.numBigDiffs = 0;
+        this.lastRR = 0.0f;
+        this.sumHR = 0.0f;
+
+        return;
+    }
+
+    /** Adds a new beat.
+      * @param rr the rr interval, in ms.
+      * @param hr the heart rate of this beat, in bpm.
+      */
+    public void add(float rr, float hr)
+    {
+        final double DELTA = rr - this.meanRR;
+
+        ++this.count;
+        this.meanRR += DELTA / this.count;
+        this.m2RR += DELTA * ( rr - this.meanRR );
+
+        if ( this.count > 1 ) {
+            final float DIFF = rr - this.lastRR;
+
+            this.sumSquaredDiffs += DIFF * DIFF;
+
+            if ( Math.abs( DIFF ) > NN50_THRESHOLD ) {
+                ++this.numBigDiffs;
+            }
+        }
+
+        // Float sum, as always used for the stress level
+        this.sumHR += hr;
+        this.lastRR = rr;
+    }
+
+    /** @return the number of beats added. */
+    public int getCount()
+    {
+        return this.count;
+    }
+
+    /** @return the mean of the rr intervals (AVNN), in ms. */
+    public float getMeanRR()
+    {
+        return (float) this.meanRR;
+    }
+
+    /** @return the mean heart rate, in bpm. */
+    public float getMeanHR()
+    {
+        return this.sumHR / this.count;
+    }
+
+    /** @return the sample standard deviation of the rr intervals (SDNN), in ms. */
+    public float getSDNN()
+    {
+        return (float) Math.sqrt( this.m2RR / ( this.count - 1 ) );
+    }
+
+    /** @return the population standard deviation of the rr intervals, in ms.
+      * This is the one used for the tolerance of the ApEn.
+      */
+    public float getSD()
+    {
+        return (float) Math.sqrt( this.m2RR / this.count );
+    }
+
+    /** @return the root mean square of successive differences (rMSSD), in ms. */
+    public float getRMSSD()
+    {
+        return (float) Math.sqrt( this.sumSquaredDiffs / ( this.count - 1 ) );
+    }
+
+    /** @return the percentage of successive differences bigger than 50ms (pNN50). */
+    public float getPNN50()
+    {
+        return 100.0f * ( (float) this.numBigDiffs / (float) ( this.count - 1 ) );
+    }
+
+    /** @return the normalized HRV: ln(rMSSD), scaled so 6.5 is 100. */
+    public float getNormHRV()
+    {
+        final float LN_RMSSD = (float) Math.log( this.getRMSSD() );
+
+        return LN_RMSSD * 100.0f / 6.5f;
+    }
+
+    private int count;
+    private double meanRR;
+    private double m2RR;
+    private double sumSquaredDiffs;
+    private int numBigDiffs;
+    private float lastRR;
+    private float sumHR;
+}
@@ -1,8 +1,14 @@
 package com.devbaltasarq.corvarjartest;
 
+import com.devbaltasarq.corvarjar.BatchAnalyzer;
 import com.devbaltasarq.corvarjar.LibInfo;
 import com.devbaltasarq.corvarjar.ResultAnalyzer;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
 public class CorvarJarTest {
     public static void main(String[] args)
     {
@@ -19,6 +25,13 @@ public class CorvarJarTest {
                 verbose = true;
             }
 
+            final File FILE = new File( args[ fileArgNumber ] );
+
+            if ( FILE.isDirectory() ) {
+                analyzeDirectory( FILE );
+                return;
+            }
+
             ResultAnalyzer resultAnalyzer = new ResultAnalyzer( args[ fileArgNumber ] );
 
             if ( verbose ) {
@@ -38,7 +51,23 @@ public class CorvarJarTest {
                 System.out.println( LOG.toString() );
             }
         } else {
-            System.out.println( "Usage: corvarjartest <filename.res>" );
+            System.out.println( "Usage: corvarjartest [--verbose] <filename.res | directory>" );
+        }
+    }
+
+    /** Analyzes all .res files in a directory, printing a line of CSV for each one. */
+    private static void analyzeDirectory(File dir)
+    {
+        final Writer OUT = new OutputStreamWriter( System.out );
+
+        try {
+            final BatchAnalyzer.Report REPORT =
+                    new BatchAnalyzer().analyze( dir, new BatchAnalyzer.CsvSink( OUT ) );
+
+            OUT.flush();
+            System.out.println( "\n" + REPORT );
+        } catch(IOException exc) {
+            System.err.println( "Error reading directory: " + dir + ": " + exc.getMessage() );
         }
     }
 }